@@ -18,9 +18,9 @@ public class BestRoute implements java.io.Serializable {
     public static class Step {
         /**
          * The geometry of the step. This is a list of coordinates that represent the path of the
-         * step.
+         * step, kept as primitives.
          */
-        private final List<Coordinates> geometry;
+        private final Polyline geometry;
         /**
          * The departure time of the step. This is the time at which the user will depart.
          * E.g. The user might already be at the station, but may need to wait until the next train
@@ -34,11 +34,11 @@ public class BestRoute implements java.io.Serializable {
         private final ClockTime arrivalTime;
 
         /**
-         * Constructor for the Step class.
+         * Constructor for the Step class. The geometry isn't copied if it's already a `Polyline`.
          */
         public Step(List<Coordinates> geometry,
                     ClockTime departureTime, ClockTime arrivalTime) {
-            this.geometry = geometry;
+            this.geometry = Polyline.of(geometry);
             this.departureTime = departureTime;
             this.arrivalTime = arrivalTime;
         }
@@ -47,7 +47,7 @@ public class BestRoute implements java.io.Serializable {
          * Getter for the geometry of the step. This is a list of coordinates that represent the path of the
          * step.
          */
-        public List<Coordinates> getGeometry() {
+        public Polyline getGeometry() {
             return geometry;
         }
 
@@ -242,6 +242,24 @@ public class BestRoute implements java.io.Serializable {
         return steps;
     }
 
+    /**
+     * Check whether the route can be taken without stairs: every station where it enters, leaves
+     * or changes platforms is step-free. Staying on the same platform to change trips is fine.
+     */
+    public boolean isStepFree() {
+        StationDetails previousStop = null;
+        for (Step step : steps) {
+            if (!(step instanceof TransitStep transit) || transit.getStops().isEmpty()) continue;
+            StationDetails boarding = transit.getStops().get(0);
+            if (boarding != previousStop) {
+                if (!boarding.isStepFree()) return false;
+                if (previousStop != null && !previousStop.isStepFree()) return false;
+            }
+            previousStop = transit.getStops().get(transit.getStops().size() - 1);
+        }
+        return previousStop == null || previousStop.isStepFree();
+    }
+
     /**
      * Converts the route to a string.
      */
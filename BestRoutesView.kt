@@ -12,12 +12,14 @@ import androidx.compose.foundation.layout.Row
 import androidx.compose.foundation.layout.Spacer
 import androidx.compose.foundation.layout.fillMaxSize
 import androidx.compose.foundation.layout.fillMaxWidth
+import androidx.compose.foundation.layout.height
 import androidx.compose.foundation.layout.padding
 import androidx.compose.foundation.layout.width
 import androidx.compose.foundation.lazy.LazyColumn
 import androidx.compose.foundation.lazy.items
 import androidx.compose.foundation.shape.RoundedCornerShape
 import androidx.compose.material.icons.Icons
+import androidx.compose.material.icons.filled.Accessible
 import androidx.compose.material.icons.filled.DirectionsWalk
 import androidx.compose.material.icons.filled.KeyboardArrowRight
 import androidx.compose.material.icons.filled.Train
@@ -55,6 +57,7 @@ import edu.vassar.cmpu203.myfirstapplication.Model.StationDetails
 import edu.vassar.cmpu203.myfirstapplication.Model.TransitRoute
 import edu.vassar.cmpu203.myfirstapplication.Model.TransitTrip
 import edu.vassar.cmpu203.myfirstapplication.Model.TripCollection
+import edu.vassar.cmpu203.myfirstapplication.Model.TripStopTimes
 import edu.vassar.cmpu203.myfirstapplication.View.ui.theme.BlueTransit
 import edu.vassar.cmpu203.myfirstapplication.View.ui.theme.MyFirstApplicationTheme
 
@@ -113,13 +116,24 @@ fun BestRoutesView(liveState: LiveData<State>) {
                     is GotBestRoutes -> {
                         // Cast the state to `GotBestRoutes`.
                         val bestRoutes = (state as GotBestRoutes).bestRoutes
+                        // The routes leave at different times, so place each on a timeline from
+                        // the first departure to the last arrival, measured from the departure of
+                        // the first route listed since the times can wrap around midnight.
+                        val reference = bestRoutes.firstOrNull()?.departureTime?.toSeconds() ?: 0
+                        val timelineStart = bestRoutes.minOfOrNull { timelineSpan(it, reference).first } ?: 0
+                        val timelineEnd = bestRoutes.maxOfOrNull { timelineSpan(it, reference).second } ?: 0
                         // List the best routes in compact mode.
                         LazyColumn(modifier = Modifier.fillMaxSize()) {
                             // Each route instance is unique; use that as id (we don't expect routes
                             // to change so this simple solution works).
                             items(bestRoutes, key={ route -> System.identityHashCode(route)}) { route ->
-                                // Present the route in compact mode.
-                                BestRouteCompactView(route)
+                                Column {
+                                    // Present the route on the timeline, then in compact mode.
+                                    if (bestRoutes.size > 1) {
+                                        BestRouteTimelineView(route, reference, timelineStart, timelineEnd)
+                                    }
+                                    BestRouteCompactView(route)
+                                }
                             }
                         }
                     }
@@ -130,6 +144,72 @@ fun BestRoutesView(liveState: LiveData<State>) {
     }
 }
 
+/**
+ * Get when `route` leaves and arrives, in seconds from `reference` (a time of day in seconds):
+ * negative if it leaves before. The times of day wrap around midnight (e.g. the server's, which
+ * are UTC), so the departure is taken as the closest one to `reference`, before or after, and
+ * the arrival as the first one after the departure.
+ */
+private fun timelineSpan(route: BestRoute, reference: Int): Pair<Int, Int> {
+    var departure = ClockTime.secondsBetween(reference, route.departureTime.toSeconds())
+    if (departure > ClockTime.SECONDS_PER_DAY / 2) departure -= ClockTime.SECONDS_PER_DAY
+    val arrival = departure + ClockTime.secondsBetween(
+        route.departureTime.toSeconds(), route.arrivalTime.toSeconds())
+    return Pair(departure, arrival)
+}
+
+/**
+ * Present when a single best route leaves and arrives on a timeline from `timelineStart` to
+ * `timelineEnd` (in seconds from `reference`, see `timelineSpan`): its departure time followed by
+ * a bar spanning the route, in the color of its first train.
+ */
+@Composable
+fun BestRouteTimelineView(route: BestRoute, reference: Int, timelineStart: Int, timelineEnd: Int) {
+    val length = (timelineEnd - timelineStart).coerceAtLeast(1).toFloat()
+    val (departure, arrival) = timelineSpan(route, reference)
+    // Weights must be positive, so give every part at least a sliver.
+    val before = ((departure - timelineStart) / length).coerceAtLeast(0.001f)
+    val during = ((arrival - departure) / length).coerceAtLeast(0.01f)
+    val after = ((timelineEnd - arrival) / length).coerceAtLeast(0.001f)
+
+    // Use the color of the first train, or gray for routes that only walk.
+    val firstTransit = route.steps.firstOrNull { it is BestRoute.TransitStep } as BestRoute.TransitStep?
+    val barColor = when {
+        firstTransit == null -> Color.Gray
+        firstTransit.route.color != "" -> Color(firstTransit.route.color)
+        else -> BlueTransit
+    }
+
+    Row(
+        verticalAlignment = Alignment.CenterVertically,
+        modifier = Modifier
+            .fillMaxWidth()
+            .padding(16.dp, 8.dp, 16.dp, 0.dp)
+    ) {
+        // Display the departure time in a fixed width so the bars line up.
+        Text(
+            "Leave ${route.departureTime.toMilitaryTime()}",
+            fontWeight = FontWeight.Bold,
+            modifier = Modifier.width(100.dp)
+        )
+        // Display the bar between the space before and after it.
+        Row(modifier = Modifier.weight(1f)) {
+            Spacer(Modifier.weight(before))
+            Box(
+                modifier = Modifier
+                    .weight(during)
+                    .height(8.dp)
+                    .clip(RoundedCornerShape(4.dp))
+                    .background(barColor)
+            )
+            Spacer(Modifier.weight(after))
+        }
+    }
+}
+
+/// The color of the step-free badge.
+private val StepFreeGreen = Color(0xFF2E7D32)
+
 /**
  * Present a single best route in compact mode.
  */
@@ -156,6 +236,17 @@ fun BestRouteCompactView(route: BestRoute) {
                 Text(
                     "Trip Length: $minuteDuration min",
                     fontWeight = FontWeight.Bold, fontSize = 18.sp)
+                // Mark the routes that don't need stairs (e.g. the slower ones the accessible
+                // engine adds), so it's clear why they're listed.
+                if (route.isStepFree && route.steps.any { it is BestRoute.TransitStep }) {
+                    Row(
+                        verticalAlignment = Alignment.CenterVertically,
+                        modifier = Modifier.padding(start = 8.dp)
+                    ) {
+                        Icon(Icons.Filled.Accessible, "Step-free", tint = StepFreeGreen)
+                        Text("Step-free", color = StepFreeGreen, fontWeight = FontWeight.Bold)
+                    }
+                }
                 // Add as much space as possible between the trip length and arrival time.
                 Spacer(Modifier.weight(1f))
                 // Display the arrival time; use bold (yet small) font to emphasize the time.
@@ -300,7 +391,7 @@ fun GotRoutesPreview() {
         "ASP24GEN-1092-Weekday-00_109600_1..S03R", transitRoute, null,
         TransitTrip.TripService(
             "1", "Start date", "End date", true, true, true, true, true, true, true),
-        "South Ferry", TransitTrip.TripDirection.ONE, HashMap())
+        "South Ferry", TransitTrip.TripDirection.ONE, TripStopTimes.EMPTY)
 
     // Create list of 2 fake transit routes.
     val bestRoutes = listOf(
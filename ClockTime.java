@@ -6,27 +6,36 @@ import java.time.OffsetDateTime;
 import java.time.ZoneId;
 import java.time.ZoneOffset;
 import java.util.Locale;
-import java.util.Objects;
 
 /**
  * ClockTime is a class that represents the ETA of a specific train in a route and will be used in
  * the next phase
+ * <p>
+ * A time is stored as a single int: the seconds since the start of the service day. Following
+ * GTFS, that can be more than 24 hours for trips of one service day that run past midnight
+ * (e.g. "25:10:00"). Code that handles lots of times (loading, timetables, routing) uses that int
+ * directly; `ClockTime` is only a thin wrapper around it. The static helpers work on the int form.
  */
 public class ClockTime {
-    private final int hours;
-    private final int minutes;
-    private final int seconds;
+    public static final int SECONDS_PER_MINUTE = 60;
+    public static final int SECONDS_PER_HOUR = 60 * 60;
+    public static final int SECONDS_PER_DAY = 24 * 60 * 60;
+
+    /// Seconds since the start of the service day.
+    private final int secondsOfServiceDay;
 
     /**
      * Constructor for ClockTime.
-     * @param hours The hours; should be between 0-24
+     * @param hours The hours; should be between 0-24, or more for service days running past midnight
      * @param minutes The minutes; should be between 0-60
      * @param seconds The seconds; should be between 0-60
      */
     public ClockTime(int hours, int minutes, int seconds) {
-        this.hours = hours;
-        this.minutes = minutes;
-        this.seconds = seconds;
+        this(hours * SECONDS_PER_HOUR + minutes * SECONDS_PER_MINUTE + seconds);
+    }
+
+    private ClockTime(int secondsOfServiceDay) {
+        this.secondsOfServiceDay = secondsOfServiceDay;
     }
 
     public ClockTime(String isoDateString) {
@@ -35,47 +44,108 @@ public class ClockTime {
         LocalDateTime dateTime = LocalDateTime.ofInstant(
                 Instant.parse(isoDateString), ZoneOffset.UTC);
         // Convert to ClockTime
-        this.hours = dateTime.getHour();
-        this.minutes = dateTime.getMinute();
-        this.seconds = dateTime.getSecond();
+        this.secondsOfServiceDay = dateTime.toLocalTime().toSecondOfDay();
+    }
+
+    /**
+     * Create a ClockTime from the seconds since the start of the service day.
+     */
+    public static ClockTime ofSeconds(int secondsOfServiceDay) {
+        return new ClockTime(secondsOfServiceDay);
+    }
+
+    /**
+     * Get the seconds since the start of the service day.
+     */
+    public int toSeconds() {
+        return secondsOfServiceDay;
     }
 
     /**
-     * Getter for the hours. Should be between 0-24
+     * Getter for the hours. Should be between 0-24, or more for service days running past midnight
      */
     public int getHours() {
-        return hours;
+        return secondsOfServiceDay / SECONDS_PER_HOUR;
     }
 
     /**
      * Getter for the minutes. Should be between 0-60
      */
     public int getMinutes() {
-        return minutes;
+        return secondsOfServiceDay / SECONDS_PER_MINUTE % 60;
     }
 
     /**
      * Getter for the seconds. Should be between 0-60
      */
     public int getSeconds() {
-        return seconds;
+        return secondsOfServiceDay % SECONDS_PER_MINUTE;
     }
 
     /**
-     * Gets the duration in minutes between two ClockTimes.
+     * Gets the duration in minutes between two ClockTimes. If `end` is earlier than `start`, the
+     * duration is assumed to cross midnight (e.g. 23:50 to 00:10 is 20 minutes).
      * @param start The start time.
      * @param end The end time.
      * @return The duration in minutes.
      */
     public static int minuteDuration(ClockTime start, ClockTime end) {
-        return (end.hours - start.hours) * 60 + (end.minutes - start.minutes);
+        return secondsBetween(start.secondsOfServiceDay, end.secondsOfServiceDay) / SECONDS_PER_MINUTE;
+    }
+
+    /**
+     * Gets the duration in seconds between two times in seconds since the start of a service day.
+     * If `end` is earlier than `start`, the duration is assumed to cross midnight.
+     * @param start The start time.
+     * @param end The end time.
+     * @return The duration in seconds.
+     */
+    public static int secondsBetween(int start, int end) {
+        int duration = end - start;
+        // Add a day to negative durations without branching: `duration >> 31` is -1 if negative.
+        return duration + ((duration >> 31) & SECONDS_PER_DAY);
+    }
+
+    /**
+     * Parse a GTFS time ("H:MM:SS" or "HH:MM:SS", hours can be 24 or more) straight from bytes
+     * into seconds since the start of the service day, without allocating.
+     * @param bytes The buffer containing the time.
+     * @param start The index of the first character.
+     * @param end The index after the last character.
+     * @throws NumberFormatException If the bytes aren't a valid time, e.g. if the minutes or
+     *                               seconds are 60 or more.
+     */
+    public static int parseSeconds(byte[] bytes, int start, int end) {
+        int seconds = 0;
+        int value = 0;
+        int fields = 1;
+        int digits = 0;
+        for (int i = start; i < end; i++) {
+            byte b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                value = value * 10 + (b - '0');
+                digits++;
+            } else if (b == ':' && digits > 0 && fields < 3 && (fields == 1 || value < 60)) {
+                seconds = (seconds + value) * 60;
+                value = 0;
+                digits = 0;
+                fields++;
+            } else {
+                throw new NumberFormatException("Invalid time: " + new String(bytes, start, end - start));
+            }
+        }
+        if (fields != 3 || digits == 0 || value >= 60) {
+            throw new NumberFormatException("Invalid time: " + new String(bytes, start, end - start));
+        }
+        return seconds + value;
     }
 
     /**
-     * Converts ClockTime to military time without displaying seconds.
+     * Converts ClockTime to military time without displaying seconds. Times past midnight of the
+     * service day are shown as the next day's time (25:10 is shown as 01:10).
      */
     public String toMilitaryTime() {
-        return String.format(Locale.US, "%02d:%02d", hours, minutes);
+        return String.format(Locale.US, "%02d:%02d", getHours() % 24, getMinutes());
     }
 
     /**
@@ -84,7 +154,7 @@ public class ClockTime {
      */
     @Override
     public String toString() {
-        return "{ " + hours + ":" + minutes + "," + seconds + " }";
+        return "{ " + getHours() + ":" + getMinutes() + "," + getSeconds() + " }";
     }
 
     /**
@@ -101,7 +171,7 @@ public class ClockTime {
             return false;
         }
         ClockTime other = (ClockTime) obj;
-        return other.hours == hours && other.minutes == minutes && other.seconds == seconds;
+        return other.secondsOfServiceDay == secondsOfServiceDay;
     }
 
     /**
@@ -110,6 +180,6 @@ public class ClockTime {
      */
     @Override
     public int hashCode() {
-        return Objects.hash(hours, minutes, seconds);
+        return Integer.hashCode(secondsOfServiceDay);
     }
 }
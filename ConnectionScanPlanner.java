@@ -0,0 +1,346 @@
+package edu.vassar.cmpu203.myfirstapplication.Controller;
+
+import static edu.vassar.cmpu203.myfirstapplication.Controller.PlannerNetwork.UNREACHED;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import edu.vassar.cmpu203.myfirstapplication.Model.BestRoute;
+import edu.vassar.cmpu203.myfirstapplication.Model.ClockTime;
+import edu.vassar.cmpu203.myfirstapplication.Model.Coordinates;
+import edu.vassar.cmpu203.myfirstapplication.Model.GTFSData;
+import edu.vassar.cmpu203.myfirstapplication.Model.StationDetails;
+import edu.vassar.cmpu203.myfirstapplication.Model.StopTimeTable;
+
+/**
+ * ConnectionScanPlanner finds the earliest arriving public-transit route with the Connection Scan
+ * Algorithm (CSA, Dibbelt et al.).
+ * <p>
+ * Every hop of every trip from one stop to the next is a "connection". All connections are kept
+ * in one array sorted by departure time, and a query is a single pass over the connections
+ * departing after the departure time: a connection is usable if its trip was already boarded or
+ * if its station has been reached by then, and every usable connection may improve the arrival at
+ * its next station. The pass is a linear scan over primitive arrays, which is very cache-friendly,
+ * but it only optimizes the arrival time (not the number of transfers). The labels are allocated
+ * once per thread and reset by each query.
+ */
+public class ConnectionScanPlanner implements JourneyPlanner {
+    private final PlannerNetwork network;
+    private final StationDetails[] stations;
+    /// The connections sorted by departure: from which station to which, when, on which trip
+    /// (its index in the `StopTimeTable`) and from which position of the trip's stops.
+    private final int[] departures;
+    private final int[] arrivals;
+    private final int[] fromStations;
+    private final int[] toStations;
+    private final int[] connectionTrips;
+    private final int[] connectionStops;
+    /// The labels of the queries running on each thread, reused from one query to the next.
+    private final ThreadLocal<Labels> labels = ThreadLocal.withInitial(Labels::new);
+
+    /**
+     * Constructor for ConnectionScanPlanner. Builds the sorted connections of `data`; build one
+     * planner per `GTFSData` and reuse it.
+     */
+    public ConnectionScanPlanner(GTFSData data) {
+        this(new PlannerNetwork(data));
+    }
+
+    ConnectionScanPlanner(PlannerNetwork network) {
+        this.network = network;
+        this.stations = network.stations;
+        StopTimeTable table = network.table;
+
+        int count = 0;
+        for (int trip = 0; trip < table.getTripCount(); trip++) {
+            if (network.trips[trip] == null) continue;
+            count += Math.max(0, table.getTrip(trip).size() - 1);
+        }
+
+        // Sort by (departure, connection) packed into longs, like `DepartureBoard`.
+        long[] keys = new long[count];
+        int[] unsortedTrips = new int[count];
+        int[] unsortedStops = new int[count];
+        int connection = 0;
+        for (int trip = 0; trip < table.getTripCount(); trip++) {
+            if (network.trips[trip] == null) continue;
+            int size = table.getTrip(trip).size();
+            for (int stop = 0; stop < size - 1; stop++) {
+                unsortedTrips[connection] = trip;
+                unsortedStops[connection] = stop;
+                keys[connection] = ((long) network.departureSeconds(trip * 2, stop) << 32) | connection;
+                connection++;
+            }
+        }
+        Arrays.sort(keys);
+
+        departures = new int[count];
+        arrivals = new int[count];
+        fromStations = new int[count];
+        toStations = new int[count];
+        connectionTrips = new int[count];
+        connectionStops = new int[count];
+        for (int i = 0; i < count; i++) {
+            int unsorted = (int) keys[i];
+            int trip = unsortedTrips[unsorted];
+            int stop = unsortedStops[unsorted];
+            departures[i] = (int) (keys[i] >>> 32);
+            arrivals[i] = network.arrivalSeconds(trip * 2, stop + 1);
+            fromStations[i] = network.stationAt(trip * 2, stop);
+            toStations[i] = network.stationAt(trip * 2, stop + 1);
+            connectionTrips[i] = trip;
+            connectionStops[i] = stop;
+        }
+    }
+
+    /**
+     * The labels of the queries of one thread: the earliest arrival at each station and how it
+     * was reached; by a trip (the connections it was boarded and left at) or by walking from
+     * another station. Allocated once and reset by each query.
+     */
+    private class Labels {
+        private final int[] accessSeconds = new int[stations.length];
+        private final int[] egressSeconds = new int[stations.length];
+        private final int[] stationArrivals = new int[stations.length];
+        private final int[] rideArrivals = new int[stations.length];
+        private final int[] rideBoardings = new int[stations.length];
+        private final int[] rideAlightings = new int[stations.length];
+        private final int[] transferSources = new int[stations.length];
+        /// The connection each trip was boarded at; trips are `trip * 2 + shift` and connections
+        /// are `connection * 2 + shift`, like in `PlannerNetwork`.
+        private final int[] tripBoardings = new int[network.trips.length * 2];
+
+        /**
+         * Reset the labels for a new query.
+         */
+        void reset() {
+            Arrays.fill(stationArrivals, UNREACHED);
+            Arrays.fill(rideBoardings, -1);
+            Arrays.fill(transferSources, -1);
+            Arrays.fill(tripBoardings, -1);
+        }
+    }
+
+    /**
+     * Get the number of connections in the timetable.
+     */
+    public int getConnectionCount() {
+        return departures.length;
+    }
+
+    /**
+     * Find the earliest arriving route, plus a walking route if the destination is close enough.
+     */
+    @Override
+    public List<BestRoute> plan(Coordinates origin, Coordinates destination, LocalDateTime departure) {
+        LocalDate today = departure.toLocalDate();
+        int departureSeconds = departure.toLocalTime().toSecondOfDay();
+        BitSet activeToday = network.calendar.getActiveTrips(today);
+        BitSet activeYesterday = network.calendar.getActiveTrips(today.minusDays(1));
+        Labels scratch = labels.get();
+        scratch.reset();
+        int[] accessSeconds = scratch.accessSeconds;
+        int[] egressSeconds = scratch.egressSeconds;
+        network.walkSecondsToStations(origin, accessSeconds);
+        network.walkSecondsToStations(destination, egressSeconds);
+
+        int[] stationArrivals = scratch.stationArrivals;
+        int[] rideArrivals = scratch.rideArrivals;
+        int[] rideBoardings = scratch.rideBoardings;
+        int[] rideAlightings = scratch.rideAlightings;
+        int[] transferSources = scratch.transferSources;
+        int[] tripBoardings = scratch.tripBoardings;
+        for (int s = 0; s < stations.length; s++) {
+            if (accessSeconds[s] >= 0) stationArrivals[s] = departureSeconds + accessSeconds[s];
+        }
+
+        List<BestRoute> routes = new ArrayList<>(2);
+        int bestArrival = UNREACHED;
+        int bestStation = -1;
+        int walkOnlySeconds = network.walkOnlySeconds(origin, destination);
+        if (walkOnlySeconds >= 0) {
+            bestArrival = departureSeconds + walkOnlySeconds;
+            routes.add(network.walkOnlyRoute(origin, destination, departureSeconds, bestArrival));
+        }
+        int walkOnlyArrival = bestArrival;
+
+        // Scan today's connections and yesterday's (which are a day earlier in today's terms)
+        // merged in order of departure.
+        int todayPosition = lowerBound(departureSeconds);
+        int yesterdayPosition = lowerBound(departureSeconds + ClockTime.SECONDS_PER_DAY);
+        while (todayPosition < departures.length || yesterdayPosition < departures.length) {
+            boolean fromYesterday = todayPosition >= departures.length || (yesterdayPosition < departures.length
+                    && departures[yesterdayPosition] - ClockTime.SECONDS_PER_DAY < departures[todayPosition]);
+            int c = fromYesterday ? yesterdayPosition++ : todayPosition++;
+            int shift = fromYesterday ? 1 : 0;
+            int dayOffset = shift * ClockTime.SECONDS_PER_DAY;
+            int connectionDeparture = departures[c] - dayOffset;
+            // Nothing departing from now on can arrive earlier.
+            if (connectionDeparture >= bestArrival) break;
+
+            int trip = connectionTrips[c] * 2 + shift;
+            if (tripBoardings[trip] < 0) {
+                if (stationArrivals[fromStations[c]] > connectionDeparture
+                        || !network.isActive(trip, activeToday, activeYesterday)) continue;
+                tripBoardings[trip] = c * 2 + shift;
+            }
+
+            int to = toStations[c];
+            int arrival = arrivals[c] - dayOffset;
+            if (arrival >= stationArrivals[to]) continue;
+            stationArrivals[to] = arrival;
+            rideArrivals[to] = arrival;
+            rideBoardings[to] = tripBoardings[trip];
+            rideAlightings[to] = c * 2 + shift;
+            transferSources[to] = -1;
+            if (egressSeconds[to] >= 0 && arrival + egressSeconds[to] < bestArrival) {
+                bestArrival = arrival + egressSeconds[to];
+                bestStation = to;
+            }
+
+            for (int i = network.transferOffsets[to]; i < network.transferOffsets[to + 1]; i++) {
+                int target = network.transferTargets[i];
+                int transferArrival = arrival + network.transferSeconds[i];
+                if (transferArrival >= stationArrivals[target]) continue;
+                stationArrivals[target] = transferArrival;
+                transferSources[target] = to;
+                if (egressSeconds[target] >= 0 && transferArrival + egressSeconds[target] < bestArrival) {
+                    bestArrival = transferArrival + egressSeconds[target];
+                    bestStation = target;
+                }
+            }
+        }
+
+        if (bestStation >= 0 && bestArrival < walkOnlyArrival) {
+            routes.add(buildRoute(origin, destination, bestStation,
+                    stationArrivals, rideArrivals, rideBoardings, rideAlightings, transferSources,
+                    accessSeconds, egressSeconds));
+        }
+        return routes;
+    }
+
+    /**
+     * Find the earliest arrival at every station from `origin` leaving at `departure`, with a
+     * single scan of the connections (one-to-all, e.g. for an isochrone map). A parent station
+     * starts from all its platforms, and arrives when the first of them does.
+     * @param maxTravelSeconds How long to travel at most; the scan stops there.
+     * @return The earliest arrival at each station, by ordinal, in seconds since the start of the
+     * day of `departure`, or -1 if it can't be reached within `maxTravelSeconds`.
+     */
+    public int[] earliestArrivals(StationDetails origin, LocalDateTime departure, int maxTravelSeconds) {
+        LocalDate today = departure.toLocalDate();
+        int departureSeconds = departure.toLocalTime().toSecondOfDay();
+        int lastArrival = departureSeconds + maxTravelSeconds;
+        BitSet activeToday = network.calendar.getActiveTrips(today);
+        BitSet activeYesterday = network.calendar.getActiveTrips(today.minusDays(1));
+        Labels scratch = labels.get();
+        scratch.reset();
+        int[] stationArrivals = scratch.stationArrivals;
+        int[] tripBoardings = scratch.tripBoardings;
+
+        List<StationDetails> origins = origin.getChildren().isEmpty() ? List.of(origin) : origin.getChildren();
+        for (StationDetails platform : origins) {
+            int s = platform.getOrdinal();
+            if (s < 0 || s >= stations.length) continue;
+            stationArrivals[s] = departureSeconds;
+            for (int i = network.transferOffsets[s]; i < network.transferOffsets[s + 1]; i++) {
+                int target = network.transferTargets[i];
+                stationArrivals[target] = Math.min(stationArrivals[target], departureSeconds + network.transferSeconds[i]);
+            }
+        }
+
+        // Scan today's and yesterday's connections merged in order of departure, like `plan`, but
+        // without a destination to stop at.
+        int todayPosition = lowerBound(departureSeconds);
+        int yesterdayPosition = lowerBound(departureSeconds + ClockTime.SECONDS_PER_DAY);
+        while (todayPosition < departures.length || yesterdayPosition < departures.length) {
+            boolean fromYesterday = todayPosition >= departures.length || (yesterdayPosition < departures.length
+                    && departures[yesterdayPosition] - ClockTime.SECONDS_PER_DAY < departures[todayPosition]);
+            int c = fromYesterday ? yesterdayPosition++ : todayPosition++;
+            int shift = fromYesterday ? 1 : 0;
+            int dayOffset = shift * ClockTime.SECONDS_PER_DAY;
+            if (departures[c] - dayOffset > lastArrival) break;
+
+            int trip = connectionTrips[c] * 2 + shift;
+            if (tripBoardings[trip] < 0) {
+                if (stationArrivals[fromStations[c]] > departures[c] - dayOffset
+                        || !network.isActive(trip, activeToday, activeYesterday)) continue;
+                tripBoardings[trip] = c * 2 + shift;
+            }
+
+            int to = toStations[c];
+            int arrival = arrivals[c] - dayOffset;
+            if (arrival >= stationArrivals[to]) continue;
+            stationArrivals[to] = arrival;
+            for (int i = network.transferOffsets[to]; i < network.transferOffsets[to + 1]; i++) {
+                int target = network.transferTargets[i];
+                stationArrivals[target] = Math.min(stationArrivals[target], arrival + network.transferSeconds[i]);
+            }
+        }
+
+        int[] earliest = new int[stations.length];
+        for (int s = 0; s < stations.length; s++) {
+            earliest[s] = stationArrivals[s] <= lastArrival ? stationArrivals[s] : -1;
+        }
+        for (int s = 0; s < stations.length; s++) {
+            StationDetails parent = stations[s].getParent();
+            if (earliest[s] < 0 || parent == null || parent.getOrdinal() < 0) continue;
+            int p = parent.getOrdinal();
+            if (earliest[p] < 0 || earliest[s] < earliest[p]) earliest[p] = earliest[s];
+        }
+        return earliest;
+    }
+
+    /**
+     * Get the position of the first connection departing at or after `seconds`.
+     */
+    private int lowerBound(int seconds) {
+        int low = 0;
+        int high = departures.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (departures[middle] < seconds) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Follow the labels back from `station` and build the route they describe.
+     */
+    private BestRoute buildRoute(Coordinates origin, Coordinates destination, int station,
+                                 int[] stationArrivals, int[] rideArrivals, int[] rideBoardings,
+                                 int[] rideAlightings, int[] transferSources,
+                                 int[] accessSeconds, int[] egressSeconds) {
+        List<BestRoute.Step> steps = new ArrayList<>();
+        int egressStart = stationArrivals[station];
+        steps.add(network.walkStep(stations[station].getCoords(), destination,
+                egressStart, egressStart + egressSeconds[station], "your destination"));
+
+        int s = station;
+        // Every step goes back to an earlier time, so this ends; the bound is only a safeguard.
+        for (int legs = 0; legs < stations.length; legs++) {
+            if (transferSources[s] >= 0) {
+                int source = transferSources[s];
+                steps.add(network.walkStep(stations[source].getCoords(), stations[s].getCoords(),
+                        rideArrivals[source], stationArrivals[s], stations[s].getName()));
+                s = source;
+            }
+            if (rideBoardings[s] < 0) break;
+
+            int boarding = rideBoardings[s] >> 1;
+            int alighting = rideAlightings[s] >> 1;
+            int trip = connectionTrips[boarding] * 2 + (rideBoardings[s] & 1);
+            steps.add(network.transitStep(trip, connectionStops[boarding], connectionStops[alighting] + 1));
+            s = fromStations[boarding];
+        }
+        return network.finishRoute(steps, origin, s, accessSeconds[s]);
+    }
+}
@@ -3,10 +3,13 @@ package edu.vassar.cmpu203.myfirstapplication.Controller;
 import androidx.annotation.Nullable;
 import androidx.lifecycle.MutableLiveData;
 
+import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 import edu.vassar.cmpu203.myfirstapplication.MainActivity;
@@ -19,6 +22,7 @@ import edu.vassar.cmpu203.myfirstapplication.Model.StationDetails;
 import edu.vassar.cmpu203.myfirstapplication.View.UIDelegate;
 import kotlin.Unit;
 import kotlinx.coroutines.CoroutineScope;
+import kotlinx.coroutines.Job;
 
 /**
  * Controller carries out functions and communicates between the Model and UIDelegate.
@@ -27,12 +31,23 @@ import kotlinx.coroutines.CoroutineScope;
 public class Controller {
 
     private CoroutineScope scope = CoroutineScopeFactory.Companion.getMainScope();
+    /// The shared HTTP client of the services that call a server.
+    private final HttpTransport httpTransport;
     private final GeocodingService geocodingService;
     private GTFSService gtfsService;
     private final StationFinder stationFinder;
     private final LocationServices locationServices;
     private final RouteFinder routeFinder;
+    private final GeometryCache geometryCache = new GeometryCache();
     private final UIDelegate uiDelegate;
+    /// Runs work (e.g. `CompletableFuture` callbacks) on the main thread, for the `uiDelegate`.
+    private final Executor mainExecutor;
+
+    /// The requests in flight that a transition can make useless (the last geocoding of the final
+    /// location, station details and route search); cancelled when superseded or backed out of.
+    private Job finalGeocodingJob;
+    private Job stationDetailsJob;
+    private Job routesJob;
 
     private State state;
     // We use a lock to control access to the state since `updateState`
@@ -51,17 +66,54 @@ public class Controller {
      * @param activity
      */
     public Controller(MainActivity activity) {
-        this.geocodingService = new GeocodingService(scope);
+        this.httpTransport = HttpTransport.getInstance(activity.getApplicationContext().getCacheDir());
+        this.geocodingService = new GeocodingService(scope, httpTransport);
         this.gtfsService = new GTFSService(scope, activity);
         this.stationFinder = new StationFinder(scope, activity, gtfsService);
         this.locationServices = new LocationServices(activity);
-        this.routeFinder = new RouteFinder(scope);
+        this.routeFinder = new RouteFinder(scope, httpTransport);
         this.uiDelegate = activity;
+        this.mainExecutor = activity.getMainExecutor();
 
         this.state = new Uninitialized();
         this.stateFlow = new MutableLiveData<State>(state);
     }
 
+    /**
+     * Find the earliest arrival at every station from `origin` leaving at `departure`, within
+     * `maxMinutes`, for the reachability map. Can be called again before it's done (e.g. while
+     * the user drags the time); only the result of the last call is delivered.
+     * @param onSuccess Called on the main thread with the stations by ordinal and the earliest
+     *                  arrival at each, in seconds since the start of the day of `departure`, or
+     *                  -1 if it can't be reached. Not called if `origin` isn't in the GTFS data.
+     */
+    public void findReachability(Station origin, LocalDateTime departure, int maxMinutes,
+                                 BiConsumer<StationDetails[], int[]> onSuccess) {
+        gtfsService.getGTFSData(gtfsData -> {
+            StationDetails originDetails = gtfsData.getStationsByCoords().get(origin.getCoords());
+            if (originDetails == null) {
+                System.out.println("No GTFS station at " + origin.getCoords() + " for " + origin.getName());
+                return;
+            }
+            routeFinder.findReachability(originDetails, departure, maxMinutes, gtfsData,
+                    arrivals -> onSuccess.accept(gtfsData.getStopTimes().getStations(), arrivals));
+        });
+    }
+
+    /**
+     * Get the current date and time in New York, where the trains run.
+     */
+    public LocalDateTime getCurrentDateTime() {
+        return LocalDateTime.now(ZoneId.of("America/New_York"));
+    }
+
+    /**
+     * Cancel a request in flight, if any; its callbacks are then never called.
+     */
+    private static void cancel(@Nullable Job job) {
+        if (job != null) job.cancel(null);
+    }
+
     public void onPermissionsResponse() {
         System.out.println("Permissions response in controller.");
         locationServices.onPermissionsResponse();
@@ -263,7 +315,7 @@ public class Controller {
                 uiDelegate.showLoadingStationDetails(
                         selectedStation,
                         () -> updateState(new StateEvent.CanceledNearbyStationSelection()));
-                stationFinder.findStationDetails(
+                stationDetailsJob = stationFinder.findStationDetails(
                         selectedStation,
                         stationDetails -> updateState(new StateEvent.FoundStationDetails(selectedStation, stationDetails)),
                         error -> updateState(new StateEvent.FailedToFindStationDetails(selectedStation, error)));
@@ -277,7 +329,8 @@ public class Controller {
                 // while we're geocoding the final destination text.
                 setState(new GotFinalDestinationText(castState, finalLocation));
                 uiDelegate.showFinalLocationText(finalLocation);
-                geocodingService.lookupNameAsync(
+                cancel(finalGeocodingJob);
+                finalGeocodingJob = geocodingService.lookupNameAsync(
                         finalLocation,
                         destinations -> {
                             updateState(new StateEvent.GeocodedFinalLocation(destinations.get(0)));
@@ -312,6 +365,13 @@ public class Controller {
                         finalDestination);
                 uiDelegate.activateRouteButton(
                         () -> updateState(new StateEvent.InitiatedRoute()));
+
+                // Both endpoints are known, so start finding the routes while the user looks at
+                // the map; most of the time they're ready by the time the user asks for them.
+                Destination initialDestination = castState.getNearbyStationsState().initialDestination;
+                ClockTime currentTime = getCurrentTime();
+                gtfsService.getGTFSData(gtfsData -> routeFinder.prefetchBestRoutes(
+                        initialDestination, finalDestination, currentTime, gtfsData));
             } else if (event instanceof StateEvent.FailedToGeocodeFinalLocation) {
                 // The user has typed in their final destination but the requested geocoding has
                 // failed.
@@ -353,8 +413,11 @@ public class Controller {
                         stateFlow,
                         () -> updateState(new StateEvent.CanceledRouteSelection()));
                 // TODO: Add proper error handling (show alert in delegate and go back).
+                // If the routes were prefetched, this hands them over right away.
                 gtfsService.getGTFSData(gtfsData -> {
-                    routeFinder.findBestRoutes(
+                    // The user may have backed out while the GTFS data was loading.
+                    if (!(state instanceof RequestedBestRoutes)) return;
+                    routesJob = routeFinder.findBestRoutes(
                             initialDestination, finalDestination, currentTime,
                             gtfsData,
                             bestRoutes -> updateState(new StateEvent.FoundBestRoutes(bestRoutes)),
@@ -364,11 +427,14 @@ public class Controller {
                 // We've got the final destination but the user typed in a new final destination.
 
                 String finalLocation = castEvent.getFinalLocation();
+                // The routes to the previous destination are no use anymore.
+                routeFinder.cancelPrefetch();
 
                 // Go back to the GotFinalDestinationText state.
                 setState(new GotFinalDestinationText(castState.getNearbyStationsState(), finalLocation));
                 uiDelegate.showFinalLocationText(finalLocation);
-                geocodingService.lookupNameAsync(
+                cancel(finalGeocodingJob);
+                finalGeocodingJob = geocodingService.lookupNameAsync(
                         finalLocation,
                         destinations -> {
                             updateState(new StateEvent.GeocodedFinalLocation(destinations.get(0)));
@@ -386,6 +452,9 @@ public class Controller {
                 // We've requested the best routes in a new screen and we've actually found them.
 
                 List<BestRoute> bestRoutes = castEvent.getBestRoutes();
+                // Start simplifying the geometry of the best route in the background, so it's
+                // ready to draw at any zoom when the user goes back to the map.
+                geometryCache.prefetchRoutes(bestRoutes.subList(0, Math.min(1, bestRoutes.size())));
 
                 // Show the best routes and offer the user the ability to press the back button to cancel.
                 setState(new GotBestRoutes(castState.getNearbyStationsState(), castState.finalDestination, bestRoutes));
@@ -395,6 +464,9 @@ public class Controller {
             } else if (event instanceof StateEvent.CanceledRouteSelection) {
                 // We've requested the best routes but the user has pressed the back button.
 
+                // Stop the search; its result would be ignored anyway.
+                cancel(routesJob);
+
                 Destination finalDestination = castState.getFinalDestination();
 
                 // Go back to the GotFinalDestination state.
@@ -419,13 +491,24 @@ public class Controller {
                 Destination finalDestination = castState.getFinalDestination();
 
                 // Go back to the GotFinalDestination state.
-                setState(new GotFinalDestination(castState.getNearbyStationsState(), castState.finalDestination));
+                GotFinalDestination newState = new GotFinalDestination(
+                        castState.getNearbyStationsState(), castState.finalDestination);
+                setState(newState);
                 uiDelegate.showFinalDestination(
                         castState.getNearbyStationsState().initialDestination,
                         finalDestination,
                         newFinalLocation -> updateState(new StateEvent.EnteredFinalLocation(newFinalLocation)));
                 uiDelegate.activateRouteButton(
                         () -> updateState(new StateEvent.InitiatedRoute()));
+
+                // Draw the best route on the map. Its geometry has been simplified in the
+                // background since it was found, so this is usually immediate.
+                if (!castState.bestRoutes.isEmpty()) {
+                    geometryCache.prefetchRoutes(castState.bestRoutes.subList(0, 1)).thenAcceptAsync(lines -> {
+                        // Unless the user has moved on meanwhile.
+                        if (state == newState) uiDelegate.showRouteLines(lines.get(0));
+                    }, mainExecutor);
+                }
             } else if (event instanceof StateEvent.EnteredFinalLocation) {
                 // We've selected a station to view its details.
                 // Ignore EnteredFinalLocation; we might get this as the FinalDestination text view
@@ -438,6 +521,9 @@ public class Controller {
                 // We've got the nearby stations and have selected a station to view its details
                 // in a new screen, but the user pressed the back button.
 
+                // The details won't be shown anymore.
+                cancel(stationDetailsJob);
+
                 // Go back to the `GotNearbyStations` state.
                 setState(new GotNearbyStations(
                         castState.getNearbyStationsState().initialDestination,
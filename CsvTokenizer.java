@@ -0,0 +1,445 @@
+package edu.vassar.cmpu203.myfirstapplication.Controller;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import edu.vassar.cmpu203.myfirstapplication.Model.ClockTime;
+
+/**
+ * CsvTokenizer reads CSV data (like the GTFS tables and `station_list.csv`) one row at a time,
+ * straight from the bytes of an input stream.
+ * <p>
+ * Unlike a general-purpose CSV reader, it doesn't create a `String[]` or a `String` for every
+ * field of every row. Instead, each call to `nextRow` only records where the fields of the current
+ * row start and end in the internal byte buffer. Fields are then converted on demand: numbers and
+ * times are parsed straight from the bytes, and strings are only created when asked for (and can
+ * be shared between rows through a `StringPool`).
+ * <p>
+ * Supports quoted fields (with `""` as an escaped quote), `\n` and `\r\n` line endings and a
+ * leading UTF-8 byte order mark.
+ */
+public class CsvTokenizer implements Closeable {
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final int INITIAL_FIELD_CAPACITY = 16;
+    /**
+     * Exact powers of ten; dividing an exact integer mantissa by one of these gives a correctly
+     * rounded double.
+     */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    /**
+     * The largest mantissa that a double can represent exactly.
+     */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private final InputStream input;
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    /// The number of valid bytes in `buffer`.
+    private int bufferEnd = 0;
+    /// The position in `buffer` where the next row starts.
+    private int position = 0;
+    private boolean endOfInput = false;
+    private boolean checkedByteOrderMark = false;
+
+    // The fields of the current row, as [start, end) offsets into `buffer`.
+    private int fieldCount = 0;
+    private int[] fieldStarts = new int[INITIAL_FIELD_CAPACITY];
+    private int[] fieldEnds = new int[INITIAL_FIELD_CAPACITY];
+    /// Whether each field was quoted and contains escaped (doubled) quotes.
+    private boolean[] fieldEscaped = new boolean[INITIAL_FIELD_CAPACITY];
+
+    /**
+     * Constructor for CsvTokenizer. The tokenizer takes ownership of the stream and closes it in
+     * `close`.
+     * @param input The stream to read the CSV data from. It's read in large chunks, so there's no
+     *              need to buffer it.
+     */
+    public CsvTokenizer(InputStream input) {
+        this.input = input;
+    }
+
+    /**
+     * Advance to the next row, skipping empty lines.
+     * @return `false` once there are no more rows.
+     */
+    public boolean nextRow() throws IOException {
+        while (true) {
+            if (position >= bufferEnd && !fill()) return false;
+            if (!checkedByteOrderMark) skipByteOrderMark();
+
+            int rowEnd = tokenizeRow(position);
+            if (rowEnd < 0) {
+                // The row continues past the end of the buffer; read more and try again.
+                if (!fill()) {
+                    // The input ended without a final newline: the rest is the last row.
+                    rowEnd = tokenizeRow(position);
+                    if (rowEnd < 0) rowEnd = bufferEnd;
+                } else {
+                    continue;
+                }
+            }
+
+            boolean isEmptyLine = fieldCount == 1 && fieldStarts[0] == fieldEnds[0] && !fieldEscaped[0]
+                    && fieldStarts[0] == position;
+            position = rowEnd;
+            if (!isEmptyLine) return true;
+        }
+    }
+
+    /**
+     * Get the number of fields in the current row.
+     */
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * Check whether a field of the current row is empty.
+     */
+    public boolean isEmpty(int field) {
+        checkField(field);
+        return fieldStarts[field] == fieldEnds[field];
+    }
+
+    /**
+     * Get a field of the current row as a new string.
+     */
+    public String getString(int field) {
+        checkField(field);
+        int start = fieldStarts[field];
+        int end = fieldEnds[field];
+        if (!fieldEscaped[field]) {
+            return new String(buffer, start, end - start, StandardCharsets.UTF_8);
+        }
+
+        // Replace every escaped quote ("") with a single quote.
+        byte[] unescaped = new byte[end - start];
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            unescaped[length++] = buffer[i];
+            if (buffer[i] == '"') i++;
+        }
+        return new String(unescaped, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Get a field of the current row as a string, reusing an identical string from `pool` if the
+     * same value has been seen before. This avoids creating a new string for values that repeat
+     * across many rows (e.g. the `trip_id` and `stop_id` in `stop_times.txt`).
+     */
+    public String getString(int field, StringPool pool) {
+        checkField(field);
+        if (fieldEscaped[field]) return pool.intern(getString(field));
+        return pool.intern(buffer, fieldStarts[field], fieldEnds[field]);
+    }
+
+    /**
+     * Parse a field of the current row as an integer.
+     * @throws NumberFormatException if the field isn't an integer.
+     */
+    public int getInt(int field) {
+        checkField(field);
+        int start = skipLeadingSpaces(fieldStarts[field], fieldEnds[field]);
+        int end = skipTrailingSpaces(start, fieldEnds[field]);
+        if (start == end) throw invalidField(field, "integer");
+
+        boolean negative = buffer[start] == '-';
+        if (negative || buffer[start] == '+') start++;
+        if (start == end) throw invalidField(field, "integer");
+
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) throw invalidField(field, "integer");
+            value = value * 10 + digit;
+            if (value > Integer.MAX_VALUE + 1L) throw invalidField(field, "integer");
+        }
+        if (negative) value = -value;
+        if (value > Integer.MAX_VALUE) throw invalidField(field, "integer");
+        return (int) value;
+    }
+
+    /**
+     * Parse a field of the current row as a double. Plain decimals like `40.748438` are parsed
+     * straight from the bytes; anything else (e.g. exponents) falls back to `Double.parseDouble`.
+     * @throws NumberFormatException if the field isn't a number.
+     */
+    public double getDouble(int field) {
+        checkField(field);
+        int start = skipLeadingSpaces(fieldStarts[field], fieldEnds[field]);
+        int end = skipTrailingSpaces(start, fieldEnds[field]);
+        int i = start;
+        boolean negative = i < end && buffer[i] == '-';
+        if (negative || (i < end && buffer[i] == '+')) i++;
+
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean seenPoint = false;
+        boolean fastPath = i < end;
+        for (; i < end && fastPath; i++) {
+            byte b = buffer[i];
+            if (b >= '0' && b <= '9') {
+                if (mantissa >= MAX_EXACT_MANTISSA / 10) {
+                    fastPath = false;
+                } else {
+                    mantissa = mantissa * 10 + (b - '0');
+                    digits++;
+                    if (seenPoint) fractionDigits++;
+                }
+            } else if (b == '.' && !seenPoint) {
+                seenPoint = true;
+            } else {
+                fastPath = false;
+            }
+        }
+
+        if (!fastPath || digits == 0 || fractionDigits >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(getString(field).trim());
+        }
+        double value = mantissa / POWERS_OF_TEN[fractionDigits];
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parse a field of the current row in the GTFS time format (`H:MM:SS` or `HH:MM:SS`) as the
+     * number of seconds since the start of the service day. Note that GTFS times can go past
+     * `24:00:00` for trips that run after midnight.
+     * @throws NumberFormatException if the field isn't a time.
+     */
+    public int getTimeSeconds(int field) {
+        checkField(field);
+        int start = skipLeadingSpaces(fieldStarts[field], fieldEnds[field]);
+        int end = skipTrailingSpaces(start, fieldEnds[field]);
+        try {
+            return ClockTime.parseSeconds(buffer, start, end);
+        } catch (NumberFormatException e) {
+            throw invalidField(field, "time");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    /**
+     * Record the fields of the row starting at `start`.
+     * @return The position right after the row's line ending, or -1 if the row isn't complete
+     *         in the buffer yet.
+     */
+    private int tokenizeRow(int start) {
+        fieldCount = 0;
+        int i = start;
+        while (true) {
+            if (fieldCount == fieldStarts.length) growFields();
+
+            if (i < bufferEnd && buffer[i] == '"') {
+                // Quoted field: find the closing quote, skipping escaped ("") quotes.
+                int fieldStart = i + 1;
+                boolean escaped = false;
+                i = fieldStart;
+                while (true) {
+                    if (i >= bufferEnd) return -1;
+                    if (buffer[i] == '"') {
+                        if (i + 1 >= bufferEnd && !endOfInput) return -1;
+                        if (i + 1 < bufferEnd && buffer[i + 1] == '"') {
+                            escaped = true;
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                addField(fieldStart, i, escaped);
+                i++;
+                // Ignore anything between the closing quote and the next delimiter.
+                while (i < bufferEnd && buffer[i] != ',' && buffer[i] != '\n' && buffer[i] != '\r') i++;
+            } else {
+                int fieldStart = i;
+                while (i < bufferEnd && buffer[i] != ',' && buffer[i] != '\n' && buffer[i] != '\r') i++;
+                addField(fieldStart, i, false);
+            }
+
+            if (i >= bufferEnd) return endOfInput ? bufferEnd : -1;
+            byte delimiter = buffer[i];
+            if (delimiter == ',') {
+                i++;
+                continue;
+            }
+            // End of line: consume "\n", "\r" or "\r\n".
+            if (delimiter == '\r') {
+                if (i + 1 >= bufferEnd && !endOfInput) return -1;
+                if (i + 1 < bufferEnd && buffer[i + 1] == '\n') i++;
+            }
+            return i + 1;
+        }
+    }
+
+    private void addField(int start, int end, boolean escaped) {
+        fieldStarts[fieldCount] = start;
+        fieldEnds[fieldCount] = end;
+        fieldEscaped[fieldCount] = escaped;
+        fieldCount++;
+    }
+
+    private void growFields() {
+        int capacity = fieldStarts.length * 2;
+        fieldStarts = Arrays.copyOf(fieldStarts, capacity);
+        fieldEnds = Arrays.copyOf(fieldEnds, capacity);
+        fieldEscaped = Arrays.copyOf(fieldEscaped, capacity);
+    }
+
+    /**
+     * Read more data into the buffer, keeping the unconsumed part of the current row.
+     * @return `false` if there was no more data to read.
+     */
+    private boolean fill() throws IOException {
+        if (endOfInput) return false;
+
+        // Move the partial row to the front of the buffer, growing it if the row doesn't fit.
+        int remaining = bufferEnd - position;
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, remaining);
+        } else if (remaining == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        position = 0;
+        bufferEnd = remaining;
+
+        int read = input.read(buffer, bufferEnd, buffer.length - bufferEnd);
+        if (read < 0) {
+            endOfInput = true;
+            return false;
+        }
+        bufferEnd += read;
+        return true;
+    }
+
+    private void skipByteOrderMark() {
+        checkedByteOrderMark = true;
+        if (bufferEnd - position >= 3 && (buffer[position] & 0xFF) == 0xEF
+                && (buffer[position + 1] & 0xFF) == 0xBB && (buffer[position + 2] & 0xFF) == 0xBF) {
+            position += 3;
+        }
+    }
+
+    private int skipLeadingSpaces(int start, int end) {
+        while (start < end && buffer[start] == ' ') start++;
+        return start;
+    }
+
+    private int skipTrailingSpaces(int start, int end) {
+        while (end > start && buffer[end - 1] == ' ') end--;
+        return end;
+    }
+
+    private void checkField(int field) {
+        if (field < 0 || field >= fieldCount) {
+            throw new IndexOutOfBoundsException(
+                    "Field " + field + " requested but the row only has " + fieldCount + " fields");
+        }
+    }
+
+    private NumberFormatException invalidField(int field, String type) {
+        return new NumberFormatException("Invalid " + type + ": \"" + getString(field) + "\"");
+    }
+
+    /**
+     * A pool of strings keyed by their UTF-8 bytes. It lets the tokenizer return the same `String`
+     * instance for repeated values without first creating a string to look them up.
+     * <p>
+     * Not thread-safe; use one pool per loading thread.
+     */
+    public static class StringPool {
+        private byte[][] keys = new byte[1024][];
+        private String[] values = new String[1024];
+        private int[] hashes = new int[1024];
+        private int size = 0;
+
+        /**
+         * Get the pooled string for the UTF-8 bytes in `bytes[start, end)`, creating it if needed.
+         */
+        public String intern(byte[] bytes, int start, int end) {
+            int hash = hash(bytes, start, end);
+            int mask = keys.length - 1;
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                byte[] key = keys[slot];
+                if (key == null) {
+                    byte[] newKey = Arrays.copyOfRange(bytes, start, end);
+                    String value = new String(newKey, StandardCharsets.UTF_8);
+                    insert(slot, hash, newKey, value);
+                    return value;
+                }
+                if (hashes[slot] == hash && bytesEqual(key, bytes, start, end)) {
+                    return values[slot];
+                }
+            }
+        }
+
+        /**
+         * Get the pooled string equal to `value`, adding `value` to the pool if needed.
+         */
+        public String intern(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            return intern(bytes, 0, bytes.length);
+        }
+
+        /**
+         * Get the number of distinct strings in the pool.
+         */
+        public int size() {
+            return size;
+        }
+
+        private void insert(int slot, int hash, byte[] key, String value) {
+            keys[slot] = key;
+            values[slot] = value;
+            hashes[slot] = hash;
+            size++;
+            // Keep the load factor under 1/2 so probe sequences stay short.
+            if (size * 2 > keys.length) rehash();
+        }
+
+        private void rehash() {
+            byte[][] oldKeys = keys;
+            String[] oldValues = values;
+            int[] oldHashes = hashes;
+            keys = new byte[oldKeys.length * 2][];
+            values = new String[oldKeys.length * 2];
+            hashes = new int[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == null) continue;
+                int slot = oldHashes[i] & mask;
+                while (keys[slot] != null) slot = (slot + 1) & mask;
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+                hashes[slot] = oldHashes[i];
+            }
+        }
+
+        private static boolean bytesEqual(byte[] key, byte[] bytes, int start, int end) {
+            if (key.length != end - start) return false;
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != bytes[start + i]) return false;
+            }
+            return true;
+        }
+
+        private static int hash(byte[] bytes, int start, int end) {
+            int hash = 0x811C9DC5;
+            for (int i = start; i < end; i++) {
+                hash = (hash ^ bytes[i]) * 0x01000193;
+            }
+            // Spread the bits since the table uses the lowest bits as the slot.
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
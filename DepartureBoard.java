@@ -0,0 +1,222 @@
+package edu.vassar.cmpu203.myfirstapplication.Model;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * DepartureBoard indexes every departure in a `StopTimeTable` by station: for each station, the
+ * departures from it sorted by time. Looking up the next departures from a station is then a
+ * binary search followed by reading the following entries.
+ * <p>
+ * Like `StopTimeTable`, the entries of all stations are stored back to back in primitive arrays;
+ * the entries of station `s` are `[stationOffsets[s], stationOffsets[s + 1])`.
+ */
+public class DepartureBoard {
+    /**
+     * One departure of a trip from a station.
+     * @param trip The departing trip.
+     * @param station The station it departs from.
+     * @param stop The position of the station within the trip's stops.
+     * @param time The departure time.
+     */
+    public record Departure(TransitTrip trip, StationDetails station, int stop, LocalDateTime time) {}
+
+    /// The `TransitTrip` of each trip in `table`; null for trips that weren't loaded.
+    private final TransitTrip[] trips;
+    private final ServiceCalendar calendar;
+    private final int[] stationOffsets;
+    private final int[] departureSeconds;
+    private final int[] departureTrips;
+    private final int[] departureStops;
+
+    private DepartureBoard(TransitTrip[] trips, ServiceCalendar calendar, int[] stationOffsets,
+                           int[] departureSeconds, int[] departureTrips, int[] departureStops) {
+        this.trips = trips;
+        this.calendar = calendar;
+        this.stationOffsets = stationOffsets;
+        this.departureSeconds = departureSeconds;
+        this.departureTrips = departureTrips;
+        this.departureStops = departureStops;
+    }
+
+    /**
+     * Build the departure board of `table` and link it to every station in the table, so that
+     * `StationDetails.nextDepartures` can use it.
+     * @param table The stop times to index.
+     * @param trips The trips of the loaded GTFS data; trips are matched to the table by
+     *              `TripStopTimes.getTripIndex()`.
+     * @param calendar The days the trips run on.
+     */
+    public static DepartureBoard link(StopTimeTable table, TransitTrip[] trips, ServiceCalendar calendar) {
+        TransitTrip[] tripsByIndex = new TransitTrip[table.getTripCount()];
+        for (TransitTrip trip : trips) {
+            int index = trip.getDepartures().getTripIndex();
+            if (index >= 0) tripsByIndex[index] = trip;
+        }
+
+        // Count the departures of each station. Trips don't depart from their last stop.
+        StationDetails[] stations = table.getStations();
+        int[] stationOffsets = new int[stations.length + 1];
+        int count = 0;
+        for (int trip = 0; trip < tripsByIndex.length; trip++) {
+            if (tripsByIndex[trip] == null) continue;
+            TripStopTimes stopTimes = table.getTrip(trip);
+            for (int stop = 0; stop < stopTimes.size() - 1; stop++) {
+                stationOffsets[stopTimes.getStation(stop).getOrdinal() + 1]++;
+                count++;
+            }
+        }
+        for (int s = 0; s < stations.length; s++) stationOffsets[s + 1] += stationOffsets[s];
+
+        // Place each departure in its station's range, keyed by (seconds, entry) so sorting the
+        // keys of a range sorts its departures by time.
+        long[] keys = new long[count];
+        int[] entryTrips = new int[count];
+        int[] entryStops = new int[count];
+        int[] next = Arrays.copyOf(stationOffsets, stations.length);
+        int entry = 0;
+        for (int trip = 0; trip < tripsByIndex.length; trip++) {
+            if (tripsByIndex[trip] == null) continue;
+            TripStopTimes stopTimes = table.getTrip(trip);
+            for (int stop = 0; stop < stopTimes.size() - 1; stop++) {
+                entryTrips[entry] = trip;
+                entryStops[entry] = stop;
+                keys[next[stopTimes.getStation(stop).getOrdinal()]++] =
+                        ((long) stopTimes.getDepartureSeconds(stop) << 32) | entry;
+                entry++;
+            }
+        }
+
+        int[] departureSeconds = new int[count];
+        int[] departureTrips = new int[count];
+        int[] departureStops = new int[count];
+        for (int s = 0; s < stations.length; s++) {
+            Arrays.sort(keys, stationOffsets[s], stationOffsets[s + 1]);
+        }
+        for (int i = 0; i < count; i++) {
+            int sortedEntry = (int) keys[i];
+            departureSeconds[i] = (int) (keys[i] >>> 32);
+            departureTrips[i] = entryTrips[sortedEntry];
+            departureStops[i] = entryStops[sortedEntry];
+        }
+
+        DepartureBoard board = new DepartureBoard(tripsByIndex, calendar, stationOffsets,
+                departureSeconds, departureTrips, departureStops);
+        for (StationDetails station : stations) station.linkDepartureBoard(board);
+        return board;
+    }
+
+    /**
+     * Get the next departures from one station (not including its children), in order.
+     * <p>
+     * Trips of the previous service day that run past midnight (e.g. 25:10:00) are included.
+     * @param station The station; must be part of this board's table.
+     * @param time The earliest departure time.
+     * @param limit The maximum number of departures.
+     */
+    public List<Departure> nextDepartures(StationDetails station, LocalDateTime time, int limit) {
+        List<Departure> departures = new ArrayList<>(limit);
+        Cursor cursor = new Cursor(station, time);
+        while (departures.size() < limit && cursor.current != null) {
+            departures.add(cursor.current);
+            cursor.advance();
+        }
+        return departures;
+    }
+
+    /**
+     * Get the next departures from several stations (e.g. the platforms of a station), merged
+     * in order.
+     * @param stations The stations; must be part of this board's table.
+     * @param time The earliest departure time.
+     * @param limit The maximum number of departures.
+     */
+    public List<Departure> nextDepartures(List<StationDetails> stations, LocalDateTime time, int limit) {
+        // k-way merge: keep the next departure of each station in a queue ordered by time.
+        PriorityQueue<Cursor> queue = new PriorityQueue<>(Math.max(stations.size(), 1),
+                (a, b) -> a.current.time().compareTo(b.current.time()));
+        for (StationDetails station : stations) {
+            Cursor cursor = new Cursor(station, time);
+            if (cursor.current != null) queue.add(cursor);
+        }
+
+        List<Departure> departures = new ArrayList<>(limit);
+        while (departures.size() < limit && !queue.isEmpty()) {
+            Cursor cursor = queue.poll();
+            departures.add(cursor.current);
+            cursor.advance();
+            if (cursor.current != null) queue.add(cursor);
+        }
+        return departures;
+    }
+
+    /**
+     * Get the position of the first departure of `station` at or after `seconds`.
+     */
+    private int lowerBound(int station, int seconds) {
+        int low = stationOffsets[station];
+        int high = stationOffsets[station + 1];
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (departureSeconds[middle] < seconds) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Walks the departures of one station in order, merging the departures of the previous
+     * service day (times past 24:00) with those of the current one and skipping trips whose
+     * service doesn't run on their service day.
+     */
+    private class Cursor {
+        private final StationDetails station;
+        private final LocalDate today;
+        private final LocalDate yesterday;
+        private final BitSet activeToday;
+        private final BitSet activeYesterday;
+        private final int end;
+        private int todayPosition;
+        private int yesterdayPosition;
+        Departure current;
+
+        Cursor(StationDetails station, LocalDateTime time) {
+            this.station = station;
+            this.today = time.toLocalDate();
+            this.yesterday = today.minusDays(1);
+            this.activeToday = calendar.getActiveTrips(today);
+            this.activeYesterday = calendar.getActiveTrips(yesterday);
+            int ordinal = station.getOrdinal();
+            int seconds = time.toLocalTime().toSecondOfDay();
+            this.end = stationOffsets[ordinal + 1];
+            this.todayPosition = lowerBound(ordinal, seconds);
+            this.yesterdayPosition = lowerBound(ordinal, seconds + ClockTime.SECONDS_PER_DAY);
+            advance();
+        }
+
+        void advance() {
+            current = null;
+            while (current == null && (todayPosition < end || yesterdayPosition < end)) {
+                // Yesterday's departures are `ClockTime.SECONDS_PER_DAY` later in today's terms.
+                boolean fromYesterday = todayPosition >= end || (yesterdayPosition < end
+                        && departureSeconds[yesterdayPosition] - ClockTime.SECONDS_PER_DAY < departureSeconds[todayPosition]);
+                int position = fromYesterday ? yesterdayPosition++ : todayPosition++;
+                LocalDate serviceDay = fromYesterday ? yesterday : today;
+
+                TransitTrip trip = trips[departureTrips[position]];
+                if (!(fromYesterday ? activeYesterday : activeToday).get(trip.getOrdinal())) continue;
+
+                current = new Departure(trip, station, departureStops[position],
+                        serviceDay.atStartOfDay().plusSeconds(departureSeconds[position]));
+            }
+        }
+    }
+}
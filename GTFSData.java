@@ -1,33 +1,77 @@
 package edu.vassar.cmpu203.myfirstapplication.Model;
 
+import androidx.annotation.Nullable;
+
 import java.util.Map;
 
+/**
+ * All the GTFS data the app uses. Stations, routes, services and trips each have a dense ordinal
+ * (see `OrdinalDictionary`) and are stored in arrays indexed by it; look them up by their string
+ * identifier with `findStation`, `findRoute`, `findService` and `findTrip`.
+ */
 public class GTFSData {
     /**
      * Only parent stations mapped in terms of their coordinates.
      */
     private final Map<Coordinates, StationDetails> stationsByCoords;
     /**
-     * All routes mapped by their string identifier.
+     * All stations, indexed by their ordinal.
+     */
+    private final OrdinalDictionary stationIDs;
+    private final StationDetails[] stations;
+    /**
+     * All routes, indexed by their ordinal.
+     */
+    private final OrdinalDictionary routeIDs;
+    private final TransitRoute[] routes;
+    /**
+     * All services, indexed by their ordinal.
+     */
+    private final OrdinalDictionary serviceIDs;
+    private final TransitTrip.TripService[] services;
+    /**
+     * All trips, indexed by their ordinal.
+     */
+    private final OrdinalDictionary tripIDs;
+    private final TransitTrip[] trips;
+    /**
+     * The stop times of all trips.
      */
-    private final Map<String, TransitRoute> routesByID;
+    private final StopTimeTable stopTimes;
     /**
-     * All trips mapped by their string identifier.
+     * The walking transfers between the stations of `stopTimes`.
      */
-    private final Map<String, TransitTrip> tripsByID;
+    private final TransferGraph transfers;
     /**
-     * All stations mapped by their string identifier.
+     * The days each service runs on.
      */
-    private final Map<String, StationDetails> stationsByID;
+    private final ServiceCalendar serviceCalendar;
+    /**
+     * The points of all shapes.
+     */
+    private final ShapeStore shapeStore;
 
     public GTFSData(Map<Coordinates, StationDetails> stationsByCoords,
-                    Map<String, TransitRoute> routesByID,
-                    Map<String, StationDetails> stationsByID,
-                    Map<String, TransitTrip> tripsByID) {
+                    OrdinalDictionary stationIDs, StationDetails[] stations,
+                    OrdinalDictionary routeIDs, TransitRoute[] routes,
+                    OrdinalDictionary serviceIDs, TransitTrip.TripService[] services,
+                    OrdinalDictionary tripIDs, TransitTrip[] trips,
+                    StopTimeTable stopTimes, TransferGraph transfers,
+                    ServiceCalendar serviceCalendar,
+                    ShapeStore shapeStore) {
         this.stationsByCoords = stationsByCoords;
-        this.routesByID = routesByID;
-        this.stationsByID = stationsByID;
-        this.tripsByID = tripsByID;
+        this.stationIDs = stationIDs;
+        this.stations = stations;
+        this.routeIDs = routeIDs;
+        this.routes = routes;
+        this.serviceIDs = serviceIDs;
+        this.services = services;
+        this.tripIDs = tripIDs;
+        this.trips = trips;
+        this.stopTimes = stopTimes;
+        this.transfers = transfers;
+        this.serviceCalendar = serviceCalendar;
+        this.shapeStore = shapeStore;
     }
 
     /**
@@ -38,23 +82,94 @@ public class GTFSData {
     }
 
     /**
-     * Get all routes mapped by their string identifier.
+     * Get all stations indexed by their ordinal.
+     */
+    public StationDetails[] getStations() {
+        return stations;
+    }
+
+    /**
+     * Get the station with the given string identifier, or null if there's none.
+     */
+    @Nullable
+    public StationDetails findStation(String id) {
+        int ordinal = stationIDs.get(id);
+        return ordinal < 0 ? null : stations[ordinal];
+    }
+
+    /**
+     * Get all routes indexed by their ordinal.
+     */
+    public TransitRoute[] getRoutes() {
+        return routes;
+    }
+
+    /**
+     * Get the route with the given string identifier, or null if there's none.
+     */
+    @Nullable
+    public TransitRoute findRoute(String id) {
+        int ordinal = routeIDs.get(id);
+        return ordinal < 0 ? null : routes[ordinal];
+    }
+
+    /**
+     * Get all services indexed by their ordinal.
+     */
+    public TransitTrip.TripService[] getServices() {
+        return services;
+    }
+
+    /**
+     * Get the service with the given string identifier, or null if there's none.
+     */
+    @Nullable
+    public TransitTrip.TripService findService(String id) {
+        int ordinal = serviceIDs.get(id);
+        return ordinal < 0 ? null : services[ordinal];
+    }
+
+    /**
+     * Get all trips indexed by their ordinal.
+     */
+    public TransitTrip[] getTrips() {
+        return trips;
+    }
+
+    /**
+     * Get the trip with the given string identifier, or null if there's none.
+     */
+    @Nullable
+    public TransitTrip findTrip(String id) {
+        int ordinal = tripIDs.get(id);
+        return ordinal < 0 ? null : trips[ordinal];
+    }
+
+    /**
+     * Get the stop times of all trips. Stations in the table are indexed by their ordinal.
+     */
+    public StopTimeTable getStopTimes() {
+        return stopTimes;
+    }
+
+    /**
+     * Get the walking transfers between the stations of the stop times.
      */
-    public Map<String, TransitRoute> getRoutesByID() {
-        return routesByID;
+    public TransferGraph getTransfers() {
+        return transfers;
     }
 
     /**
-     * Get all stations mapped by their string identifier.
+     * Get the days each service runs on, to check which trips run on a date.
      */
-    public Map<String, StationDetails> getStationsByID() {
-        return stationsByID;
+    public ServiceCalendar getServiceCalendar() {
+        return serviceCalendar;
     }
 
     /**
-     * Get all trips mapped by their string identifier.
+     * Get the compressed points of all shapes.
      */
-    public Map<String, TransitTrip> getTripsByID() {
-        return tripsByID;
+    public ShapeStore getShapeStore() {
+        return shapeStore;
     }
 }
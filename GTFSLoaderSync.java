@@ -2,70 +2,350 @@ package edu.vassar.cmpu203.myfirstapplication.Controller;
 
 import android.content.Context;
 
-import com.opencsv.CSVReader;
-import com.opencsv.exceptions.CsvValidationException;
+import androidx.annotation.Nullable;
 
-import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
 
-import edu.vassar.cmpu203.myfirstapplication.Model.ClockTime;
 import edu.vassar.cmpu203.myfirstapplication.Model.Coordinates;
+import edu.vassar.cmpu203.myfirstapplication.Model.DepartureBoard;
 import edu.vassar.cmpu203.myfirstapplication.Model.GTFSData;
+import edu.vassar.cmpu203.myfirstapplication.Model.OrdinalDictionary;
+import edu.vassar.cmpu203.myfirstapplication.Model.ServiceCalendar;
+import edu.vassar.cmpu203.myfirstapplication.Model.ShapeStore;
 import edu.vassar.cmpu203.myfirstapplication.Model.StationDetails;
+import edu.vassar.cmpu203.myfirstapplication.Model.StopTimeTable;
+import edu.vassar.cmpu203.myfirstapplication.Model.TransferGraph;
 import edu.vassar.cmpu203.myfirstapplication.Model.TransitRoute;
 import edu.vassar.cmpu203.myfirstapplication.Model.TransitTrip;
 import edu.vassar.cmpu203.myfirstapplication.Model.TripCollection;
 import edu.vassar.cmpu203.myfirstapplication.Model.TripShape;
+import edu.vassar.cmpu203.myfirstapplication.Model.TripStopTimes;
 import edu.vassar.cmpu203.myfirstapplication.R;
 
 /**
  * GTFSLoaderSync loads all GTFS data required by our application.
  */
 public class GTFSLoaderSync {
+    /**
+     * The number of worker threads used to load the GTFS tables. There are four independent
+     * chains of work (stops -> stop_times, shapes, calendar and routes), so more threads than
+     * that would just sit idle.
+     */
+    private static final int LOADER_THREADS = 4;
+
+    /**
+     * The GTFS tables that we load.
+     */
+    public enum Table {
+        STOPS("stops.txt", true),
+        STOP_TIMES("stop_times.txt", true),
+        SHAPES("shapes.txt", true),
+        CALENDAR("calendar.txt", true),
+        CALENDAR_DATES("calendar_dates.txt", false),
+        ROUTES("routes.txt", true),
+        TRIPS("trips.txt", true),
+        TRANSFERS("transfers.txt", false),
+        /// Not part of GTFS: the MTA's list of stations, for the ADA accessibility of each station.
+        /// Without it every station is taken as not accessible, so it's always required.
+        STATION_LIST("station_list.csv", true);
+
+        /// The file name of the table in a GTFS feed (or of the MTA's station list).
+        public final String fileName;
+        /// Whether the table must be there; optional tables may be missing from a feed.
+        public final boolean required;
+
+        Table(String fileName, boolean required) {
+            this.fileName = fileName;
+            this.required = required;
+        }
+    }
+
+    /**
+     * Where the GTFS tables are read from. In the app, that's the raw resources; at build time
+     * (see `GTFSSnapshot`) it's the directory of an unzipped GTFS feed and the station list.
+     */
+    public interface Source {
+        /**
+         * Open the CSV data of a GTFS table. The caller closes the stream.
+         * @return The stream, or null if the table is optional and the source doesn't have it.
+         */
+        @Nullable
+        InputStream open(Table table) throws IOException;
+    }
+
+    /**
+     * A source that reads the GTFS tables bundled as raw resources (`R.raw.gtfs_*`).
+     */
+    public static Source resourceSource(Context context) {
+        return table -> {
+            int resourceID = switch (table) {
+                case STOPS -> R.raw.gtfs_stops;
+                case STOP_TIMES -> R.raw.gtfs_stop_times;
+                case SHAPES -> R.raw.gtfs_shapes;
+                case CALENDAR -> R.raw.gtfs_calendar;
+                case ROUTES -> R.raw.gtfs_routes;
+                case TRIPS -> R.raw.gtfs_trips;
+                case STATION_LIST -> R.raw.station_list;
+                // Optional tables might not be bundled, so look them up by name.
+                case CALENDAR_DATES -> context.getResources().getIdentifier(
+                        "gtfs_calendar_dates", "raw", context.getPackageName());
+                case TRANSFERS -> context.getResources().getIdentifier(
+                        "gtfs_transfers", "raw", context.getPackageName());
+            };
+            return resourceID == 0 ? null : context.getResources().openRawResource(resourceID);
+        };
+    }
+
+    /**
+     * A source that reads the GTFS tables from the files of an unzipped GTFS feed. GTFS feeds
+     * don't have the MTA's station list, so it's given separately.
+     * @param stationList The MTA's station list ("Stations.csv"), read for `Table.STATION_LIST`.
+     */
+    public static Source directorySource(File directory, File stationList) {
+        return table -> {
+            File file = table == Table.STATION_LIST ? stationList : new File(directory, table.fileName);
+            if (!table.required && !file.exists()) return null;
+            return new FileInputStream(file);
+        };
+    }
+
     /**
      * Load all GTFS data required by our application in this thread. It's called by `load` in a
      * background thread.
+     * <p>
+     * If the app bundles a valid binary snapshot of the data (see `GTFSSnapshot`), we open that
+     * instead of parsing the CSV tables.
      * @param context: The application context used to open the resources containing the GTFS data.
      */
     public static GTFSData loadSync(Context context) {
+        long start = System.nanoTime();
+        GTFSData snapshot = GTFSSnapshot.open(context);
+        if (snapshot != null) {
+            System.out.println("Opened GTFS snapshot in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+            return snapshot;
+        }
+
+        return loadSync(resourceSource(context));
+    }
+
+    /**
+     * Load all GTFS data from the CSV tables of `source` in this thread.
+     */
+    public static GTFSData loadSync(Source source) {
+        ExecutorService executor = Executors.newFixedThreadPool(LOADER_THREADS);
+        try {
+            return loadSync(source, executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Load all GTFS data, parsing independent tables in parallel on `executor`. This method blocks
+     * the calling thread until every table has been parsed and linked.
+     * <p>
+     * The tables are loaded as a small dependency graph:
+     * <pre>
+     *   stops ---> stop_times --+--> transfers
+     *   shapes -----------------+
+     *   calendar ---------------+--> trips --> service calendar
+     *   routes -----------------'
+     * </pre>
+     * So the time to load is the time of the longest chain rather than the sum of all the tables.
+     * @param source: Where to read the GTFS tables from.
+     * @param executor: The executor that runs each loading stage.
+     */
+    public static GTFSData loadSync(Source source, Executor executor) {
         // === Load (parse and store) all CSV data -----
         // The following static methods are precisely for parsing CSV data.
         // Though they're long functions, they follow the same pattern:
         // 1. Set up the Java data structure where we'll be collecting the information
-        // 2. Open a buffered reader and (ignoring the first line), start reading each line.
-        // 3. For each line, split it by commas and access the related fields.
-        // 4. Convert from strings to more convenient datatypes (such as "accessible" -> boolean).
+        // 2. Open a `CsvTokenizer` and (ignoring the first line), start reading each line.
+        // 3. For each line, access the related fields by their column index.
+        // 4. Parse the fields straight into more convenient datatypes (such as times -> seconds).
         // 5. Construct the GTFS datatype, e.g. "stops.txt" is converted to `StationDetails`.
         // 6. Store the GTFS datatype in the collecting type, like a `Map<String, StationDetails>`.
         //
         // Note that the order in which we parse data is important, because we might have
-        // to link trip departures to e.g. stations.
+        // to link trip departures to e.g. stations. Each stage below only waits on the
+        // stages whose output it needs.
+        LoadTimings timings = new LoadTimings();
 
         // Load stops/stations
-        Tuple2<Map<String, StationDetails>, Map<Coordinates, StationDetails>>  stationsTuple = loadAllStops(context);
-        Map<String, StationDetails> stations = stationsTuple.first;
-        Map<Coordinates, StationDetails> stationsByCoords = stationsTuple.second;
-
-        // Load trip departures
-        Map<String, Map<ClockTime, StationDetails>> tripDepartures = loadAllTripDepartures(context, stations);
+        CompletableFuture<Tuple2<Indexed<StationDetails>, Map<Coordinates, StationDetails>>> stationsStage =
+                timings.stage("stops", executor, () -> loadAllStops(source));
+
+        // Load stop times; these link to the stations so they have to wait for the stops.
+        CompletableFuture<Tuple2<StopTimeTable, OrdinalDictionary>> stopTimesStage =
+                timings.stage("stop_times", executor, stationsStage,
+                        stationsTuple -> loadAllStopTimes(source, stationsTuple.first));
+
+        // Find the walking transfers between the stations that trips stop at. Building the graph
+        // splits the stations into chunks on `executor` too; the stage completes with the last
+        // chunk rather than waiting for them, so it can't starve `executor` of threads.
+        CompletableFuture<TransferGraph> transfersStage =
+                timings.composedStage("transfers", executor, stopTimesStage,
+                        stopTimesTuple -> TransferGraph.buildAsync(stopTimesTuple.first,
+                                loadAllTransfers(source, stationsStage.join().first), executor));
 
         // Load shapes
-        Map<String, TripShape> shapes = loadAllShapes(context);
+        CompletableFuture<Tuple2<Map<String, TripShape>, ShapeStore>> shapesStage =
+                timings.stage("shapes", executor, () -> loadAllShapes(source));
 
-        // Load trip services
-        Map<String, TransitTrip.TripService> tripServices = loadAllTripServices(context);
+        // Load trip services and their exceptions
+        CompletableFuture<Tuple2<Indexed<TransitTrip.TripService>, ServiceCalendar.Builder>> calendarStage =
+                timings.stage("calendar", executor, () -> {
+                    Indexed<TransitTrip.TripService> tripServices = loadAllTripServices(source);
+                    return new Tuple2<>(tripServices, loadAllCalendarDates(source, tripServices));
+                });
 
         // Load routes
-        Map<String, TransitRoute> routes = loadAllRoutes(context);
+        CompletableFuture<Indexed<TransitRoute>> routesStage =
+                timings.stage("routes", executor, () -> loadAllRoutes(source));
 
         // Load all trips and store them into `routes`. Note that we need to link trips with
-        // `tripServices`, `shapes` and `tripDepartures`.
-        Map<String, TransitTrip> trips = loadAllTripsIntoRoutes(context, routes, tripServices, shapes, tripDepartures);
+        // `tripServices`, `shapes` and `stopTimes`.
+        CompletableFuture<Indexed<TransitTrip>> tripsStage = timings.stage(
+                "trips", executor,
+                CompletableFuture.allOf(stopTimesStage, shapesStage, calendarStage, routesStage),
+                ignored -> loadAllTripsIntoRoutes(source,
+                        routesStage.join(), calendarStage.join().first,
+                        shapesStage.join().first, stopTimesStage.join()));
+
+        // Wait for the last stage; every other stage has finished once it has.
+        Indexed<TransitTrip> trips = await(tripsStage);
+        Tuple2<Indexed<StationDetails>, Map<Coordinates, StationDetails>> stationsTuple = await(stationsStage);
+        Indexed<StationDetails> stations = stationsTuple.first;
+        Map<Coordinates, StationDetails> stationsByCoords = stationsTuple.second;
+        Indexed<TransitRoute> routes = await(routesStage);
+        Tuple2<Indexed<TransitTrip.TripService>, ServiceCalendar.Builder> calendarTuple = await(calendarStage);
+        Indexed<TransitTrip.TripService> tripServices = calendarTuple.first;
+        TransitTrip.TripService[] serviceArray = tripServices.values.toArray(new TransitTrip.TripService[0]);
+        StopTimeTable stopTimes = await(stopTimesStage).first;
+        TransitTrip[] tripArray = trips.values.toArray(new TransitTrip[0]);
+        // Compile the service calendar now that every trip has its ordinal.
+        ServiceCalendar serviceCalendar = calendarTuple.second.build(serviceArray, tripArray);
+        DepartureBoard.link(stopTimes, tripArray, serviceCalendar);
+
+        timings.finish();
+        System.out.println("GTFS load timings: " + timings);
+        System.out.println("GTFS stop times: " + stopTimes.getTripCount() + " trips, "
+                + stopTimes.getPatternCount() + " patterns, "
+                + stopTimes.getProfileCount() + " travel-time profiles");
 
         // === Store data -----
-        return new GTFSData(stationsByCoords, routes, stations, trips);
+        return new GTFSData(stationsByCoords,
+                stations.ids, stations.values.toArray(new StationDetails[0]),
+                routes.ids, routes.values.toArray(new TransitRoute[0]),
+                tripServices.ids, serviceArray,
+                trips.ids, tripArray,
+                stopTimes, await(transfersStage), serviceCalendar, await(shapesStage).second);
+    }
+
+    /**
+     * Wait for a loading stage to complete and return its result. If the stage failed, rethrow
+     * the original exception rather than the `CompletionException` wrapping it.
+     */
+    private static <T> T await(CompletableFuture<T> stage) {
+        try {
+            return stage.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Records how long each loading stage took. Stages run concurrently, so the total wall time
+     * is usually much smaller than the sum of the stage times.
+     */
+    public static class LoadTimings {
+        private final long startNanos = System.nanoTime();
+        private long totalNanos = -1;
+        private final Map<String, Long> stageNanos = Collections.synchronizedMap(new LinkedHashMap<>());
+
+        /**
+         * Run a stage that doesn't depend on any other stage.
+         */
+        <T> CompletableFuture<T> stage(String name, Executor executor, Supplier<T> work) {
+            return CompletableFuture.supplyAsync(() -> time(name, work), executor);
+        }
+
+        /**
+         * Run a stage once the stage it depends on has completed.
+         */
+        <D, T> CompletableFuture<T> stage(String name, Executor executor,
+                                          CompletableFuture<D> dependency, Function<D, T> work) {
+            return dependency.thenApplyAsync(input -> time(name, () -> work.apply(input)), executor);
+        }
+
+        /**
+         * Start a stage once the stage it depends on has completed, where the work itself returns
+         * a future (e.g. it runs in parallel on `executor`). The stage takes until that future
+         * completes.
+         */
+        <D, T> CompletableFuture<T> composedStage(String name, Executor executor, CompletableFuture<D> dependency,
+                                                  Function<D, CompletableFuture<T>> work) {
+            return dependency.thenComposeAsync(input -> {
+                long start = System.nanoTime();
+                return work.apply(input).whenComplete(
+                        (result, error) -> stageNanos.put(name, System.nanoTime() - start));
+            }, executor);
+        }
+
+        private <T> T time(String name, Supplier<T> work) {
+            long start = System.nanoTime();
+            try {
+                return work.get();
+            } finally {
+                stageNanos.put(name, System.nanoTime() - start);
+            }
+        }
+
+        void finish() {
+            totalNanos = System.nanoTime() - startNanos;
+        }
+
+        /**
+         * Get the time each stage took in milliseconds, keyed by the stage (table) name.
+         */
+        public Map<String, Long> getStageMillis() {
+            Map<String, Long> millis = new LinkedHashMap<>();
+            synchronized (stageNanos) {
+                stageNanos.forEach((name, nanos) -> millis.put(name, TimeUnit.NANOSECONDS.toMillis(nanos)));
+            }
+            return millis;
+        }
+
+        /**
+         * Get the wall time of the whole load in milliseconds, or -1 if it hasn't finished.
+         */
+        public long getTotalMillis() {
+            return totalNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(totalNanos);
+        }
+
+        @Override
+        public String toString() {
+            return getStageMillis() + " (ms), total " + getTotalMillis() + " ms";
+        }
     }
 
     /**
@@ -84,48 +364,139 @@ public class GTFSLoaderSync {
     }
 
     /**
-     * Load all stops/stations and return them mapped by both their string identifiers and
+     * GTFS entities numbered by ordinal as they're loaded: `values.get(ordinal)` is the entity
+     * with id `ids.getID(ordinal)`.
+     */
+    private static class Indexed<T> {
+        final OrdinalDictionary ids = new OrdinalDictionary(1024);
+        final ArrayList<T> values = new ArrayList<>();
+
+        /**
+         * Get the entity with the given id, or null if there's none.
+         */
+        T get(String id) {
+            int ordinal = ids.get(id);
+            return ordinal < 0 ? null : values.get(ordinal);
+        }
+
+        /**
+         * Add a new entity; `create` receives its ordinal.
+         * @return The new entity, or null if there already is one with the same id.
+         */
+        T add(String id, IntFunction<T> create) {
+            int ordinal = ids.add(id);
+            if (ordinal < values.size()) return null;
+            T value = create.apply(ordinal);
+            values.add(value);
+            return value;
+        }
+    }
+
+    /**
+     * The ADA columns of one row of the station list.
+     * @param station The accessibility of the whole station (`StationDetails.getAccessible()`).
+     * @param northbound The accessibility of the northbound platform.
+     * @param southbound The accessibility of the southbound platform.
+     */
+    private record StationAccessibility(String station, String northbound, String southbound) {}
+
+    /**
+     * Load the accessibility of each station from the optional station list, mapped by the
+     * station's coordinates (which are the GTFS coordinates of the parent station).
+     */
+    private static Map<Coordinates, StationAccessibility> loadStationAccessibility(Source source) {
+        HashMap<Coordinates, StationAccessibility> accessibility = new HashMap<>();
+        InputStream input;
+        try {
+            input = source.open(Table.STATION_LIST);
+        } catch (IOException e) {
+            System.out.println("Failure opening station_list.csv: " + e);
+            return accessibility;
+        }
+        if (input == null) return accessibility;
+
+        try (CsvTokenizer reader = new CsvTokenizer(input)) {
+            // Consume header row:
+            // [0: StationID, 1: Line, 2: Stop Name, 3: Borough, 4: Daytime Routes, 5: Structure, 6: GTFS Latitude,
+            //      7: GTFS Longitude, 8: North Direction Label, 9: South Direction Label,
+            //      10: ADA, 11: ADA Northbound, 12: ADA Southbound, 13: ADA Notes
+            reader.nextRow();
+            while (reader.nextRow()) {
+                if (reader.getFieldCount() <= 10) continue;
+                Coordinates coordinates = new Coordinates(reader.getDouble(6), reader.getDouble(7));
+                // ADA is 1 for accessible stations and 2 for partially accessible ones; the
+                // platform columns are 1 for accessible platforms.
+                String ada = reader.getString(10).trim();
+                String station = ada.equals("1") ? StationDetails.ACCESSIBLE
+                        : ada.equals("2") ? StationDetails.PARTIALLY_ACCESSIBLE
+                        : StationDetails.NOT_ACCESSIBLE;
+                String northbound = platformAccessibility(reader, 11, station);
+                String southbound = platformAccessibility(reader, 12, station);
+                accessibility.put(coordinates, new StationAccessibility(station, northbound, southbound));
+            }
+        } catch (IOException e) {
+            System.out.println("Failure parsing station_list.csv: " + e);
+        }
+
+        return accessibility;
+    }
+
+    private static String platformAccessibility(CsvTokenizer reader, int index, String station) {
+        if (reader.getFieldCount() <= index || reader.isEmpty(index)) return station;
+        return reader.getString(index).trim().equals("1") ? StationDetails.ACCESSIBLE : StationDetails.NOT_ACCESSIBLE;
+    }
+
+    /**
+     * Load all stops/stations and return them numbered by ordinal and mapped by their
      * coordinates.
      */
     private static Tuple2<
-            Map<String, StationDetails>,
+            Indexed<StationDetails>,
             Map<Coordinates, StationDetails>
-        > loadAllStops(Context context) {
-        HashMap<String, StationDetails> stationsByID = new HashMap<>();
+        > loadAllStops(Source source) {
+        Map<Coordinates, StationAccessibility> accessibility = loadStationAccessibility(source);
+        Indexed<StationDetails> stations = new Indexed<>();
         HashMap<Coordinates, StationDetails> stationsByCoords = new HashMap<>();
 
-        // Open stops.txt
-        InputStreamReader inputStream = new InputStreamReader(
-                context.getResources().openRawResource(R.raw.gtfs_stops));
-
-        // Parse as CSV
-        try (CSVReader reader = new CSVReader(inputStream)) {
+        // Open stops.txt and parse as CSV
+        try (CsvTokenizer reader = new CsvTokenizer(source.open(Table.STOPS))) {
             // Consume header row:
             // [0: stop_id, 1: stop_name, 2: stop_lat, 3: stop_lon, 4: location_type, 5: parent_station]
-            String[] stationDetails = reader.readNext();
-            while ((stationDetails = reader.readNext()) != null) {
-                String stationID = stationDetails[0];
-                String stationName = stationDetails[1];
-                double latitude = Double.parseDouble(stationDetails[2]);
-                double longitude = Double.parseDouble(stationDetails[3]);
+            reader.nextRow();
+            while (reader.nextRow()) {
+                String stationID = reader.getString(0);
+                String stationName = reader.getString(1);
+                double latitude = reader.getDouble(2);
+                double longitude = reader.getDouble(3);
 
                 // Skip 'child' stations; only load parent stations.
                 String parentStationID = null;
-                if (stationDetails.length > 5 && !stationDetails[5].isEmpty()) {
-                    parentStationID = stationDetails[5];
+                if (reader.getFieldCount() > 5 && !reader.isEmpty(5)) {
+                    parentStationID = reader.getString(5);
                 }
 
                 Coordinates coordinates = new Coordinates(latitude, longitude);
 
-                // TODO: rn i put "Not Accessible"" for accessible but we could also pull it from
-                //  the data set
-                StationDetails newStation = new StationDetails(
-                        stationID, stationName, coordinates, new HashSet<>(), "Not Accessible");
+                // Platforms ("101N", "101S") take the accessibility of their direction and are
+                // found through their parent's coordinates.
+                StationDetails parent = parentStationID == null ? null : stations.get(parentStationID);
+                StationAccessibility stationAccessibility =
+                        accessibility.get(parent == null ? coordinates : parent.getCoords());
+                String accessible = stationAccessibility == null ? StationDetails.NOT_ACCESSIBLE
+                        : parent == null ? stationAccessibility.station()
+                        : stationID.endsWith("N") ? stationAccessibility.northbound()
+                        : stationID.endsWith("S") ? stationAccessibility.southbound()
+                        : stationAccessibility.station();
+
+                StationDetails newStation = stations.add(stationID, ordinal -> new StationDetails(
+                        ordinal, stationID, stationName, coordinates, new HashSet<>(), accessible));
+                if (newStation == null) {
+                    System.out.println("Skipping duplicate stop " + stationID + " in stops.txt");
+                    continue;
+                }
 
-                stationsByID.put(stationID, newStation);
                 if (parentStationID != null) {
                     // Link this station to its parent
-                    StationDetails parent = stationsByID.get(parentStationID);
                     if (parent == null) {
                         throw new RuntimeException("Unexpectedly found child station before parent station when loading GTFS data");
                     }
@@ -135,92 +506,129 @@ public class GTFSLoaderSync {
                     stationsByCoords.put(coordinates, newStation);
                 }
             }
-        } catch (IOException | CsvValidationException e) {
+        } catch (IOException e) {
             System.out.println("Failure parsing stops.txt: " + e);
         }
 
-        return new Tuple2<>(stationsByID, stationsByCoords);
+        return new Tuple2<>(stations, stationsByCoords);
     }
 
     /**
-     * Load all departures as a map of `trip_id` to a map of departure times linked to stations.
-     * Additionally, map `trip_id`s to `Model.Station`s to link stations to trips.
+     * Load all stop times into a columnar `Model.StopTimeTable`, which refers to stations by
+     * their ordinal. Trips are numbered in the order they first appear in `stop_times.txt`; the
+     * returned dictionary links each `trip_id` to its number in the table.
      */
-    private static Map<String, Map<ClockTime, StationDetails>> loadAllTripDepartures(
-            Context context,
-            Map<String, StationDetails> stations) {
-        Map<String, Map<ClockTime, StationDetails>> departures = new HashMap<>();
-
-        // Open stop_times.txt
-        InputStreamReader inputStream = new InputStreamReader(
-                context.getResources().openRawResource(R.raw.gtfs_stop_times));
-
-        // Parse as CSV
-        try (CSVReader reader = new CSVReader(inputStream)) {
+    private static Tuple2<StopTimeTable, OrdinalDictionary> loadAllStopTimes(
+            Source source,
+            Indexed<StationDetails> stations) {
+        StopTimeTable.Builder builder = new StopTimeTable.Builder(
+                stations.values.toArray(new StationDetails[0]));
+        OrdinalDictionary tripIndices = new OrdinalDictionary(1024);
+        // Trip and stop ids repeat on almost every row, so share their strings.
+        CsvTokenizer.StringPool ids = new CsvTokenizer.StringPool();
+
+        // Open stop_times.txt and parse as CSV
+        try (CsvTokenizer reader = new CsvTokenizer(source.open(Table.STOP_TIMES))) {
             // Consume header row:
             //  [0: trip_id, 1: stop_id, 2: arrival_time, 3: departure_time, 4: stop_sequence]
-            String[] departureDetails = reader.readNext();
-            while ((departureDetails = reader.readNext()) != null) {
-                String tripID = departureDetails[0];
-                String stopID = departureDetails[1];
-                String[] arrivalTimeComponents = departureDetails[2].split(":");
-                String[] departureTimeComponents = departureDetails[3].split(":");
-
-                ClockTime departureTime = new ClockTime(Integer.parseInt(departureTimeComponents[0]),
-                        Integer.parseInt(departureTimeComponents[1]),
-                        Integer.parseInt(departureTimeComponents[2]));
-
-                // Create inner hash map if it doesn't exist.
-                if (!departures.containsKey(tripID)) departures.put(tripID, new HashMap<>());
-                // Add to map by linking departure time with station.
-                departures.get(tripID).put(departureTime, stations.get(stopID));
+            reader.nextRow();
+            // Rows are grouped by trip, so remember the current trip's index instead of looking
+            // it up on every row.
+            String currentTripID = null;
+            int currentTripIndex = -1;
+            while (reader.nextRow()) {
+                String tripID = reader.getString(0, ids);
+                String stopID = reader.getString(1, ids);
+
+                int stopIndex = stations.ids.get(stopID);
+                if (stopIndex < 0) {
+                    System.out.println("stop_times.txt references unknown stop " + stopID);
+                    continue;
+                }
+
+                if (!tripID.equals(currentTripID)) {
+                    currentTripID = tripID;
+                    currentTripIndex = tripIndices.add(tripID);
+                }
+                builder.add(currentTripIndex, reader.getInt(4), stopIndex,
+                        reader.getTimeSeconds(2), reader.getTimeSeconds(3));
             }
-        } catch (IOException | CsvValidationException e) {
+        } catch (IOException e) {
             System.out.println("Failure parsing stop_times.txt: " + e);
         }
 
-        return departures;
+        return new Tuple2<>(builder.build(tripIndices.size()), tripIndices);
     }
 
     /**
-     * Load all shapes and map them by shape_id.
+     * Load all shapes into a `Model.ShapeStore` and map them by shape_id.
      * <p>
      * Note: This assumes that `shape_pt_sequence` are continuous integers
      * that start from 0 and end in `shapes.size()-1`. We can make that
      * assumption for the NYC/MTA subway-station dataset.
      */
-    private static Map<String, TripShape> loadAllShapes(Context context) {
-        Map<String, TripShape> shapes = new HashMap<>();
-
-        // Open shapes.txt
-        InputStreamReader inputStream = new InputStreamReader(
-                context.getResources().openRawResource(R.raw.gtfs_shapes));
+    private static Tuple2<Map<String, TripShape>, ShapeStore> loadAllShapes(Source source) {
+        // Collect the points of each shape in fixed point before encoding them.
+        Map<String, ShapePoints> shapePoints = new LinkedHashMap<>();
+        CsvTokenizer.StringPool ids = new CsvTokenizer.StringPool();
 
-        // Parse as CSV
-        try (CSVReader reader = new CSVReader(inputStream)) {
+        // Open shapes.txt and parse as CSV
+        try (CsvTokenizer reader = new CsvTokenizer(source.open(Table.SHAPES))) {
             // Consume header row:
             // [0: shape_id, 1: shape_pt_sequence, 2: shape_pt_lat, 3: shape_pt_lon]
-            String[] shapeDetails = reader.readNext();
-            while ((shapeDetails = reader.readNext()) != null) {
-                String shapeID = shapeDetails[0];
-                int shapePointSequence = Integer.parseInt(shapeDetails[1]);
-                double shapePointLatitude = Double.parseDouble(shapeDetails[2]);
-                double shapePointLongitude = Double.parseDouble(shapeDetails[3]);
-
-                Coordinates shapeCoordinates = new Coordinates(shapePointLatitude, shapePointLongitude);
-
-                // Add shape to map if it doesn't exist
-                if (!shapes.containsKey(shapeID)) {
-                    shapes.put(shapeID, new TripShape(shapeID, new ArrayList<>()));
-                }
-                // Add point to the shape.
-                shapes.get(shapeID).addPoint(shapeCoordinates, shapePointSequence);
+            reader.nextRow();
+            while (reader.nextRow()) {
+                String shapeID = reader.getString(0, ids);
+                int shapePointSequence = reader.getInt(1);
+                double shapePointLatitude = reader.getDouble(2);
+                double shapePointLongitude = reader.getDouble(3);
+
+                // Add shape to map if it doesn't exist, then add the point to the shape.
+                shapePoints.computeIfAbsent(shapeID, id -> new ShapePoints())
+                        .add(shapePointSequence,
+                                (int) Math.round(shapePointLatitude * ShapeStore.E6),
+                                (int) Math.round(shapePointLongitude * ShapeStore.E6));
             }
-        } catch (IOException | CsvValidationException e) {
+        } catch (IOException e) {
             System.out.println("Failure parsing shapes.txt: " + e);
         }
 
-        return shapes;
+        // Encode every shape; identical shapes end up sharing their points.
+        ShapeStore.Builder builder = new ShapeStore.Builder();
+        Map<String, Integer> storeIndices = new HashMap<>();
+        for (Map.Entry<String, ShapePoints> entry : shapePoints.entrySet()) {
+            ShapePoints points = entry.getValue();
+            storeIndices.put(entry.getKey(), builder.add(points.latitudes, points.longitudes, points.size));
+        }
+        ShapeStore store = builder.build();
+
+        Map<String, TripShape> shapes = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : storeIndices.entrySet()) {
+            shapes.put(entry.getKey(), new TripShape(entry.getKey(), store, entry.getValue()));
+        }
+        return new Tuple2<>(shapes, store);
+    }
+
+    /**
+     * The points of one shape while loading, in fixed point (degrees * `ShapeStore.E6`).
+     */
+    private static class ShapePoints {
+        int[] latitudes = new int[64];
+        int[] longitudes = new int[64];
+        int size = 0;
+
+        void add(int sequence, int latitude, int longitude) {
+            if (sequence != size) {
+                throw new IndexOutOfBoundsException("Unexpected shape_pt_sequence " + sequence + ", expected " + size);
+            }
+            if (size == latitudes.length) {
+                latitudes = Arrays.copyOf(latitudes, size * 2);
+                longitudes = Arrays.copyOf(longitudes, size * 2);
+            }
+            latitudes[size] = latitude;
+            longitudes[size] = longitude;
+            size++;
+        }
     }
 
     /**
@@ -229,38 +637,36 @@ public class GTFSLoaderSync {
      * "Trip servces" expresses what days the trip operates on. For example, a trip might operate
      * only on Mondays and Tuesdays.
      */
-    private static Map<String, TransitTrip.TripService> loadAllTripServices(Context context) {
-        Map<String, TransitTrip.TripService> tripServices = new HashMap<>();
-
-        // Open calendar.txt
-        InputStreamReader inputStream = new InputStreamReader(
-                context.getResources().openRawResource(R.raw.gtfs_calendar));
+    private static Indexed<TransitTrip.TripService> loadAllTripServices(Source source) {
+        Indexed<TransitTrip.TripService> tripServices = new Indexed<>();
 
-        // Parse as CSV
-        try (CSVReader reader = new CSVReader(inputStream)) {
+        // Open calendar.txt and parse as CSV
+        try (CsvTokenizer reader = new CsvTokenizer(source.open(Table.CALENDAR))) {
             // Consume header row:
             // [0: service_id, 1: monday, 2: tuesday, 3: wednesday, 4: thursday, 5: friday,
             //  6: saturday, 7: sunday, 8: start_date, 9: end_date]
-            String[] serviceDetails = reader.readNext();
-            while ((serviceDetails = reader.readNext()) != null) {
-                String serviceID = serviceDetails[0];
-                String startDate = serviceDetails[8];
-                String endDate = serviceDetails[9];
-
-                boolean onMonday = serviceDetails[1].equals("1");
-                boolean onTuesday = serviceDetails[2].equals("1");
-                boolean onWednesday = serviceDetails[3].equals("1");
-                boolean onThursday = serviceDetails[4].equals("1");
-                boolean onFriday = serviceDetails[5].equals("1");
-                boolean onSaturday = serviceDetails[6].equals("1");
-                boolean onSunday = serviceDetails[7].equals("1");
-
-                TransitTrip.TripService service = new TransitTrip.TripService(
+            reader.nextRow();
+            while (reader.nextRow()) {
+                String serviceID = reader.getString(0);
+                String startDate = reader.getString(8);
+                String endDate = reader.getString(9);
+
+                // Compared as strings so a malformed day is just not a service day, rather than
+                // aborting the whole load.
+                boolean onMonday = "1".equals(reader.getString(1));
+                boolean onTuesday = "1".equals(reader.getString(2));
+                boolean onWednesday = "1".equals(reader.getString(3));
+                boolean onThursday = "1".equals(reader.getString(4));
+                boolean onFriday = "1".equals(reader.getString(5));
+                boolean onSaturday = "1".equals(reader.getString(6));
+                boolean onSunday = "1".equals(reader.getString(7));
+
+                tripServices.add(serviceID, ordinal -> new TransitTrip.TripService(
                         serviceID, startDate, endDate,
-                        onMonday, onTuesday, onWednesday, onThursday, onFriday, onSaturday, onSunday);
-                tripServices.put(serviceID, service);
+                        onMonday, onTuesday, onWednesday, onThursday, onFriday, onSaturday, onSunday,
+                        ordinal));
             }
-        } catch (IOException | CsvValidationException e) {
+        } catch (IOException e) {
             System.out.println("Failure parsing calendar.txt: " + e);
         }
 
@@ -268,37 +674,134 @@ public class GTFSLoaderSync {
     }
 
     /**
-     * Load all routes mapped by route_id. Note that for each route in the map we return,
-     * `route.trips` is an empty `Model.TripCollection` but which is linked to `route.`
+     * Load the exceptions to the weekly schedules of `tripServices` from the optional
+     * `calendar_dates.txt`. Services that only appear there (i.e. feeds that list every date
+     * instead of a weekly schedule) are added to `tripServices` without any weekly days.
      */
-    private static Map<String, TransitRoute> loadAllRoutes(Context context) {
-        Map<String, TransitRoute> routes = new HashMap<>();
+    private static ServiceCalendar.Builder loadAllCalendarDates(Source source,
+                                                                Indexed<TransitTrip.TripService> tripServices) {
+        ServiceCalendar.Builder builder = new ServiceCalendar.Builder();
+        InputStream input;
+        try {
+            input = source.open(Table.CALENDAR_DATES);
+        } catch (IOException e) {
+            System.out.println("Failure opening calendar_dates.txt: " + e);
+            return builder;
+        }
+        if (input == null) return builder;
+
+        try (CsvTokenizer reader = new CsvTokenizer(input)) {
+            // Consume header row:
+            // [0: service_id, 1: date, 2: exception_type]
+            reader.nextRow();
+            while (reader.nextRow()) {
+                String serviceID = reader.getString(0);
+                LocalDate date;
+                try {
+                    date = LocalDate.parse(reader.getString(1), DateTimeFormatter.BASIC_ISO_DATE);
+                } catch (DateTimeParseException e) {
+                    // Skip the malformed row rather than aborting the whole load.
+                    System.out.println("Skipping calendar_dates.txt row: " + e.getMessage());
+                    continue;
+                }
+                boolean added = "1".equals(reader.getString(2));
+
+                int ordinal = tripServices.ids.get(serviceID);
+                if (ordinal < 0) {
+                    tripServices.add(serviceID, newOrdinal -> new TransitTrip.TripService(
+                            serviceID, null, null,
+                            false, false, false, false, false, false, false, newOrdinal));
+                    ordinal = tripServices.ids.get(serviceID);
+                }
+                builder.addException(ordinal, date, added);
+            }
+        } catch (IOException e) {
+            System.out.println("Failure parsing calendar_dates.txt: " + e);
+        }
+
+        return builder;
+    }
+
+    /**
+     * Load the transfers given by the optional `transfers.txt`. Transfers between parent stations
+     * apply to every pair of their platforms, since trips stop at the platforms.
+     */
+    private static List<TransferGraph.FixedTransfer> loadAllTransfers(Source source,
+                                                                      Indexed<StationDetails> stations) {
+        List<TransferGraph.FixedTransfer> transfers = new ArrayList<>();
+        InputStream input;
+        try {
+            input = source.open(Table.TRANSFERS);
+        } catch (IOException e) {
+            System.out.println("Failure opening transfers.txt: " + e);
+            return transfers;
+        }
+        if (input == null) return transfers;
 
-        // Open routes.txt
-        InputStreamReader inputStream = new InputStreamReader(
-                context.getResources().openRawResource(R.raw.gtfs_routes));
+        try (CsvTokenizer reader = new CsvTokenizer(input)) {
+            // Consume header row:
+            // [0: from_stop_id, 1: to_stop_id, 2: transfer_type, 3: min_transfer_time]
+            reader.nextRow();
+            while (reader.nextRow()) {
+                StationDetails from = stations.get(reader.getString(0));
+                StationDetails to = stations.get(reader.getString(1));
+                if (from == null || to == null) continue;
+                int type = reader.getFieldCount() > 2 && !reader.isEmpty(2) ? reader.getInt(2) : 0;
+                // 0: recommended, 1: timed (the trip waits), 2: takes min_transfer_time,
+                // 3: not possible.
+                int seconds = switch (type) {
+                    case 1 -> 0;
+                    case 2 -> reader.getFieldCount() > 3 && !reader.isEmpty(3)
+                            ? reader.getInt(3) : TransferGraph.FixedTransfer.ESTIMATED;
+                    case 3 -> TransferGraph.FixedTransfer.NOT_POSSIBLE;
+                    default -> TransferGraph.FixedTransfer.ESTIMATED;
+                };
+
+                for (StationDetails fromPlatform : platforms(from)) {
+                    for (StationDetails toPlatform : platforms(to)) {
+                        transfers.add(new TransferGraph.FixedTransfer(
+                                fromPlatform.getOrdinal(), toPlatform.getOrdinal(), seconds));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Failure parsing transfers.txt: " + e);
+        }
+
+        return transfers;
+    }
+
+    private static List<StationDetails> platforms(StationDetails station) {
+        return station.getChildren().isEmpty() ? List.of(station) : station.getChildren();
+    }
 
-        // Parse as CSV
-        try (CSVReader reader = new CSVReader(inputStream)) {
+    /**
+     * Load all routes numbered by ordinal. Note that for each route in the map we return,
+     * `route.trips` is an empty `Model.TripCollection` but which is linked to `route.`
+     */
+    private static Indexed<TransitRoute> loadAllRoutes(Source source) {
+        Indexed<TransitRoute> routes = new Indexed<>();
+
+        // Open routes.txt and parse as CSV
+        try (CsvTokenizer reader = new CsvTokenizer(source.open(Table.ROUTES))) {
             // Consume header row:
             // [0: agency_id, 1: route_id, 2: route_short_name, 3: route_long_name, 4: route_type, 5: route_desc,
             //  6: route_url, 7: route_color, 8: route_text_color]
-            String[] routeDetails = reader.readNext();
-            while ((routeDetails = reader.readNext()) != null) {
-                String routeID = routeDetails[1];
-                String displayName = routeDetails[2];
-                String longDisplayName = routeDetails[3];
-                String routeColor = routeDetails[7];
+            reader.nextRow();
+            while (reader.nextRow()) {
+                String routeID = reader.getString(1);
+                String displayName = reader.getString(2);
+                String longDisplayName = reader.getString(3);
+                String routeColor = reader.getString(7);
 
                 // Create routes and trip collection.
                 TripCollection trips = new TripCollection();
-                TransitRoute route = new TransitRoute(routeID, displayName, longDisplayName, routeColor, trips);
+                TransitRoute route = routes.add(routeID, ordinal -> new TransitRoute(
+                        ordinal, routeID, displayName, longDisplayName, routeColor, trips));
                 // `Model.TripCollection` needs to have access to its parent route.
-                trips.linkParentRoute(route);
-
-                routes.put(routeID, route);
+                if (route != null) trips.linkParentRoute(route);
             }
-        } catch (IOException | CsvValidationException e) {
+        } catch (IOException e) {
             System.out.println("Failure parsing routes.txt: " + e);
         }
 
@@ -308,53 +811,56 @@ public class GTFSLoaderSync {
     /**
      * Load all trips and add them to the `Model.TripCollection` instance `routes.get(route_id).trips`.
      * We obviously need the `routes` to store the trips in. But we also need `tripServices`,
-     * `shapes` and `tripDepartures` which are all properties we need for a trip.
+     * `shapes` and `stopTimes` (with the `trip_id` numbering it was built with) which are all
+     * properties we need for a trip.
      */
-    private static Map<String, TransitTrip> loadAllTripsIntoRoutes(Context context,
-                                                                   Map<String, TransitRoute> routes,
-                                                                   Map<String, TransitTrip.TripService> tripServices,
-                                                                   Map<String, TripShape> shapes,
-                                                                   Map<String, Map<ClockTime, StationDetails>> tripDepartures) {
-        Map<String, TransitTrip> trips = new HashMap<>();
-
-        // Open trips.txt
-        InputStreamReader inputStream = new InputStreamReader(
-                context.getResources().openRawResource(R.raw.gtfs_trips));
-
-        // Parse as CSV
-        try (CSVReader reader = new CSVReader(inputStream)) {
+    private static Indexed<TransitTrip> loadAllTripsIntoRoutes(Source source,
+                                                               Indexed<TransitRoute> routes,
+                                                               Indexed<TransitTrip.TripService> tripServices,
+                                                               Map<String, TripShape> shapes,
+                                                               Tuple2<StopTimeTable, OrdinalDictionary> stopTimes) {
+        Indexed<TransitTrip> trips = new Indexed<>();
+
+        // Open trips.txt and parse as CSV
+        try (CsvTokenizer reader = new CsvTokenizer(source.open(Table.TRIPS))) {
             // Consume header row:
             // [0: route_id, 1: trip_id, 2: service_id, 3: trip_headsign, 4: direction_id, 5: shape_id]
-            String[] tripDetails = reader.readNext();
-            while ((tripDetails = reader.readNext()) != null) {
-                String routeID = tripDetails[0];
-                String tripID = tripDetails[1];
-                String serviceID = tripDetails[2];
-                String headsign = tripDetails[3];
-                int directionID = Integer.parseInt(tripDetails[4]);
-                String shapeID = tripDetails[5];
+            reader.nextRow();
+            while (reader.nextRow()) {
+                String routeID = reader.getString(0);
+                String tripID = reader.getString(1);
+                String serviceID = reader.getString(2);
+                String headsign = reader.getString(3);
+                int directionID = reader.getInt(4);
+                String shapeID = reader.getString(5);
 
                 TransitTrip.TripDirection direction = TransitTrip.TripDirection.createWithID(directionID);
                 Optional<TripShape> shape = Optional.ofNullable(shapes.get(shapeID));
 
+                int tripIndex = stopTimes.second.get(tripID);
+                TripStopTimes departures = tripIndex < 0
+                        ? TripStopTimes.EMPTY
+                        : stopTimes.first.getTrip(tripIndex);
+
                 // Create trip instance
                 TransitRoute parentRoute = routes.get(routeID);
-                TransitTrip trip = new TransitTrip(
-                        tripID, parentRoute, shape,  tripServices.get(serviceID),
-                        headsign, direction, tripDepartures.get(tripID));
+                TransitTrip trip = trips.add(tripID, ordinal -> new TransitTrip(
+                        ordinal, tripID, parentRoute, shape,  tripServices.get(serviceID),
+                        headsign, direction, departures));
+                if (trip == null) {
+                    System.out.println("Skipping duplicate trip " + tripID + " in trips.txt");
+                    continue;
+                }
 
                 // Store parent route into each station that this trip (and by extension route) traverses.
-                for (StationDetails stopStation: tripDepartures.get(tripID).values()) {
-                    stopStation.addRoute(parentRoute);
+                for (int stop = 0; stop < departures.size(); stop++) {
+                    departures.getStation(stop).addRoute(parentRoute);
                 }
 
                 // Store trip into routes object.
                 parentRoute.addTrip(trip);
-
-                // Store trip in hashmap
-                trips.put(tripID, trip);
             }
-        } catch (IOException | CsvValidationException e) {
+        } catch (IOException e) {
             System.out.println("Failure parsing trips.txt: " + e);
         }
 
@@ -0,0 +1,585 @@
+package edu.vassar.cmpu203.myfirstapplication.Controller;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
+
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.CRC32;
+
+import edu.vassar.cmpu203.myfirstapplication.Model.Coordinates;
+import edu.vassar.cmpu203.myfirstapplication.Model.DepartureBoard;
+import edu.vassar.cmpu203.myfirstapplication.Model.GTFSData;
+import edu.vassar.cmpu203.myfirstapplication.Model.OrdinalDictionary;
+import edu.vassar.cmpu203.myfirstapplication.Model.ServiceCalendar;
+import edu.vassar.cmpu203.myfirstapplication.Model.ShapeStore;
+import edu.vassar.cmpu203.myfirstapplication.Model.StationDetails;
+import edu.vassar.cmpu203.myfirstapplication.Model.StopTimeTable;
+import edu.vassar.cmpu203.myfirstapplication.Model.TransferGraph;
+import edu.vassar.cmpu203.myfirstapplication.Model.TransitRoute;
+import edu.vassar.cmpu203.myfirstapplication.Model.TransitTrip;
+import edu.vassar.cmpu203.myfirstapplication.Model.TripCollection;
+import edu.vassar.cmpu203.myfirstapplication.Model.TripShape;
+import edu.vassar.cmpu203.myfirstapplication.Model.TripStopTimes;
+
+/**
+ * GTFSSnapshot reads and writes a compact binary copy of the fully linked `GTFSData`.
+ * <p>
+ * Parsing the CSV tables takes seconds on a phone, so the snapshot is generated once at build time
+ * from the same tables and bundled as the raw resource `gtfs_snapshot`. At runtime we map the
+ * resource into memory and rebuild the data from it without any text parsing. To generate it, run
+ * <pre>
+ *   java ...Controller.GTFSSnapshot path/to/gtfs-feed path/to/Stations.csv app/src/main/res/raw/gtfs_snapshot
+ * </pre>
+ * (e.g. from a Gradle `JavaExec` task that runs before `mergeResources`). Add `noCompress`
+ * for the resource so it can be mapped directly; a compressed resource still works but is read
+ * into memory instead.
+ * <p>
+ * The file starts with a header:
+ * <pre>
+ *   [int magic "TRNF"] [int version] [int table count] ([long length] [int CRC32])*
+ *   [int payload length] [int CRC32 of the payload]
+ * </pre>
+ * The lengths and checksums are those of the CSV tables the snapshot was built from (in the order
+ * of `GTFSLoaderSync.Table`, -1 for a missing optional table), so a snapshot that wasn't rebuilt
+ * after the tables were updated is noticed. If the header doesn't match (e.g. the snapshot is from
+ * an older version of the app, or from other tables than the bundled ones) or the checksum fails,
+ * `open` returns null and the caller falls back to parsing the CSV tables. Checksumming the
+ * bundled tables takes a while, so it's done once per install of the app.
+ */
+public class GTFSSnapshot {
+    /// "TRNF" in ASCII.
+    static final int MAGIC = 0x54524E46;
+    /// Bump whenever the layout of the payload changes.
+    static final int VERSION = 9;
+    /// The size of the header without the tables' fingerprint.
+    static final int HEADER_SIZE = 20;
+    /// The name of the raw resource containing the snapshot.
+    private static final String RESOURCE_NAME = "gtfs_snapshot";
+    /// Where we remember that the bundled snapshot matches the bundled tables.
+    private static final String PREFERENCES_NAME = "gtfs_snapshot";
+    /// The `lastUpdateTime` of the app when the snapshot was last found to match its tables.
+    private static final String VERIFIED_UPDATE_TIME = "verifiedUpdateTime";
+
+    /**
+     * Build-time entry point: load the GTFS feed in `args[0]` with the MTA's station list in
+     * `args[1]` (GTFS feeds don't have it, and without it no station is accessible), and write
+     * its snapshot to `args[2]`.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: GTFSSnapshot <gtfs directory> <station list csv> <output file>");
+            System.exit(1);
+        }
+        File stationList = new File(args[1]);
+        if (!stationList.isFile()) {
+            System.err.println("Station list not found: " + stationList);
+            System.exit(1);
+        }
+
+        GTFSLoaderSync.Source source = GTFSLoaderSync.directorySource(new File(args[0]), stationList);
+        GTFSData data = GTFSLoaderSync.loadSync(source);
+        boolean anyAccessible = false;
+        for (StationDetails station : data.getStations()) {
+            anyAccessible |= StationDetails.ACCESSIBLE.equals(station.getAccessible());
+        }
+        if (!anyAccessible) {
+            System.err.println("No accessible station in " + stationList + "; is it the MTA's station list?");
+            System.exit(1);
+        }
+        try (OutputStream output = new FileOutputStream(args[2])) {
+            write(data, fingerprint(source), output);
+        }
+        System.out.println("Wrote GTFS snapshot to " + args[2]);
+    }
+
+    /**
+     * Open the snapshot bundled with the app.
+     * @return The loaded data, or null if there's no valid snapshot.
+     */
+    @Nullable
+    public static GTFSData open(Context context) {
+        int resourceID = context.getResources().getIdentifier(
+                RESOURCE_NAME, "raw", context.getPackageName());
+        if (resourceID == 0) return null;
+
+        try {
+            // The resources only change with the app, so the tables are checked once per install.
+            SharedPreferences preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+            long updateTime = context.getPackageManager()
+                    .getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+            boolean verified = preferences.getLong(VERIFIED_UPDATE_TIME, -1) == updateTime;
+            GTFSData data = read(map(context, resourceID),
+                    verified ? null : fingerprint(GTFSLoaderSync.resourceSource(context)));
+            if (data != null && !verified) {
+                preferences.edit().putLong(VERIFIED_UPDATE_TIME, updateTime).apply();
+            }
+            return data;
+        } catch (IOException | PackageManager.NameNotFoundException | RuntimeException e) {
+            System.out.println("Failure opening GTFS snapshot, falling back to CSV: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Get the fingerprint of the CSV tables of `source`: the length and CRC32 of each table, in
+     * the order of `GTFSLoaderSync.Table`, or -1 and 0 for a missing optional table.
+     */
+    public static long[] fingerprint(GTFSLoaderSync.Source source) throws IOException {
+        GTFSLoaderSync.Table[] tables = GTFSLoaderSync.Table.values();
+        long[] fingerprint = new long[tables.length * 2];
+        byte[] chunk = new byte[64 * 1024];
+        for (int t = 0; t < tables.length; t++) {
+            try (InputStream input = source.open(tables[t])) {
+                if (input == null) {
+                    fingerprint[t * 2] = -1;
+                    continue;
+                }
+                CRC32 crc = new CRC32();
+                long length = 0;
+                int read;
+                while ((read = input.read(chunk)) > 0) {
+                    crc.update(chunk, 0, read);
+                    length += read;
+                }
+                fingerprint[t * 2] = length;
+                fingerprint[t * 2 + 1] = crc.getValue();
+            }
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Map the snapshot resource into memory. If the resource is compressed in the APK (so there's
+     * no file region to map), read it into a direct buffer instead.
+     */
+    private static ByteBuffer map(Context context, int resourceID) throws IOException {
+        try (AssetFileDescriptor descriptor = context.getResources().openRawResourceFd(resourceID);
+             FileInputStream input = descriptor.createInputStream()) {
+            return input.getChannel().map(
+                    FileChannel.MapMode.READ_ONLY, descriptor.getStartOffset(), descriptor.getLength());
+        } catch (RuntimeException e) {
+            // `openRawResourceFd` throws `Resources.NotFoundException` for compressed resources.
+            try (InputStream input = context.getResources().openRawResource(resourceID)) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] chunk = new byte[64 * 1024];
+                int read;
+                while ((read = input.read(chunk)) > 0) bytes.write(chunk, 0, read);
+                ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.size());
+                buffer.put(bytes.toByteArray()).flip();
+                return buffer;
+            }
+        }
+    }
+
+    /**
+     * Read a snapshot from `buffer`.
+     * @param sourceFingerprint The `fingerprint` of the tables the snapshot should have been built
+     *                          from, or null not to check it (e.g. it was checked before).
+     * @return The loaded data, or null if the header, the tables or the checksum don't match.
+     */
+    @Nullable
+    public static GTFSData read(ByteBuffer buffer, @Nullable long[] sourceFingerprint) {
+        if (buffer.remaining() < HEADER_SIZE) return null;
+        int magic = buffer.getInt();
+        int version = buffer.getInt();
+        if (magic != MAGIC || version != VERSION) {
+            System.out.println("GTFS snapshot header mismatch (version " + version + ")");
+            return null;
+        }
+
+        int tableCount = buffer.getInt();
+        if (tableCount != GTFSLoaderSync.Table.values().length
+                || buffer.remaining() < tableCount * 12 + 8) {
+            System.out.println("GTFS snapshot header mismatch (" + tableCount + " tables)");
+            return null;
+        }
+        for (int t = 0; t < tableCount; t++) {
+            long length = buffer.getLong();
+            long crc = buffer.getInt() & 0xFFFFFFFFL;
+            if (sourceFingerprint != null
+                    && (length != sourceFingerprint[t * 2] || crc != sourceFingerprint[t * 2 + 1])) {
+                System.out.println("GTFS snapshot is out of date: "
+                        + GTFSLoaderSync.Table.values()[t].fileName + " changed");
+                return null;
+            }
+        }
+
+        int payloadLength = buffer.getInt();
+        int checksum = buffer.getInt();
+        if (payloadLength != buffer.remaining()) {
+            System.out.println("GTFS snapshot header mismatch (payload length " + payloadLength + ")");
+            return null;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate());
+        if ((int) crc.getValue() != checksum) {
+            System.out.println("GTFS snapshot checksum mismatch");
+            return null;
+        }
+
+        return new Reader(buffer.slice()).readData();
+    }
+
+    /**
+     * Write the snapshot of `data` to `output`.
+     * @param sourceFingerprint The `fingerprint` of the tables `data` was loaded from.
+     */
+    public static void write(GTFSData data, long[] sourceFingerprint, OutputStream output) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        new Writer(new DataOutputStream(payload)).writeData(data);
+        byte[] payloadBytes = payload.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(payloadBytes);
+
+        DataOutputStream header = new DataOutputStream(output);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeInt(sourceFingerprint.length / 2);
+        for (int t = 0; t < sourceFingerprint.length; t += 2) {
+            header.writeLong(sourceFingerprint[t]);
+            header.writeInt((int) sourceFingerprint[t + 1]);
+        }
+        header.writeInt(payloadBytes.length);
+        header.writeInt((int) crc.getValue());
+        header.write(payloadBytes);
+        header.flush();
+    }
+
+    /**
+     * Writes the payload. Every object is written once and referred to by its index in its
+     * section, which for stations, routes, services and trips is their ordinal; strings are
+     * deduplicated into a string table at the start of the payload.
+     * <p>
+     * Payload layout (all counts and indices are ints, -1 meaning "none"):
+     * <pre>
+     *   strings:  count, (length, UTF-8 bytes)*
+     *   stations: count, (id, name, latitude, longitude, accessible, parent)*
+     *   routes:   count, (id, displayName, longDisplayName, color)*
+     *   services: count, (id, startDate, endDate, byte days bitmask)*
+     *   calendar: long first day (epoch day), day count, (word count, long service days word*)*
+     *   shape store: byte length, bytes, offsets, pointCounts (each as length, values*)
+     *   shapes:   count, (id, store index)*
+     *   stop times: tripPatterns, tripProfiles, tripStartSeconds,
+     *               patternStopOffsets, patternStops, patternTripOffsets, patternTrips,
+     *               profileOffsets, profileArrivals, profileDepartures
+     *               (each as length, values*)
+     *   transfers: offsets, targets, seconds (each as length, values*)
+     *   trips:    count, (id, route, service, shape, headsign, byte direction, stop times trip)*
+     * </pre>
+     * The stop time and transfer arrays are written as they are in `StopTimeTable` and
+     * `TransferGraph`, so reading them back is a bulk copy per array (and the transfers are
+     * never recomputed at startup).
+     */
+    private static class Writer {
+        private final DataOutputStream output;
+        private final Map<String, Integer> stringIndices = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+
+        Writer(DataOutputStream output) {
+            this.output = output;
+        }
+
+        void writeData(GTFSData data) throws IOException {
+            // Entities are written in ordinal order; shapes don't have ordinals, so collect the
+            // ones referenced by the trips and assign each an index.
+            StationDetails[] stations = data.getStations();
+            TransitRoute[] routes = data.getRoutes();
+            TransitTrip.TripService[] services = data.getServices();
+            TransitTrip[] trips = data.getTrips();
+            List<TripShape> shapes = new ArrayList<>();
+            Map<TripShape, Integer> shapeIndices = new IdentityHashMap<>();
+            for (TransitTrip trip : trips) {
+                TripShape shape = trip.getShape().orElse(null);
+                if (shape != null && !shapeIndices.containsKey(shape)) {
+                    shapeIndices.put(shape, shapes.size());
+                    shapes.add(shape);
+                }
+            }
+
+            // Write the sections into a temporary buffer since the string table has to come first.
+            ByteArrayOutputStream sectionBytes = new ByteArrayOutputStream();
+            DataOutputStream sections = new DataOutputStream(sectionBytes);
+
+            sections.writeInt(stations.length);
+            for (StationDetails station : stations) {
+                sections.writeInt(string(station.getId()));
+                sections.writeInt(string(station.getName()));
+                sections.writeDouble(station.getCoords().getLatitude());
+                sections.writeDouble(station.getCoords().getLongitude());
+                sections.writeInt(string(station.getAccessible()));
+                StationDetails parent = station.getParent();
+                sections.writeInt(parent == null ? -1 : parent.getOrdinal());
+            }
+
+            sections.writeInt(routes.length);
+            for (TransitRoute route : routes) {
+                sections.writeInt(string(route.getId()));
+                sections.writeInt(string(route.getDisplayName()));
+                sections.writeInt(string(route.getLongDisplayName()));
+                sections.writeInt(string(route.getColor()));
+            }
+
+            sections.writeInt(services.length);
+            for (TransitTrip.TripService service : services) {
+                sections.writeInt(string(service.id()));
+                sections.writeInt(string(service.startDate()));
+                sections.writeInt(string(service.endDate()));
+                sections.writeByte(daysBitmask(service));
+            }
+
+            ServiceCalendar calendar = data.getServiceCalendar();
+            sections.writeLong(calendar.getFirstDay().toEpochDay());
+            sections.writeInt(calendar.getDayCount());
+            for (int i = 0; i < services.length; i++) {
+                long[] words = calendar.getServiceDays(i).toLongArray();
+                sections.writeInt(words.length);
+                for (long word : words) sections.writeLong(word);
+            }
+
+            // The shape store is already compressed, so its bytes are copied as they are.
+            ShapeStore shapeStore = data.getShapeStore();
+            ByteBuffer shapeData = shapeStore.getData();
+            byte[] shapeBytes = new byte[shapeData.remaining()];
+            shapeData.get(shapeBytes);
+            sections.writeInt(shapeBytes.length);
+            sections.write(shapeBytes);
+            writeInts(sections, shapeStore.getOffsets());
+            writeInts(sections, shapeStore.getPointCounts());
+
+            sections.writeInt(shapes.size());
+            for (TripShape shape : shapes) {
+                sections.writeInt(string(shape.getId()));
+                sections.writeInt(shape.getStoreIndex());
+            }
+
+            // The table's stations are `stations`, since it refers to them by ordinal.
+            StopTimeTable stopTimes = data.getStopTimes();
+            writeInts(sections, stopTimes.getTripPatterns());
+            writeInts(sections, stopTimes.getTripProfiles());
+            writeInts(sections, stopTimes.getTripStartSeconds());
+            writeInts(sections, stopTimes.getPatternStopOffsets());
+            writeInts(sections, stopTimes.getPatternStops());
+            writeInts(sections, stopTimes.getPatternTripOffsets());
+            writeInts(sections, stopTimes.getPatternTrips());
+            writeInts(sections, stopTimes.getProfileOffsets());
+            writeInts(sections, stopTimes.getProfileArrivals());
+            writeInts(sections, stopTimes.getProfileDepartures());
+
+            TransferGraph transfers = data.getTransfers();
+            writeInts(sections, transfers.getOffsets());
+            writeInts(sections, transfers.getTargets());
+            writeInts(sections, transfers.getSeconds());
+
+            sections.writeInt(trips.length);
+            for (TransitTrip trip : trips) {
+                sections.writeInt(string(trip.getId()));
+                sections.writeInt(trip.getParentRoute().getOrdinal());
+                sections.writeInt(trip.getService() == null ? -1 : trip.getService().ordinal());
+                sections.writeInt(trip.getShape().map(shapeIndices::get).orElse(-1));
+                sections.writeInt(string(trip.getHeadsign()));
+                sections.writeByte(trip.getDirection().ordinal());
+                sections.writeInt(trip.getDepartures().getTripIndex());
+            }
+            sections.flush();
+
+            // Now write the string table followed by the sections.
+            output.writeInt(strings.size());
+            for (String string : strings) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                output.writeInt(bytes.length);
+                output.write(bytes);
+            }
+            sectionBytes.writeTo(output);
+            output.flush();
+        }
+
+        private int string(@Nullable String value) {
+            if (value == null) return -1;
+            Integer index = stringIndices.get(value);
+            if (index == null) {
+                index = strings.size();
+                strings.add(value);
+                stringIndices.put(value, index);
+            }
+            return index;
+        }
+
+        private static void writeInts(DataOutputStream output, int[] values) throws IOException {
+            output.writeInt(values.length);
+            for (int value : values) output.writeInt(value);
+        }
+
+        private static int daysBitmask(TransitTrip.TripService service) {
+            return (service.onMonday() ? 1 : 0)
+                    | (service.onTuesday() ? 1 << 1 : 0)
+                    | (service.onWednesday() ? 1 << 2 : 0)
+                    | (service.onThursday() ? 1 << 3 : 0)
+                    | (service.onFriday() ? 1 << 4 : 0)
+                    | (service.onSaturday() ? 1 << 5 : 0)
+                    | (service.onSunday() ? 1 << 6 : 0);
+        }
+    }
+
+    /**
+     * Reads the payload written by `Writer` and links it back into a `GTFSData`.
+     */
+    private static class Reader {
+        private final ByteBuffer buffer;
+        private String[] strings;
+
+        Reader(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        GTFSData readData() {
+            strings = new String[buffer.getInt()];
+            byte[] scratch = new byte[256];
+            for (int i = 0; i < strings.length; i++) {
+                int length = buffer.getInt();
+                if (scratch.length < length) scratch = new byte[length];
+                buffer.get(scratch, 0, length);
+                strings[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+            }
+
+            // Stations; parents are linked once all stations exist.
+            StationDetails[] stations = new StationDetails[buffer.getInt()];
+            int[] parents = new int[stations.length];
+            OrdinalDictionary stationIDs = new OrdinalDictionary(stations.length);
+            Map<Coordinates, StationDetails> stationsByCoords = new HashMap<>();
+            for (int i = 0; i < stations.length; i++) {
+                String id = string();
+                String name = string();
+                Coordinates coords = new Coordinates(buffer.getDouble(), buffer.getDouble());
+                stations[i] = new StationDetails(stationIDs.add(id), id, name, coords, new HashSet<>(), string());
+                parents[i] = buffer.getInt();
+            }
+            for (int i = 0; i < stations.length; i++) {
+                if (parents[i] >= 0) {
+                    stations[i].linkParent(stations[parents[i]]);
+                } else {
+                    // Only parent stations are mapped by their coordinates.
+                    stationsByCoords.put(stations[i].getCoords(), stations[i]);
+                }
+            }
+
+            TransitRoute[] routes = new TransitRoute[buffer.getInt()];
+            OrdinalDictionary routeIDs = new OrdinalDictionary(routes.length);
+            for (int i = 0; i < routes.length; i++) {
+                TripCollection trips = new TripCollection();
+                String id = string();
+                routes[i] = new TransitRoute(routeIDs.add(id), id, string(), string(), string(), trips);
+                trips.linkParentRoute(routes[i]);
+            }
+
+            TransitTrip.TripService[] services = new TransitTrip.TripService[buffer.getInt()];
+            OrdinalDictionary serviceIDs = new OrdinalDictionary(services.length);
+            for (int i = 0; i < services.length; i++) {
+                String id = string();
+                String startDate = string();
+                String endDate = string();
+                int days = buffer.get();
+                services[i] = new TransitTrip.TripService(id, startDate, endDate,
+                        (days & 1) != 0, (days & 1 << 1) != 0, (days & 1 << 2) != 0,
+                        (days & 1 << 3) != 0, (days & 1 << 4) != 0, (days & 1 << 5) != 0,
+                        (days & 1 << 6) != 0, serviceIDs.add(id));
+            }
+
+            LocalDate firstDay = LocalDate.ofEpochDay(buffer.getLong());
+            int dayCount = buffer.getInt();
+            BitSet[] serviceDays = new BitSet[services.length];
+            for (int i = 0; i < services.length; i++) {
+                long[] words = new long[buffer.getInt()];
+                for (int w = 0; w < words.length; w++) words[w] = buffer.getLong();
+                serviceDays[i] = BitSet.valueOf(words);
+            }
+
+            // Read the shape store straight from the snapshot's buffer, which is usually mapped.
+            int shapeByteCount = buffer.getInt();
+            ByteBuffer shapeData = buffer.slice();
+            shapeData.limit(shapeByteCount);
+            buffer.position(buffer.position() + shapeByteCount);
+            ShapeStore shapeStore = new ShapeStore(shapeData.asReadOnlyBuffer(), ints(), ints());
+
+            TripShape[] shapes = new TripShape[buffer.getInt()];
+            for (int i = 0; i < shapes.length; i++) {
+                shapes[i] = new TripShape(string(), shapeStore, buffer.getInt());
+            }
+
+            StopTimeTable stopTimes = new StopTimeTable(stations,
+                    ints(), ints(), ints(),
+                    ints(), ints(), ints(), ints(),
+                    ints(), ints(), ints());
+
+            TransferGraph transfers = new TransferGraph(ints(), ints(), ints());
+
+            TransitTrip[] trips = new TransitTrip[buffer.getInt()];
+            OrdinalDictionary tripIDs = new OrdinalDictionary(trips.length);
+            for (int i = 0; i < trips.length; i++) {
+                String id = string();
+                TransitRoute route = routes[buffer.getInt()];
+                int service = buffer.getInt();
+                int shape = buffer.getInt();
+                String headsign = string();
+                TransitTrip.TripDirection direction = TransitTrip.TripDirection.values()[buffer.get()];
+                int stopTimesTrip = buffer.getInt();
+                TripStopTimes departures = stopTimesTrip < 0
+                        ? TripStopTimes.EMPTY
+                        : stopTimes.getTrip(stopTimesTrip);
+                // Store the route into each station that this trip traverses.
+                for (int stop = 0; stop < departures.size(); stop++) {
+                    departures.getStation(stop).addRoute(route);
+                }
+
+                trips[i] = new TransitTrip(
+                        tripIDs.add(id), id, route, Optional.ofNullable(shape < 0 ? null : shapes[shape]),
+                        service < 0 ? null : services[service], headsign, direction, departures);
+                route.addTrip(trips[i]);
+            }
+
+            ServiceCalendar serviceCalendar = new ServiceCalendar(firstDay, dayCount, serviceDays, trips);
+            DepartureBoard.link(stopTimes, trips, serviceCalendar);
+
+            return new GTFSData(stationsByCoords, stationIDs, stations, routeIDs, routes,
+                    serviceIDs, services, tripIDs, trips, stopTimes, transfers, serviceCalendar, shapeStore);
+        }
+
+        private int[] ints() {
+            int count = buffer.getInt();
+            int[] values = new int[count];
+            buffer.asIntBuffer().get(values);
+            buffer.position(buffer.position() + count * 4);
+            return values;
+        }
+
+        @Nullable
+        private String string() {
+            int index = buffer.getInt();
+            return index < 0 ? null : strings[index];
+        }
+    }
+}
@@ -7,14 +7,9 @@ import com.google.gson.reflect.TypeToken
 import edu.vassar.cmpu203.myfirstapplication.Model.Coordinates
 import edu.vassar.cmpu203.myfirstapplication.Model.Destination
 import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.SupervisorJob
 import kotlinx.coroutines.cancel
-import kotlinx.coroutines.launch
-import kotlinx.coroutines.withContext
-import okhttp3.OkHttpClient
-import okhttp3.Request
-import okhttp3.Response
 import org.json.JSONArray
 import java.io.IOException
 import java.net.URLEncoder
@@ -44,14 +39,20 @@ private data class ReverseGeocodingAPIResponse(
  * and reverse geocoding (coordinates -> human-readable text). We do that by making
  * calls to the Nominatim API.
  */
-class GeocodingService(private val scope: CoroutineScope) {
+class GeocodingService(private val scope: CoroutineScope, private val transport: HttpTransport) {
     // Gson shared object for decoding API responses
     private val gson = Gson()
 
+    // Identical lookups in flight share one API call.
+    private val nameLookups = RequestCoalescer<String>(scope)
+    private val coordsLookups = RequestCoalescer<Coordinates>(scope)
+
     /**
      * Given a human-readble text describing a location, returns a list of `Destination`.
      * A `Destination` includes the coordinates of the location and the human-readable text.
      * This is otherwise known as (forward) geocoding.
+     * Returns a handle to cancel the lookup, e.g. when the user types another location; the
+     * callbacks are then never called.
      */
     // Java-friendly method that takes a callback
     @JvmOverloads
@@ -59,25 +60,16 @@ class GeocodingService(private val scope: CoroutineScope) {
         query: String,
         onSuccess: (List<Destination>) -> Unit = {},
         onError: (Throwable) -> Unit = {}
-    ) {
-        scope.launch {
-            try {
-                // Do the background work
-                val result = withContext(Dispatchers.IO) {
-                    lookupName(query)
-                }
-                // Deliver result on main thread
-                onSuccess(result)
-            } catch (e: Exception) {
-                onError(e)
-            }
-        }
+    ): Job {
+        // Do the background work and deliver the result on the main thread.
+        return nameLookups.launch(query, { lookupName(query) }, onSuccess, onError)
     }
 
     /**
      * Given a set of coordinates, returns a `Destination`.
      * A `Destination` includes the coordinates of the location and the human-readable text.
      * This is otherwise known as reverse geocoding.
+     * Returns a handle to cancel the lookup; the callbacks are then never called.
      */
     // Java-friendly method that takes a callback
     @JvmOverloads
@@ -85,26 +77,16 @@ class GeocodingService(private val scope: CoroutineScope) {
         coords: Coordinates,
         onSuccess: (Destination) -> Unit = {},
         onError: (Throwable) -> Unit = {}
-    ) {
-        scope.launch {
-            try {
-                // Do the background work
-                val result = withContext(Dispatchers.IO) {
-                    lookupCoords(coords)
-                }
-                // Deliver result on main thread
-                onSuccess(result)
-            } catch (e: Exception) {
-                onError(e)
-            }
-        }
+    ): Job {
+        // Do the background work and deliver the result on the main thread.
+        return coordsLookups.launch(coords, { lookupCoords(coords) }, onSuccess, onError)
     }
 
     /**
-     * A blocking call to the Nominatim Geocoding API.
+     * A call to the Nominatim Geocoding API; cancelling the coroutine cancels it.
      */
     @Throws(NetworkErrorException::class)
-    private fun lookupName(query: String): List<Destination> {
+    private suspend fun lookupName(query: String): List<Destination> {
         // Check that the inputs are valid (the query is not too long).
         if (query.length > 300) {
             throw NetworkErrorException("Query is too long.");
@@ -114,26 +96,8 @@ class GeocodingService(private val scope: CoroutineScope) {
         val localizedQuery = "$query, New York City, NY";
         val encodedQuery = URLEncoder.encode(localizedQuery, "UTF-8")
         val url = "https://nominatim.openstreetmap.org/search?q=$encodedQuery&format=json&limit=10"
-        val client = OkHttpClient()
-        val request = Request.Builder()
-            .url(url)
-            .header("User-Agent", "Kotlin Nominatim Client")
-            .get()
-            .build()
-
-        // Make the API call and throw in case of a failure
-        val response: Response = try {
-            client.newCall(request).execute()
-        } catch (e: Exception) {
-            throw NetworkErrorException("Network error: ${e.message}")
-        }
-
-        // Check the response is successful and valid
-        if (!response.isSuccessful) {
-            throw NetworkErrorException("GET request failed. Response Code: ${response.code}")
-        }
-        val responseBody = response.body?.string()
-            ?: throw NetworkErrorException("Empty response body in call to geocoding service.")
+        // Make the API call and decode the response, throwing in case of a failure
+        val responseBody = transport.get(HttpTransport.Endpoint.GEOCODING, url) { body -> body.string() }
 
         // Decode the response and construct a list of Destination using the response data.
         val listType = object : TypeToken<List<GeocodingAPIResponse>>() {}.type
@@ -144,33 +108,15 @@ class GeocodingService(private val scope: CoroutineScope) {
     }
 
     /**
-     * A blocking call to the Nominatim Reverse Geocoding API.
+     * A call to the Nominatim Reverse Geocoding API; cancelling the coroutine cancels it.
      */
     @Throws(NetworkErrorException::class)
-    private fun lookupCoords(coords: Coordinates): Destination {
+    private suspend fun lookupCoords(coords: Coordinates): Destination {
         // Construct a request
         // We use a zoom level of 10 to search only within the city
         val url = "https://nominatim.openstreetmap.org/reverse?lat=${coords.latitude}&lon=${coords.longitude}&format=json&zoom=10"
-        val client = OkHttpClient()
-        val request = Request.Builder()
-            .url(url)
-            .header("User-Agent", "Kotlin Nominatim Client")
-            .get()
-            .build()
-
-        // Make the API call and throw in case of a failure
-        val response: Response = try {
-            client.newCall(request).execute()
-        } catch (e: Exception) {
-            throw NetworkErrorException("Network error: ${e.message}")
-        }
-
-        // Check the response is successful and valid
-        if (!response.isSuccessful) {
-            throw NetworkErrorException("GET request failed. Response Code: ${response.code}")
-        }
-        val responseBody = response.body?.string()
-            ?: throw NetworkErrorException("Empty response body in call to geocoding service.")
+        // Make the API call and decode the response, throwing in case of a failure
+        val responseBody = transport.get(HttpTransport.Endpoint.GEOCODING, url) { body -> body.string() }
 
         // Decode the response and construct a list of Destination using the response data.
         val listType = object : TypeToken<GeocodingAPIResponse>() {}.type
@@ -0,0 +1,70 @@
+package edu.vassar.cmpu203.myfirstapplication.Controller;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import edu.vassar.cmpu203.myfirstapplication.Model.BestRoute;
+import edu.vassar.cmpu203.myfirstapplication.Model.SimplifiedLine;
+
+/**
+ * GeometryCache builds the `SimplifiedLine` pyramids of route steps on background threads and
+ * keeps them, so the map never simplifies a line on the main thread and never simplifies the same
+ * line twice. Steps are cached only as long as the step itself is in use.
+ * <p>
+ * The threads are shared by every cache of the process (e.g. when the activity, and so the
+ * `Controller`, is recreated) and are daemons, so they never need to be shut down.
+ */
+public class GeometryCache {
+    private static final int THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "geometry-cache");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    private final Map<BestRoute.Step, CompletableFuture<SimplifiedLine>> steps =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * Get the pyramid of the geometry of a step, building it in the background if it isn't cached
+     * yet.
+     */
+    public CompletableFuture<SimplifiedLine> getStep(BestRoute.Step step) {
+        synchronized (steps) {
+            return steps.computeIfAbsent(step,
+                    key -> CompletableFuture.supplyAsync(() -> SimplifiedLine.of(key.getGeometry()), EXECUTOR));
+        }
+    }
+
+    /**
+     * Start building the pyramids of all steps of the given routes in parallel.
+     * @return The pyramids of the steps, route by route, once they're all built.
+     */
+    public CompletableFuture<List<List<SimplifiedLine>>> prefetchRoutes(List<BestRoute> routes) {
+        List<List<CompletableFuture<SimplifiedLine>>> futures = new ArrayList<>(routes.size());
+        List<CompletableFuture<SimplifiedLine>> all = new ArrayList<>();
+        for (BestRoute route : routes) {
+            List<CompletableFuture<SimplifiedLine>> routeFutures = new ArrayList<>(route.getSteps().size());
+            for (BestRoute.Step step : route.getSteps()) routeFutures.add(getStep(step));
+            futures.add(routeFutures);
+            all.addAll(routeFutures);
+        }
+
+        return CompletableFuture.allOf(all.toArray(new CompletableFuture[0])).thenApply(done -> {
+            List<List<SimplifiedLine>> lines = new ArrayList<>(futures.size());
+            for (List<CompletableFuture<SimplifiedLine>> routeFutures : futures) {
+                List<SimplifiedLine> routeLines = new ArrayList<>(routeFutures.size());
+                for (CompletableFuture<SimplifiedLine> future : routeFutures) routeLines.add(future.join());
+                lines.add(routeLines);
+            }
+            return lines;
+        });
+    }
+}
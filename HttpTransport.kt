@@ -0,0 +1,195 @@
+package edu.vassar.cmpu203.myfirstapplication.Controller
+
+import android.accounts.NetworkErrorException
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.suspendCancellableCoroutine
+import okhttp3.Cache
+import okhttp3.Call
+import okhttp3.Callback
+import okhttp3.ConnectionPool
+import okhttp3.Dispatcher
+import okhttp3.OkHttpClient
+import okhttp3.Protocol
+import okhttp3.Request
+import okhttp3.Response
+import okhttp3.ResponseBody
+import java.io.File
+import java.io.IOException
+import java.util.EnumMap
+import java.util.Locale
+import java.util.concurrent.TimeUnit
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+
+/**
+ * HttpTransport makes the HTTP calls of the app's services (geocoding and routing) with one
+ * shared OkHttp client, so they reuse its connections, threads and response cache instead of
+ * each call opening its own.
+ * <p>
+ * The client keeps idle connections alive for `KEEP_ALIVE_MINUTES`, uses HTTP/2 when the server
+ * supports it (over TLS), asks for gzip responses and decompresses them (OkHttp does so when no
+ * `Accept-Encoding` is set), and caches responses on disk as the server's headers allow. Each
+ * `Endpoint` gets its own timeouts and latency stats.
+ * <p>
+ * There is one transport for the whole process (see `getInstance`), since the activity and its
+ * controller are recreated, e.g. when the screen turns, and a second client would open a second
+ * cache on the same directory and keep its own threads and connections alive.
+ */
+class HttpTransport private constructor(cacheDirectory: File?) {
+    /**
+     * A server the app calls, with how long to wait for it.
+     */
+    enum class Endpoint(
+        val userAgent: String,
+        val connectTimeoutSeconds: Long,
+        val readTimeoutSeconds: Long,
+        val callTimeoutSeconds: Long
+    ) {
+        /// Nominatim; quick, and the user is waiting while typing.
+        GEOCODING("Kotlin Nominatim Client", 5, 10, 15),
+        /// Our GraphHopper server; planning can take a while.
+        ROUTING("Kotlin Graphhopper Client", 5, 20, 30)
+    }
+
+    /**
+     * The latency of the calls to an endpoint since the transport was created.
+     * @param calls Calls made, failed or not.
+     * @param failures Calls that got no response, or an unsuccessful one.
+     * @param cached Calls answered from the disk cache without going to the server.
+     * @param totalMillis The time from making each call to getting its response headers, summed.
+     * @param maxMillis The longest of those times.
+     */
+    data class Stats(val calls: Long, val failures: Long, val cached: Long, val totalMillis: Long, val maxMillis: Long) {
+        val meanMillis: Double
+            get() = if (calls == 0L) 0.0 else totalMillis.toDouble() / calls
+
+        override fun toString(): String = String.format(Locale.US,
+            "%d calls (%d failed, %d cached), mean %.0f ms, max %d ms",
+            calls, failures, cached, meanMillis, maxMillis)
+    }
+
+    companion object {
+        /// The size of the disk cache.
+        private const val CACHE_BYTES = 10L * 1024 * 1024
+        /// How many idle connections are kept, and for how long.
+        private const val MAX_IDLE_CONNECTIONS = 5
+        private const val KEEP_ALIVE_MINUTES = 5L
+
+        @Volatile
+        private var instance: HttpTransport? = null
+
+        /**
+         * Get the transport of the process, creating it the first time with its response cache
+         * in `cacheDirectory`; later calls return the same transport, whatever their directory.
+         * @param cacheDirectory The app's cache directory, or null to cache nothing.
+         */
+        @JvmStatic
+        fun getInstance(cacheDirectory: File?): HttpTransport =
+            instance ?: synchronized(this) {
+                instance ?: HttpTransport(cacheDirectory).also { instance = it }
+            }
+    }
+
+    /**
+     * The shared client; the clients of the endpoints are derived from it and share its
+     * connection pool, dispatcher and cache.
+     */
+    private val client: OkHttpClient = OkHttpClient.Builder()
+        .connectionPool(ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+        .dispatcher(Dispatcher())
+        .protocols(listOf(Protocol.HTTP_2, Protocol.HTTP_1_1))
+        .apply { if (cacheDirectory != null) cache(Cache(File(cacheDirectory, "http"), CACHE_BYTES)) }
+        .build()
+
+    private val endpointClients = EnumMap<Endpoint, OkHttpClient>(Endpoint::class.java).apply {
+        for (endpoint in Endpoint.values()) {
+            put(endpoint, client.newBuilder()
+                .connectTimeout(endpoint.connectTimeoutSeconds, TimeUnit.SECONDS)
+                .readTimeout(endpoint.readTimeoutSeconds, TimeUnit.SECONDS)
+                .callTimeout(endpoint.callTimeoutSeconds, TimeUnit.SECONDS)
+                .build())
+        }
+    }
+
+    private val stats = EnumMap<Endpoint, Stats>(Endpoint::class.java).apply {
+        for (endpoint in Endpoint.values()) put(endpoint, Stats(0, 0, 0, 0, 0))
+    }
+
+    /**
+     * Make a GET request to `url` and decode its body with `decode`, suspending meanwhile.
+     * The response is always closed, and cancelling the coroutine cancels the call.
+     * @throws NetworkErrorException If the call fails, the response isn't successful or it has
+     *                               no body.
+     */
+    @Throws(NetworkErrorException::class)
+    suspend fun <T> get(endpoint: Endpoint, url: String, decode: (ResponseBody) -> T): T {
+        val request = Request.Builder()
+            .url(url)
+            .header("User-Agent", endpoint.userAgent)
+            .get()
+            .build()
+
+        // Make the API call and throw in case of a failure
+        val start = System.nanoTime()
+        val response: Response = try {
+            endpointClients.getValue(endpoint).newCall(request).await()
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            record(endpoint, start, false, false)
+            throw NetworkErrorException("Network error: ${e.message}")
+        }
+
+        response.use {
+            record(endpoint, start, response.isSuccessful, response.networkResponse == null)
+            // Check the response is successful and valid
+            if (!response.isSuccessful) {
+                throw NetworkErrorException("GET request failed. Response Code: ${response.code}")
+            }
+            val body = response.body
+                ?: throw NetworkErrorException("Empty response body in call to ${endpoint.name.lowercase()} service.")
+            // Don't decode the response if nobody is waiting for it anymore.
+            currentCoroutineContext().ensureActive()
+            return decode(body)
+        }
+    }
+
+    /**
+     * Get the latency of the calls to `endpoint` so far.
+     */
+    fun getStats(endpoint: Endpoint): Stats = synchronized(stats) { stats.getValue(endpoint) }
+
+    private fun record(endpoint: Endpoint, start: Long, successful: Boolean, cached: Boolean) {
+        val millis = (System.nanoTime() - start) / 1_000_000
+        synchronized(stats) {
+            val old = stats.getValue(endpoint)
+            stats[endpoint] = Stats(
+                old.calls + 1,
+                old.failures + if (successful) 0 else 1,
+                old.cached + if (cached) 1 else 0,
+                old.totalMillis + millis,
+                maxOf(old.maxMillis, millis)
+            )
+        }
+    }
+}
+
+/**
+ * Execute an HTTP call, suspending until the response arrives. Unlike `execute()`, this cancels
+ * the call (closing its connection) when the coroutine is cancelled.
+ */
+private suspend fun Call.await(): Response = suspendCancellableCoroutine { continuation ->
+    continuation.invokeOnCancellation { cancel() }
+    enqueue(object : Callback {
+        override fun onResponse(call: Call, response: Response) {
+            // If the coroutine was cancelled meanwhile, nobody will read the response.
+            continuation.resume(response) { response.close() }
+        }
+
+        override fun onFailure(call: Call, e: IOException) {
+            continuation.resumeWithException(e)
+        }
+    })
+}
@@ -0,0 +1,84 @@
+package edu.vassar.cmpu203.myfirstapplication.Controller;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import edu.vassar.cmpu203.myfirstapplication.Model.BestRoute;
+import edu.vassar.cmpu203.myfirstapplication.Model.Coordinates;
+import edu.vassar.cmpu203.myfirstapplication.Model.GTFSData;
+
+/**
+ * A JourneyPlanner finds public-transit routes on the device from the loaded `GTFSData`.
+ * `RouteFinder` picks the engine to use with `Engine`.
+ * <p>
+ * Planners are safe to use from several threads at once: the network they route on is never
+ * modified, and each thread reuses its own labels from one query to the next.
+ */
+public interface JourneyPlanner {
+    /**
+     * The local routing engines.
+     */
+    enum Engine {
+        /// Round-based; finds the earliest route for each number of transfers.
+        RAPTOR,
+        /// Connection scan; finds the earliest arriving route.
+        CSA,
+        /// Multi-criteria RAPTOR; like `RAPTOR`, plus slower routes that are step-free.
+        ACCESSIBLE,
+        /// Multi-criteria RAPTOR; only step-free routes.
+        STEP_FREE_ONLY;
+
+        /**
+         * Create a planner of this engine for `data`.
+         */
+        public JourneyPlanner create(GTFSData data) {
+            return create(new PlannerNetwork(data));
+        }
+
+        JourneyPlanner create(PlannerNetwork network) {
+            return switch (this) {
+                case RAPTOR -> new RaptorPlanner(network);
+                case CSA -> new ConnectionScanPlanner(network);
+                case ACCESSIBLE -> new McRaptorPlanner(network, false);
+                case STEP_FREE_ONLY -> new McRaptorPlanner(network, true);
+            };
+        }
+    }
+
+    /**
+     * One query: from where to where, leaving when.
+     */
+    record Request(Coordinates origin, Coordinates destination, LocalDateTime departure) {}
+
+    /**
+     * Find the best routes from `origin` to `destination` leaving at `departure`, in the order
+     * they should be shown. Includes a route that only walks if the destination is close enough.
+     * @return The routes, or an empty list if there's none.
+     */
+    List<BestRoute> plan(Coordinates origin, Coordinates destination, LocalDateTime departure);
+
+    /**
+     * Find the best routes of each of `requests` like `plan`, running the queries in parallel on
+     * `executor`.
+     * @return The routes of each request, in the same order.
+     */
+    default List<List<BestRoute>> planAll(List<Request> requests, Executor executor) {
+        List<CompletableFuture<List<BestRoute>>> queries = new ArrayList<>(requests.size());
+        for (Request request : requests) {
+            queries.add(CompletableFuture.supplyAsync(
+                    () -> plan(request.origin(), request.destination(), request.departure()), executor));
+        }
+        List<List<BestRoute>> routes = new ArrayList<>(requests.size());
+        try {
+            for (CompletableFuture<List<BestRoute>> query : queries) routes.add(query.join());
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw e;
+        }
+        return routes;
+    }
+}
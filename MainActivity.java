@@ -33,6 +33,7 @@ import edu.vassar.cmpu203.myfirstapplication.Controller.Controller;
 import edu.vassar.cmpu203.myfirstapplication.Controller.State;
 import edu.vassar.cmpu203.myfirstapplication.Model.BestRoute;
 import edu.vassar.cmpu203.myfirstapplication.Model.Destination;
+import edu.vassar.cmpu203.myfirstapplication.Model.SimplifiedLine;
 import edu.vassar.cmpu203.myfirstapplication.Model.Station;
 import edu.vassar.cmpu203.myfirstapplication.Model.StationDetails;
 import edu.vassar.cmpu203.myfirstapplication.View.BestRoutesFragment;
@@ -305,4 +306,13 @@ public class MainActivity extends AppCompatActivity implements UIDelegate {
     public void showRoutes(List<BestRoute> bestRoutes, Runnable onCancel) {
         // TODO: Implement
     }
+
+    /**
+     * Draws the steps of a route in the StationsMapFragment.
+     * @param lines
+     */
+    @Override
+    public void showRouteLines(List<SimplifiedLine> lines) {
+        stationsMapFragment.showLines(lines, StationsMapFragment.ROUTE_LINE_COLOR);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,380 @@
+package edu.vassar.cmpu203.myfirstapplication.Controller;
+
+import static edu.vassar.cmpu203.myfirstapplication.Controller.PlannerNetwork.UNREACHED;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import edu.vassar.cmpu203.myfirstapplication.Model.BestRoute;
+import edu.vassar.cmpu203.myfirstapplication.Model.Coordinates;
+import edu.vassar.cmpu203.myfirstapplication.Model.GTFSData;
+import edu.vassar.cmpu203.myfirstapplication.Model.StationDetails;
+import edu.vassar.cmpu203.myfirstapplication.Model.StopTimeTable;
+
+/**
+ * McRaptorPlanner finds accessible public-transit routes with a multi-criteria RAPTOR (McRAPTOR,
+ * Delling et al.): it optimizes the arrival time, the number of trips and whether the route is
+ * step-free, using the ADA columns of the station list (`StationDetails.isStepFree()`).
+ * <p>
+ * A route is step-free if every station where it enters, leaves or walks between platforms is
+ * accessible; staying on the platform to change trips is always fine. Each station has one label
+ * per round for each value of that flag ("bag"), so a bag holds at most two labels and a query
+ * costs at most about twice a `RaptorPlanner` query (and, like it, reuses the labels of its
+ * thread instead of allocating them). A label that isn't step-free is dropped
+ * whenever a step-free label at the same station arrives no later.
+ * <p>
+ * With `stepFreeOnly`, step-free access is a hard constraint and only step-free routes are
+ * returned. Otherwise it's a Pareto criterion: the result is every route that isn't beaten on all
+ * three criteria by another one, i.e. the fastest route for each number of trips plus any slower
+ * but step-free route.
+ */
+public class McRaptorPlanner implements JourneyPlanner {
+    /// At most this many trips per route (so at most `MAX_ROUNDS - 1` transfers).
+    private static final int MAX_ROUNDS = 5;
+
+    private final PlannerNetwork network;
+    private final StopTimeTable table;
+    private final StationDetails[] stations;
+    private final boolean stepFreeOnly;
+    /// The labels of the queries running on each thread, reused from one query to the next.
+    private final ThreadLocal<Labels> labels = ThreadLocal.withInitial(Labels::new);
+
+    /**
+     * Constructor for McRaptorPlanner. Indexes `data` for routing; build one planner per
+     * `GTFSData` and reuse it.
+     * @param stepFreeOnly Whether to only return step-free routes.
+     */
+    public McRaptorPlanner(GTFSData data, boolean stepFreeOnly) {
+        this(new PlannerNetwork(data), stepFreeOnly);
+    }
+
+    McRaptorPlanner(PlannerNetwork network, boolean stepFreeOnly) {
+        this.network = network;
+        this.table = network.table;
+        this.stations = network.stations;
+        this.stepFreeOnly = stepFreeOnly;
+    }
+
+    /**
+     * Find the Pareto set of routes by arrival time, number of trips and step-free access, fewest
+     * trips first, plus a walking route if the destination is close enough.
+     */
+    @Override
+    public List<BestRoute> plan(Coordinates origin, Coordinates destination, LocalDateTime departure) {
+        return new Query(origin, destination, departure).run();
+    }
+
+    /**
+     * The labels of the queries of one thread, allocated once; each query resets `best` and
+     * `patternStarts`, and each round the labels of the round.
+     */
+    private class Labels {
+        private final int[] accessSeconds = new int[stations.length];
+        private final int[] egressSeconds = new int[stations.length];
+        private final int[] best = new int[stations.length * 2];
+        private final int[][] arrivals = new int[MAX_ROUNDS + 1][stations.length * 2];
+        private final int[][] rideTrips = new int[MAX_ROUNDS + 1][stations.length * 2];
+        private final int[][] rideBoardStops = new int[MAX_ROUNDS + 1][stations.length * 2];
+        private final int[][] rideAlightStops = new int[MAX_ROUNDS + 1][stations.length * 2];
+        private final int[][] rideArrivals = new int[MAX_ROUNDS + 1][stations.length * 2];
+        private final int[][] transferSources = new int[MAX_ROUNDS + 1][stations.length * 2];
+        private final int[] patternStarts = new int[table.getPatternCount()];
+        private final int[] queuedPatterns = new int[table.getPatternCount()];
+        private final BitSet marked = new BitSet(stations.length);
+        private final BitSet improvedByRide = new BitSet(stations.length * 2);
+    }
+
+    /**
+     * The labels of one query. Labels are indexed by "state": `station * 2 + 1` if the route to
+     * the station is step-free so far and `station * 2` otherwise.
+     */
+    private class Query {
+        private final Coordinates origin;
+        private final Coordinates destination;
+        private final int departureSeconds;
+        private final BitSet activeToday;
+        private final BitSet activeYesterday;
+
+        /// Walking time from the origin to each station and from each station to the
+        /// destination, or -1 if it's too far.
+        private final int[] accessSeconds;
+        private final int[] egressSeconds;
+
+        /// The earliest arrival at each state with at most `k` trips.
+        private final int[][] arrivals;
+        /// The earliest arrival at each state with any number of trips.
+        private final int[] best;
+        /// The trip taken to each state in round `k` (-1 if none), where it was boarded and
+        /// where it was left (as positions in the trip's pattern), and when it arrives.
+        private final int[][] rideTrips;
+        private final int[][] rideBoardStops;
+        private final int[][] rideAlightStops;
+        private final int[][] rideArrivals;
+        /// The state each state was walked to from in round `k` (-1 if none).
+        private final int[][] transferSources;
+        /// The first stop of each pattern to scan in the current round (-1 if none), and the
+        /// patterns to scan.
+        private final int[] patternStarts;
+        private final int[] queuedPatterns;
+        /// The stations improved in the previous round, and the states improved by a trip in
+        /// the current round.
+        private final BitSet marked;
+        private final BitSet improvedByRide;
+
+        Query(Coordinates origin, Coordinates destination, LocalDateTime departure) {
+            LocalDate today = departure.toLocalDate();
+            this.origin = origin;
+            this.destination = destination;
+            this.departureSeconds = departure.toLocalTime().toSecondOfDay();
+            this.activeToday = network.calendar.getActiveTrips(today);
+            this.activeYesterday = network.calendar.getActiveTrips(today.minusDays(1));
+
+            Labels scratch = labels.get();
+            this.accessSeconds = scratch.accessSeconds;
+            this.egressSeconds = scratch.egressSeconds;
+            network.walkSecondsToStations(origin, accessSeconds);
+            network.walkSecondsToStations(destination, egressSeconds);
+            this.best = scratch.best;
+            this.arrivals = scratch.arrivals;
+            this.rideTrips = scratch.rideTrips;
+            this.rideBoardStops = scratch.rideBoardStops;
+            this.rideAlightStops = scratch.rideAlightStops;
+            this.rideArrivals = scratch.rideArrivals;
+            this.transferSources = scratch.transferSources;
+            this.patternStarts = scratch.patternStarts;
+            this.queuedPatterns = scratch.queuedPatterns;
+            this.marked = scratch.marked;
+            this.improvedByRide = scratch.improvedByRide;
+        }
+
+        List<BestRoute> run() {
+            Arrays.fill(best, UNREACHED);
+            Arrays.fill(arrivals[0], UNREACHED);
+            Arrays.fill(patternStarts, -1);
+            marked.clear();
+            for (int s = 0; s < stations.length; s++) {
+                if (accessSeconds[s] < 0) continue;
+                int state = s * 2 + (network.stepFree[s] ? 1 : 0);
+                if (stepFreeOnly && (state & 1) == 0) continue;
+                arrivals[0][state] = departureSeconds + accessSeconds[s];
+                best[state] = arrivals[0][state];
+                marked.set(s);
+            }
+
+            // The earliest arrival at the destination of the routes found so far, step-free
+            // (index 1) or not.
+            List<BestRoute> routes = new ArrayList<>();
+            int[] bestDestinationArrivals = {UNREACHED, UNREACHED};
+            int walkOnlySeconds = network.walkOnlySeconds(origin, destination);
+            if (walkOnlySeconds >= 0) {
+                bestDestinationArrivals[1] = departureSeconds + walkOnlySeconds;
+                routes.add(network.walkOnlyRoute(origin, destination, departureSeconds, bestDestinationArrivals[1]));
+            }
+
+            for (int round = 1; round <= MAX_ROUNDS && !marked.isEmpty(); round++) {
+                System.arraycopy(arrivals[round - 1], 0, arrivals[round], 0, arrivals[round].length);
+                Arrays.fill(rideTrips[round], -1);
+                Arrays.fill(transferSources[round], -1);
+
+                // Queue the patterns through the marked stations, from their first marked stop.
+                int queuedCount = 0;
+                for (int s = marked.nextSetBit(0); s >= 0; s = marked.nextSetBit(s + 1)) {
+                    for (int i = network.stationSlotOffsets[s]; i < network.stationSlotOffsets[s + 1]; i++) {
+                        int slot = network.stationSlots[i];
+                        int pattern = network.slotPatterns[slot];
+                        int position = slot - table.getPatternStopOffsets()[pattern];
+                        if (patternStarts[pattern] < 0) queuedPatterns[queuedCount++] = pattern;
+                        if (patternStarts[pattern] < 0 || position < patternStarts[pattern]) {
+                            patternStarts[pattern] = position;
+                        }
+                    }
+                }
+                marked.clear();
+
+                improvedByRide.clear();
+                for (int q = 0; q < queuedCount; q++) {
+                    int pattern = queuedPatterns[q];
+                    scanPattern(round, pattern, patternStarts[pattern], improvedByRide);
+                    patternStarts[pattern] = -1;
+                }
+                for (int state = improvedByRide.nextSetBit(0); state >= 0; state = improvedByRide.nextSetBit(state + 1)) {
+                    marked.set(state >> 1);
+                }
+
+                // The earliest arrival at the destination found in this round, step-free (index
+                // 1) or not: the state it left from, and the walking transfer it walked to the
+                // destination through (-1 if none).
+                int[] roundArrivals = {UNREACHED, UNREACHED};
+                int[] roundStates = {-1, -1};
+                int[] roundVias = {-1, -1};
+                for (int s = 0; s < stations.length; s++) {
+                    if (egressSeconds[s] < 0) continue;
+                    for (int state = s * 2; state <= s * 2 + 1; state++) {
+                        if (rideTrips[round][state] < 0) continue;
+                        // Leaving the station has to be step-free too.
+                        int stepFree = state & (network.stepFree[s] ? 1 : 0);
+                        int arrival = rideArrivals[round][state] + egressSeconds[s];
+                        if (arrival < roundArrivals[stepFree]) {
+                            roundArrivals[stepFree] = arrival;
+                            roundStates[stepFree] = state;
+                            roundVias[stepFree] = -1;
+                        }
+                    }
+                }
+
+                // Walk from the states reached by a trip in this round; the walk is step-free if
+                // both platforms are.
+                for (int state = improvedByRide.nextSetBit(0); state >= 0; state = improvedByRide.nextSetBit(state + 1)) {
+                    int s = state >> 1;
+                    int exitStepFree = state & (network.stepFree[s] ? 1 : 0);
+                    for (int i = network.transferOffsets[s]; i < network.transferOffsets[s + 1]; i++) {
+                        int target = network.transferTargets[i];
+                        int arrival = rideArrivals[round][state] + network.transferSeconds[i];
+
+                        // Walking on to the destination only leaves this station (the walk merely
+                        // passes the other one), so it's checked here rather than from the labels.
+                        if (egressSeconds[target] >= 0
+                                && arrival + egressSeconds[target] < roundArrivals[exitStepFree]) {
+                            roundArrivals[exitStepFree] = arrival + egressSeconds[target];
+                            roundStates[exitStepFree] = state;
+                            roundVias[exitStepFree] = i;
+                        }
+
+                        int stepFree = exitStepFree & (network.stepFree[target] ? 1 : 0);
+                        if (stepFreeOnly && stepFree == 0) continue;
+                        int targetState = target * 2 + stepFree;
+                        if (improve(targetState, arrival)) {
+                            arrivals[round][targetState] = arrival;
+                            transferSources[round][targetState] = state;
+                            marked.set(target);
+                        }
+                    }
+                }
+
+                // Keep this round's routes that aren't dominated by a route with fewer trips, nor
+                // (if not step-free) by a step-free route arriving no later.
+                for (int stepFree = 1; stepFree >= (stepFreeOnly ? 1 : 0); stepFree--) {
+                    int bound = stepFree == 1 ? bestDestinationArrivals[1]
+                            : Math.min(bestDestinationArrivals[0], bestDestinationArrivals[1]);
+                    if (roundArrivals[stepFree] >= bound) continue;
+                    bestDestinationArrivals[stepFree] = roundArrivals[stepFree];
+                    routes.add(buildRoute(round, roundStates[stepFree], roundVias[stepFree]));
+                }
+            }
+            return routes;
+        }
+
+        /**
+         * Improve the label of `state` to `arrival` unless a label of the station is as good.
+         * @return Whether it was improved.
+         */
+        private boolean improve(int state, int arrival) {
+            if (arrival >= best[state] || ((state & 1) == 0 && arrival >= best[state | 1])) return false;
+            best[state] = arrival;
+            return true;
+        }
+
+        /**
+         * Scan one pattern from the stop at `start` with a bag of up to two trips: the earliest
+         * one caught on a step-free route and the earliest one caught on any route.
+         */
+        private void scanPattern(int round, int pattern, int start, BitSet improved) {
+            int first = table.getPatternStopOffsets()[pattern];
+            int length = table.getPatternStopOffsets()[pattern + 1] - first;
+            int[] patternStops = table.getPatternStops();
+            int[] previous = arrivals[round - 1];
+
+            int[] trips = {-1, -1};
+            int[] boardStops = {-1, -1};
+            for (int i = start; i < length; i++) {
+                int station = patternStops[first + i];
+
+                for (int stepFree = 1; stepFree >= 0; stepFree--) {
+                    int trip = trips[stepFree];
+                    if (trip < 0) continue;
+                    int state = station * 2 + stepFree;
+                    int arrival = network.arrivalSeconds(trip, i);
+                    if (improve(state, arrival)) {
+                        arrivals[round][state] = arrival;
+                        rideArrivals[round][state] = arrival;
+                        rideTrips[round][state] = trip;
+                        rideBoardStops[round][state] = boardStops[stepFree];
+                        rideAlightStops[round][state] = i;
+                        transferSources[round][state] = -1;
+                        improved.set(state);
+                    }
+                }
+
+                // Can we catch an earlier trip here?
+                for (int stepFree = 1; stepFree >= 0; stepFree--) {
+                    int time = previous[station * 2 + stepFree];
+                    int trip = trips[stepFree];
+                    if (time == UNREACHED || (trip >= 0 && time > network.departureSeconds(trip, i))) continue;
+                    int found = network.findTrip(pattern, first + i, i, time, activeToday, activeYesterday);
+                    if (found >= 0 && (trip < 0
+                            || network.departureSeconds(found, i) < network.departureSeconds(trip, i))) {
+                        trips[stepFree] = found;
+                        boardStops[stepFree] = i;
+                    }
+                }
+                // The trip of the routes that aren't step-free is no use if it's no earlier.
+                if (trips[0] >= 0 && trips[1] >= 0
+                        && network.departureSeconds(trips[1], i) <= network.departureSeconds(trips[0], i)) {
+                    trips[0] = -1;
+                }
+            }
+        }
+
+        /**
+         * Follow the labels back from `state`, reached by a trip in `round`, and build the route
+         * they describe.
+         * @param via The walking transfer taken to walk past another station to the destination,
+         *            or -1 to walk there directly.
+         */
+        private BestRoute buildRoute(int round, int state, int via) {
+            // Collect the steps from the destination backwards.
+            List<BestRoute.Step> steps = new ArrayList<>();
+            int station = state >> 1;
+            int egressStart = rideArrivals[round][state];
+            if (via >= 0) {
+                int target = network.transferTargets[via];
+                int targetArrival = egressStart + network.transferSeconds[via];
+                steps.add(network.walkStep(stations[target].getCoords(), destination,
+                        targetArrival, targetArrival + egressSeconds[target], "your destination"));
+                steps.add(network.walkStep(stations[station].getCoords(), stations[target].getCoords(),
+                        egressStart, targetArrival, stations[target].getName()));
+            } else {
+                steps.add(network.walkStep(stations[station].getCoords(), destination,
+                        egressStart, egressStart + egressSeconds[station], "your destination"));
+            }
+
+            // The first step back is the trip to `state`.
+            int k = round;
+            boolean rode = false;
+            while (k > 0) {
+                if (rode && transferSources[k][state] >= 0) {
+                    int source = transferSources[k][state];
+                    steps.add(network.walkStep(stations[source >> 1].getCoords(), stations[state >> 1].getCoords(),
+                            rideArrivals[k][source], arrivals[k][state], stations[state >> 1].getName()));
+                    state = source;
+                }
+                rode = true;
+                if (rideTrips[k][state] < 0) {
+                    // The label was carried over from the previous round.
+                    k--;
+                    continue;
+                }
+                int trip = rideTrips[k][state];
+                steps.add(network.transitStep(trip, rideBoardStops[k][state], rideAlightStops[k][state]));
+                // Riding doesn't change whether the route is step-free.
+                state = network.stationAt(trip, rideBoardStops[k][state]) * 2 + (state & 1);
+                k--;
+            }
+            return network.finishRoute(steps, origin, state >> 1, accessSeconds[state >> 1]);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package edu.vassar.cmpu203.myfirstapplication.Model;
+
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * OrdinalDictionary assigns dense integer ordinals (0, 1, 2, ...) to string identifiers, in the
+ * order they're added, and maps between the two.
+ * <p>
+ * GTFS refers to everything by string ids, but once every station, route, trip and service has an
+ * ordinal the rest of the model can refer to them by int and keep them in plain arrays indexed by
+ * ordinal. Lookups use an open-addressing table of ints rather than a `HashMap`, so there's no
+ * boxing and no entry object per id.
+ */
+public class OrdinalDictionary {
+    private String[] ids;
+    private int[] hashes;
+    /// Open-addressing table of `ordinal + 1`; 0 marks an empty slot.
+    private int[] slots;
+    private int size = 0;
+
+    public OrdinalDictionary() {
+        this(16);
+    }
+
+    /**
+     * Constructor for OrdinalDictionary.
+     * @param expectedSize The number of ids expected, to avoid resizing while adding them.
+     */
+    public OrdinalDictionary(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) * 2;
+        ids = new String[Math.max(expectedSize, 8)];
+        hashes = new int[ids.length];
+        slots = new int[capacity];
+    }
+
+    /**
+     * Get the number of ids in the dictionary.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the ordinal of `id`, adding it with the next ordinal if it isn't in the dictionary yet.
+     */
+    public int add(String id) {
+        int hash = mix(id.hashCode());
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0) {
+            int ordinal = slots[slot] - 1;
+            if (hashes[ordinal] == hash && ids[ordinal].equals(id)) return ordinal;
+            slot = (slot + 1) & mask;
+        }
+
+        int ordinal = size++;
+        if (ordinal == ids.length) {
+            ids = Arrays.copyOf(ids, ids.length * 2);
+            hashes = Arrays.copyOf(hashes, ids.length);
+        }
+        ids[ordinal] = id;
+        hashes[ordinal] = hash;
+        slots[slot] = ordinal + 1;
+        // Keep the table at most half full so probe sequences stay short.
+        if (size * 2 > slots.length) rehash();
+        return ordinal;
+    }
+
+    /**
+     * Get the ordinal of `id`.
+     * @return The ordinal, or -1 if `id` isn't in the dictionary.
+     */
+    public int get(@Nullable String id) {
+        if (id == null) return -1;
+        int hash = mix(id.hashCode());
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int ordinal = slots[slot] - 1;
+            if (hashes[ordinal] == hash && ids[ordinal].equals(id)) return ordinal;
+        }
+        return -1;
+    }
+
+    /**
+     * Get the id with the given ordinal.
+     */
+    public String getID(int ordinal) {
+        if (ordinal < 0 || ordinal >= size) {
+            throw new IndexOutOfBoundsException("Ordinal " + ordinal + " of a dictionary with " + size + " ids");
+        }
+        return ids[ordinal];
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            int slot = hashes[ordinal] & mask;
+            while (slots[slot] != 0) slot = (slot + 1) & mask;
+            slots[slot] = ordinal + 1;
+        }
+    }
+
+    /// Spread the bits of `String.hashCode`, which are weak in the low bits for short ids like
+    /// "101N", so that linear probing doesn't cluster.
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,228 @@
+package edu.vassar.cmpu203.myfirstapplication.Controller;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import edu.vassar.cmpu203.myfirstapplication.Model.BestRoute;
+import edu.vassar.cmpu203.myfirstapplication.Model.Coordinates;
+import edu.vassar.cmpu203.myfirstapplication.Model.GTFSData;
+import edu.vassar.cmpu203.myfirstapplication.Model.ServiceCalendar;
+
+/**
+ * PlannerBenchmark compares the local routing engines (`JourneyPlanner.Engine`) on the same set
+ * of random queries: how long each takes per query and whether they agree on the earliest arrival.
+ * It also measures how the throughput of `JourneyPlanner.planAll` scales with the number of
+ * threads.
+ * <p>
+ * Run it on a desktop JVM with the directory of a GTFS feed:
+ * <pre>
+ *   java ...Controller.PlannerBenchmark path/to/gtfs [queries] [seed]
+ * </pre>
+ */
+public class PlannerBenchmark {
+    /// Queries run before timing, so the JIT has compiled the planners.
+    private static final int WARM_UP_QUERIES = 200;
+
+    /**
+     * The timings of one engine, in milliseconds per query.
+     */
+    public record Timings(double mean, double median, double p95, double max) {
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "mean %.2f ms, median %.2f ms, p95 %.2f ms, max %.2f ms",
+                    mean, median, p95, max);
+        }
+    }
+
+    /**
+     * The result of a benchmark.
+     * @param timings The timings of each engine.
+     * @param agreements The number of queries where all engines found the same earliest arrival
+     *                   (except `STEP_FREE_ONLY`, which is constrained).
+     * @param queryCount The number of queries.
+     */
+    public record Result(Map<JourneyPlanner.Engine, Timings> timings, int agreements, int queryCount) {}
+
+    /**
+     * The throughput of `planAll` with some number of threads.
+     * @param speedup The throughput relative to one thread.
+     */
+    public record Throughput(int threads, double queriesPerSecond, double speedup) {
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d threads: %.0f queries/s (x%.2f)",
+                    threads, queriesPerSecond, speedup);
+        }
+    }
+
+    /**
+     * Create `count` random queries between served stations of `data` (moved by up to a few
+     * hundred meters, like real addresses), departing between 6:00 and 22:00 on `date`.
+     */
+    public static List<JourneyPlanner.Request> randomQueries(GTFSData data, LocalDate date, int count, long seed) {
+        PlannerNetwork network = new PlannerNetwork(data);
+        List<Coordinates> stations = new ArrayList<>();
+        for (int s = 0; s < network.stations.length; s++) {
+            if (network.served[s]) stations.add(network.stations[s].getCoords());
+        }
+        if (stations.isEmpty()) {
+            throw new IllegalArgumentException("The GTFS data has no stations with stop times");
+        }
+
+        Random random = new Random(seed);
+        List<JourneyPlanner.Request> queries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            queries.add(new JourneyPlanner.Request(
+                    jitter(stations.get(random.nextInt(stations.size())), random),
+                    jitter(stations.get(random.nextInt(stations.size())), random),
+                    date.atStartOfDay().plusSeconds(6 * 3600 + random.nextInt(16 * 3600))));
+        }
+        return queries;
+    }
+
+    private static Coordinates jitter(Coordinates coords, Random random) {
+        // Up to about 300 m in each direction.
+        return new Coordinates(coords.getLatitude() + (random.nextDouble() - 0.5) * 0.0054,
+                coords.getLongitude() + (random.nextDouble() - 0.5) * 0.0072);
+    }
+
+    /**
+     * Run every engine on the same queries.
+     */
+    public static Result run(GTFSData data, List<JourneyPlanner.Request> queries) {
+        PlannerNetwork network = new PlannerNetwork(data);
+        Map<JourneyPlanner.Engine, Timings> timings = new EnumMap<>(JourneyPlanner.Engine.class);
+        Map<JourneyPlanner.Engine, int[]> earliestArrivals = new EnumMap<>(JourneyPlanner.Engine.class);
+
+        for (JourneyPlanner.Engine engine : JourneyPlanner.Engine.values()) {
+            JourneyPlanner planner = engine.create(network);
+            for (int i = 0; i < Math.min(WARM_UP_QUERIES, queries.size()); i++) {
+                JourneyPlanner.Request query = queries.get(i);
+                planner.plan(query.origin(), query.destination(), query.departure());
+            }
+
+            double[] millis = new double[queries.size()];
+            int[] arrivals = new int[queries.size()];
+            for (int i = 0; i < queries.size(); i++) {
+                JourneyPlanner.Request query = queries.get(i);
+                long start = System.nanoTime();
+                List<BestRoute> routes = planner.plan(query.origin(), query.destination(), query.departure());
+                millis[i] = (System.nanoTime() - start) / 1e6;
+                arrivals[i] = earliestArrival(routes);
+            }
+            timings.put(engine, timings(millis));
+            earliestArrivals.put(engine, arrivals);
+        }
+
+        int agreements = 0;
+        for (int i = 0; i < queries.size(); i++) {
+            int arrival = earliestArrivals.get(JourneyPlanner.Engine.RAPTOR)[i];
+            boolean agree = true;
+            for (Map.Entry<JourneyPlanner.Engine, int[]> entry : earliestArrivals.entrySet()) {
+                // Step-free routes may well arrive later.
+                if (entry.getKey() == JourneyPlanner.Engine.STEP_FREE_ONLY) continue;
+                agree &= entry.getValue()[i] == arrival;
+            }
+            if (agree) agreements++;
+        }
+        return new Result(timings, agreements, queries.size());
+    }
+
+    /**
+     * Run `engine` on all `queries` with `planAll` on 1, 2, 4... threads, up to `maxThreads`.
+     */
+    public static List<Throughput> runParallel(GTFSData data, List<JourneyPlanner.Request> queries,
+                                               JourneyPlanner.Engine engine, int maxThreads) {
+        JourneyPlanner planner = engine.create(new PlannerNetwork(data));
+        List<Throughput> throughputs = new ArrayList<>();
+        double singleThreaded = 0;
+        for (int threads = 1; ; threads = Math.min(maxThreads, threads * 2)) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                // Warm up the JIT and the labels of every thread.
+                planner.planAll(queries.subList(0, Math.min(WARM_UP_QUERIES, queries.size())), executor);
+                long start = System.nanoTime();
+                planner.planAll(queries, executor);
+                double queriesPerSecond = queries.size() / ((System.nanoTime() - start) / 1e9);
+                if (threads == 1) singleThreaded = queriesPerSecond;
+                throughputs.add(new Throughput(threads, queriesPerSecond, queriesPerSecond / singleThreaded));
+            } finally {
+                executor.shutdown();
+            }
+            if (threads >= maxThreads) break;
+        }
+        return throughputs;
+    }
+
+    private static int earliestArrival(List<BestRoute> routes) {
+        int earliest = -1;
+        for (BestRoute route : routes) {
+            int arrival = route.getArrivalTime().toSeconds();
+            if (earliest < 0 || arrival < earliest) earliest = arrival;
+        }
+        return earliest;
+    }
+
+    private static Timings timings(double[] millis) {
+        if (millis.length == 0) return new Timings(0, 0, 0, 0);
+        double[] sorted = millis.clone();
+        Arrays.sort(sorted);
+        double total = 0;
+        for (double value : sorted) total += value;
+        return new Timings(total / sorted.length, sorted[sorted.length / 2],
+                sorted[(int) Math.min(sorted.length - 1, Math.ceil(sorted.length * 0.95) - 1)],
+                sorted[sorted.length - 1]);
+    }
+
+    /**
+     * Get the day in the first week of the calendar on which the most trips run.
+     */
+    public static LocalDate busiestDay(GTFSData data) {
+        ServiceCalendar calendar = data.getServiceCalendar();
+        LocalDate busiest = calendar.getFirstDay();
+        int mostTrips = -1;
+        for (int day = 0; day < Math.min(7, calendar.getDayCount()); day++) {
+            LocalDate date = calendar.getFirstDay().plusDays(day);
+            int trips = calendar.getActiveTrips(date).cardinality();
+            if (trips > mostTrips) {
+                mostTrips = trips;
+                busiest = date;
+            }
+        }
+        return busiest;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: PlannerBenchmark <gtfs directory> <station list csv> [queries] [seed]");
+            return;
+        }
+        int queryCount = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+
+        GTFSData data = GTFSLoaderSync.loadSync(
+                GTFSLoaderSync.directorySource(new File(args[0]), new File(args[1])));
+        LocalDate date = busiestDay(data);
+        List<JourneyPlanner.Request> queries = randomQueries(data, date, queryCount, seed);
+        Result result = run(data, queries);
+
+        System.out.println("Planner benchmark: " + result.queryCount() + " queries on " + date);
+        result.timings().forEach((engine, timings) -> System.out.println("  " + engine + ": " + timings));
+        System.out.println("  Same earliest arrival: " + result.agreements() + "/" + result.queryCount());
+
+        JourneyPlanner.Engine engine = JourneyPlanner.Engine.RAPTOR;
+        System.out.println(engine + " throughput:");
+        for (Throughput throughput : runParallel(data, queries, engine, Runtime.getRuntime().availableProcessors())) {
+            System.out.println("  " + throughput);
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package edu.vassar.cmpu203.myfirstapplication.Controller;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import edu.vassar.cmpu203.myfirstapplication.Model.BestRoute;
+import edu.vassar.cmpu203.myfirstapplication.Model.ClockTime;
+import edu.vassar.cmpu203.myfirstapplication.Model.Coordinates;
+import edu.vassar.cmpu203.myfirstapplication.Model.GTFSData;
+import edu.vassar.cmpu203.myfirstapplication.Model.Polyline;
+import edu.vassar.cmpu203.myfirstapplication.Model.ServiceCalendar;
+import edu.vassar.cmpu203.myfirstapplication.Model.StationDetails;
+import edu.vassar.cmpu203.myfirstapplication.Model.StopTimeTable;
+import edu.vassar.cmpu203.myfirstapplication.Model.TransferGraph;
+import edu.vassar.cmpu203.myfirstapplication.Model.TransitTrip;
+
+/**
+ * The parts of routing that don't depend on the algorithm, shared by the `JourneyPlanner`s: the
+ * timetable and the stop patterns through each station, the walking transfers between stations,
+ * walking to and from stations, and building the `BestRoute` steps of a journey.
+ * <p>
+ * Trips are referred to as `trip * 2 + 1` when they run on the previous service day (their times
+ * are then `ClockTime.SECONDS_PER_DAY` earlier in today's terms) and `trip * 2` otherwise, where
+ * `trip` is the trip's index in the `StopTimeTable`.
+ */
+class PlannerNetwork {
+    /// How far we walk to the first station and from the last one.
+    static final double MAX_ACCESS_METERS = 1000;
+    /// Routes that only walk are offered up to this distance.
+    static final double MAX_WALK_ONLY_METERS = 2000;
+    static final int UNREACHED = Integer.MAX_VALUE;
+
+    final StopTimeTable table;
+    final StationDetails[] stations;
+    final ServiceCalendar calendar;
+    /// The `TransitTrip` of each trip in `table`; null for trips that weren't loaded.
+    final TransitTrip[] trips;
+    /// Whether any trip stops at each station.
+    final boolean[] served;
+    /// The walking transfers out of each station (see `TransferGraph`):
+    /// `transferTargets[transferOffsets[s]]` up to (excluding) `transferTargets[transferOffsets[s + 1]]`.
+    final int[] transferOffsets;
+    final int[] transferTargets;
+    final int[] transferSeconds;
+    /// The pattern of each pattern stop ("slot": an index into `table.getPatternStops()`).
+    final int[] slotPatterns;
+    /// The earliest and latest departure offset of the trips of a pattern at each slot.
+    final int[] slotMinDepartures;
+    final int[] slotMaxDepartures;
+    /// The slots of each station: `stationSlots[stationSlotOffsets[s]]` up to (excluding)
+    /// `stationSlots[stationSlotOffsets[s + 1]]`.
+    final int[] stationSlotOffsets;
+    final int[] stationSlots;
+    /// Whether each station can be entered, left or transferred at without stairs.
+    final boolean[] stepFree;
+
+    PlannerNetwork(GTFSData data) {
+        this.table = data.getStopTimes();
+        this.stations = table.getStations();
+        this.calendar = data.getServiceCalendar();
+
+        this.trips = new TransitTrip[table.getTripCount()];
+        for (TransitTrip trip : data.getTrips()) {
+            int index = trip.getDepartures().getTripIndex();
+            if (index >= 0) trips[index] = trip;
+        }
+
+        this.served = new boolean[stations.length];
+        for (int stop : table.getPatternStops()) served[stop] = true;
+
+        TransferGraph transfers = data.getTransfers();
+        this.transferOffsets = transfers.getOffsets();
+        this.transferTargets = transfers.getTargets();
+        this.transferSeconds = transfers.getSeconds();
+
+        // Pattern of each slot and the departure range of each slot.
+        int[] patternStopOffsets = table.getPatternStopOffsets();
+        int[] patternStops = table.getPatternStops();
+        int[] patternTripOffsets = table.getPatternTripOffsets();
+        int[] patternTrips = table.getPatternTrips();
+        int[] tripProfiles = table.getTripProfiles();
+        int[] profileOffsets = table.getProfileOffsets();
+        int[] profileDepartures = table.getProfileDepartures();
+        slotPatterns = new int[patternStops.length];
+        slotMinDepartures = new int[patternStops.length];
+        slotMaxDepartures = new int[patternStops.length];
+        Arrays.fill(slotMinDepartures, UNREACHED);
+        for (int pattern = 0; pattern < table.getPatternCount(); pattern++) {
+            int first = patternStopOffsets[pattern];
+            int length = patternStopOffsets[pattern + 1] - first;
+            for (int i = 0; i < length; i++) slotPatterns[first + i] = pattern;
+            for (int t = patternTripOffsets[pattern]; t < patternTripOffsets[pattern + 1]; t++) {
+                int profileStart = profileOffsets[tripProfiles[patternTrips[t]]];
+                for (int i = 0; i < length; i++) {
+                    int departure = profileDepartures[profileStart + i];
+                    slotMinDepartures[first + i] = Math.min(slotMinDepartures[first + i], departure);
+                    slotMaxDepartures[first + i] = Math.max(slotMaxDepartures[first + i], departure);
+                }
+            }
+        }
+
+        // Slots of each station (counting sort by station).
+        stationSlotOffsets = new int[stations.length + 1];
+        for (int stop : patternStops) stationSlotOffsets[stop + 1]++;
+        for (int s = 0; s < stations.length; s++) stationSlotOffsets[s + 1] += stationSlotOffsets[s];
+        stationSlots = new int[patternStops.length];
+        int[] nextSlot = Arrays.copyOf(stationSlotOffsets, stations.length);
+        for (int slot = 0; slot < patternStops.length; slot++) stationSlots[nextSlot[patternStops[slot]]++] = slot;
+
+        this.stepFree = new boolean[stations.length];
+        for (int s = 0; s < stations.length; s++) stepFree[s] = stations[s].isStepFree();
+    }
+
+    static int walkSeconds(double meters) {
+        return TransferGraph.walkSeconds(meters);
+    }
+
+    /**
+     * Get the walking time between `point` and every served station into `seconds` (reused from
+     * one query to the next): the seconds for each station, or -1 for stations farther than
+     * `MAX_ACCESS_METERS`.
+     */
+    void walkSecondsToStations(Coordinates point, int[] seconds) {
+        for (int s = 0; s < stations.length; s++) {
+            seconds[s] = -1;
+            if (!served[s]) continue;
+            double meters = Coordinates.distanceInKm(point, stations[s].getCoords()) * 1000;
+            if (meters <= MAX_ACCESS_METERS) seconds[s] = walkSeconds(meters);
+        }
+    }
+
+    /**
+     * Get the seconds it takes to walk from `origin` to `destination` if it's close enough to
+     * offer a route that only walks, or -1.
+     */
+    int walkOnlySeconds(Coordinates origin, Coordinates destination) {
+        double meters = Coordinates.distanceInKm(origin, destination) * 1000;
+        return meters <= MAX_WALK_ONLY_METERS ? walkSeconds(meters) : -1;
+    }
+
+    /**
+     * Check whether a trip runs, given the trips running today and yesterday.
+     */
+    boolean isActive(int trip, BitSet activeToday, BitSet activeYesterday) {
+        TransitTrip transitTrip = trips[trip >> 1];
+        return transitTrip != null
+                && ((trip & 1) == 0 ? activeToday : activeYesterday).get(transitTrip.getOrdinal());
+    }
+
+    /**
+     * Find the trip of `pattern` departing earliest from its `position`th stop (`slot`) at or
+     * after `time`, on today's or yesterday's service.
+     * @return The trip, or -1 if there's none.
+     */
+    int findTrip(int pattern, int slot, int position, int time, BitSet activeToday, BitSet activeYesterday) {
+        int[] patternTripOffsets = table.getPatternTripOffsets();
+        int[] patternTrips = table.getPatternTrips();
+        int[] tripStartSeconds = table.getTripStartSeconds();
+        int foundTrip = -1;
+        int foundDeparture = UNREACHED;
+        for (int shift = 0; shift <= 1; shift++) {
+            int dayOffset = shift * ClockTime.SECONDS_PER_DAY;
+            int target = time + dayOffset;
+
+            // Trips are sorted by start; no trip starting before this can depart in time.
+            int low = patternTripOffsets[pattern];
+            int high = patternTripOffsets[pattern + 1];
+            int earliestStart = target - slotMaxDepartures[slot];
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (tripStartSeconds[patternTrips[middle]] < earliestStart) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            for (int t = low; t < patternTripOffsets[pattern + 1]; t++) {
+                int candidate = patternTrips[t] * 2 + shift;
+                // No later trip can depart before the best one found.
+                if (tripStartSeconds[patternTrips[t]] + slotMinDepartures[slot] - dayOffset >= foundDeparture) break;
+                if (!isActive(candidate, activeToday, activeYesterday)) continue;
+                int departure = departureSeconds(candidate, position);
+                if (departure >= time && departure < foundDeparture) {
+                    foundTrip = candidate;
+                    foundDeparture = departure;
+                }
+            }
+        }
+        return foundTrip;
+    }
+
+    int arrivalSeconds(int trip, int position) {
+        int index = trip >> 1;
+        return table.getTripStartSeconds()[index]
+                + table.getProfileArrivals()[table.getProfileOffsets()[table.getTripProfiles()[index]] + position]
+                - (trip & 1) * ClockTime.SECONDS_PER_DAY;
+    }
+
+    int departureSeconds(int trip, int position) {
+        int index = trip >> 1;
+        return table.getTripStartSeconds()[index]
+                + table.getProfileDepartures()[table.getProfileOffsets()[table.getTripProfiles()[index]] + position]
+                - (trip & 1) * ClockTime.SECONDS_PER_DAY;
+    }
+
+    /**
+     * Get the station of a trip's `position`th stop.
+     */
+    int stationAt(int trip, int position) {
+        int pattern = table.getTripPatterns()[trip >> 1];
+        return table.getPatternStops()[table.getPatternStopOffsets()[pattern] + position];
+    }
+
+    /**
+     * Build the step riding `trip` from its `boardStop`th stop to its `alightStop`th stop.
+     */
+    BestRoute.TransitStep transitStep(int trip, int boardStop, int alightStop) {
+        List<StationDetails> stops = new ArrayList<>(alightStop - boardStop + 1);
+        double[] geometry = new double[(alightStop - boardStop + 1) * 2];
+        for (int i = boardStop; i <= alightStop; i++) {
+            StationDetails stop = stations[stationAt(trip, i)];
+            stops.add(stop);
+            geometry[(i - boardStop) * 2] = stop.getCoords().getLatitude();
+            geometry[(i - boardStop) * 2 + 1] = stop.getCoords().getLongitude();
+        }
+        TransitTrip transitTrip = trips[trip >> 1];
+        return new BestRoute.TransitStep(Polyline.of(geometry),
+                ClockTime.ofSeconds(departureSeconds(trip, boardStop)),
+                ClockTime.ofSeconds(arrivalSeconds(trip, alightStop)),
+                stops, transitTrip, transitTrip.getParentRoute());
+    }
+
+    /**
+     * Build a walking step.
+     * @param toName The name of where the walk ends, e.g. a station's.
+     */
+    BestRoute.WalkStep walkStep(Coordinates from, Coordinates to, int departure, int arrival, String toName) {
+        Polyline geometry = Polyline.of(new double[] {
+                from.getLatitude(), from.getLongitude(), to.getLatitude(), to.getLongitude()});
+        List<BestRoute.WalkInstruction> instructions = new ArrayList<>(1);
+        instructions.add(new BestRoute.WalkInstruction(
+                "Walk to " + toName, "", BestRoute.InstructionSign.CONTINUE_ON_STREET));
+        return new BestRoute.WalkStep(geometry,
+                ClockTime.ofSeconds(departure), ClockTime.ofSeconds(arrival), instructions);
+    }
+
+    /**
+     * Build a route that only walks from `origin` to `destination`.
+     */
+    BestRoute walkOnlyRoute(Coordinates origin, Coordinates destination, int departure, int arrival) {
+        List<BestRoute.Step> steps = new ArrayList<>(1);
+        steps.add(walkStep(origin, destination, departure, arrival, "your destination"));
+        return new BestRoute(ClockTime.ofSeconds(departure), ClockTime.ofSeconds(arrival), steps);
+    }
+
+    /**
+     * Build a route from its steps, given from the destination backwards, adding the walk from
+     * `origin` to the first station so the user leaves just in time to catch the first trip.
+     * @param reversedSteps The steps from the last one to the first ride; reversed in place.
+     * @param firstStation The station of the first ride.
+     * @param accessSeconds The walking time from `origin` to `firstStation`.
+     */
+    BestRoute finishRoute(List<BestRoute.Step> reversedSteps, Coordinates origin,
+                          int firstStation, int accessSeconds) {
+        int boarding = reversedSteps.get(reversedSteps.size() - 1).getDepartureTime().toSeconds();
+        reversedSteps.add(walkStep(origin, stations[firstStation].getCoords(),
+                boarding - accessSeconds, boarding, stations[firstStation].getName()));
+        Collections.reverse(reversedSteps);
+        return new BestRoute(reversedSteps.get(0).getDepartureTime(),
+                reversedSteps.get(reversedSteps.size() - 1).getArrivalTime(), reversedSteps);
+    }
+}
@@ -0,0 +1,130 @@
+package edu.vassar.cmpu203.myfirstapplication.Model;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Polyline is a line of points kept in one array of primitives (latitude, longitude, latitude,
+ * ...) rather than as `Coordinates`, e.g. the geometry of a `BestRoute.Step`. It's still a list of
+ * `Coordinates` for the code that reads it as one; they are created as they are read.
+ * <p>
+ * Polylines can be decoded from the "encoded polyline" format that GraphHopper (like Google) uses
+ * for `points_encoded=true`: each coordinate is the difference from the previous point's, times
+ * a multiplier, as a zigzag-encoded variable-length integer in base-64 characters.
+ */
+public final class Polyline extends AbstractList<Coordinates> implements RandomAccess, java.io.Serializable {
+    /// The multiplier of encoded polylines, unless the server says otherwise; 5 decimal places.
+    public static final double DEFAULT_MULTIPLIER = 1e5;
+    public static final Polyline EMPTY = new Polyline(new double[0]);
+
+    /// The points, interleaved: latitude, longitude, latitude, ...
+    private final double[] points;
+
+    private Polyline(double[] points) {
+        this.points = points;
+    }
+
+    /**
+     * Get the polyline of interleaved points (latitude, longitude, latitude, ...). The array is
+     * used as it is, not copied, so it must not be changed afterwards.
+     */
+    public static Polyline of(double[] points) {
+        if (points.length % 2 != 0) {
+            throw new IllegalArgumentException("Odd number of coordinates: " + points.length);
+        }
+        return new Polyline(points);
+    }
+
+    /**
+     * Get the polyline of a list of coordinates; the list itself if it's already a polyline.
+     */
+    public static Polyline of(List<Coordinates> coordinates) {
+        if (coordinates instanceof Polyline polyline) return polyline;
+        double[] points = new double[coordinates.size() * 2];
+        for (int i = 0; i < coordinates.size(); i++) {
+            Coordinates point = coordinates.get(i);
+            points[i * 2] = point.getLatitude();
+            points[i * 2 + 1] = point.getLongitude();
+        }
+        return new Polyline(points);
+    }
+
+    /**
+     * Decode an encoded polyline of latitude and longitude pairs (without elevation).
+     * @param multiplier What the coordinates were multiplied by before being rounded, usually
+     *                   `DEFAULT_MULTIPLIER`.
+     * @throws IllegalArgumentException If the polyline is cut short.
+     */
+    public static Polyline decode(String encoded, double multiplier) {
+        int length = encoded.length();
+        // Each coordinate takes at least one character, so there are at most `length` of them.
+        double[] points = new double[length + 1];
+        int count = 0;
+        int index = 0;
+        int latitude = 0;
+        int longitude = 0;
+        while (index < length) {
+            for (int coordinate = 0; coordinate < 2; coordinate++) {
+                int value = 0;
+                int shift = 0;
+                int chunk;
+                do {
+                    if (index == length) {
+                        throw new IllegalArgumentException("Encoded polyline cut short at " + index);
+                    }
+                    chunk = encoded.charAt(index++) - 63;
+                    value |= (chunk & 0x1f) << shift;
+                    shift += 5;
+                } while (chunk >= 0x20);
+                // Undo the zigzag encoding of the sign.
+                int delta = (value >>> 1) ^ -(value & 1);
+                if (coordinate == 0) {
+                    latitude += delta;
+                    points[count++] = latitude / multiplier;
+                } else {
+                    longitude += delta;
+                    points[count++] = longitude / multiplier;
+                }
+            }
+        }
+        return new Polyline(Arrays.copyOf(points, count));
+    }
+
+    /**
+     * Get the number of points.
+     */
+    public int getPointCount() {
+        return points.length / 2;
+    }
+
+    public double getLatitude(int index) {
+        return points[index * 2];
+    }
+
+    public double getLongitude(int index) {
+        return points[index * 2 + 1];
+    }
+
+    /**
+     * Get the points, interleaved: latitude, longitude, latitude, ... The array is not copied, so
+     * it must not be changed.
+     */
+    public double[] getPoints() {
+        return points;
+    }
+
+    @Override
+    public Coordinates get(int index) {
+        if (index < 0 || index >= getPointCount()) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of " + getPointCount());
+        }
+        return new Coordinates(points[index * 2], points[index * 2 + 1]);
+    }
+
+    @Override
+    public int size() {
+        return getPointCount();
+    }
+}
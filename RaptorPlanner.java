@@ -0,0 +1,479 @@
+package edu.vassar.cmpu203.myfirstapplication.Controller;
+
+import static edu.vassar.cmpu203.myfirstapplication.Controller.PlannerNetwork.UNREACHED;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import edu.vassar.cmpu203.myfirstapplication.Model.BestRoute;
+import edu.vassar.cmpu203.myfirstapplication.Model.Coordinates;
+import edu.vassar.cmpu203.myfirstapplication.Model.GTFSData;
+import edu.vassar.cmpu203.myfirstapplication.Model.StationDetails;
+import edu.vassar.cmpu203.myfirstapplication.Model.StopTimeTable;
+
+/**
+ * RaptorPlanner finds public-transit routes on the device, straight from the loaded `GTFSData`,
+ * using RAPTOR (Round-bAsed Public Transit Optimized Router, Delling et al.).
+ * <p>
+ * RAPTOR works in rounds: round `k` finds the earliest arrival at every station using at most `k`
+ * trips. Each round scans the stop patterns (see `TripPattern`) through the stations improved in
+ * the previous round, boarding the earliest trip that can be caught, and then relaxes the walking
+ * transfers out of the stations improved by a trip. The result is one route per number of trips
+ * that arrives earlier than every route with fewer trips (the Pareto set of arrival time and
+ * transfers), like the several paths the routing server returns.
+ * <p>
+ * Everything the rounds need (the patterns through each station, the earliest and latest
+ * departure of each pattern stop) is computed once in the `PlannerNetwork`, and the per-round
+ * labels are allocated once per thread and reset by each query, so a query allocates nothing but
+ * the routes it finds. Queries can run on several threads at once, and a range query can split
+ * its departures across threads (see `planRange`).
+ */
+public class RaptorPlanner implements JourneyPlanner {
+    /// At most this many trips per route (so at most `MAX_ROUNDS - 1` transfers).
+    private static final int MAX_ROUNDS = 5;
+    /// A parallel range query gives each thread at least this many departures.
+    private static final int MIN_RANGE_CHUNK = 4;
+
+    private final PlannerNetwork network;
+    private final StopTimeTable table;
+    private final StationDetails[] stations;
+    /// The labels of the queries running on each thread, reused from one query to the next.
+    private final ThreadLocal<Labels> labels = ThreadLocal.withInitial(Labels::new);
+
+    /**
+     * Constructor for RaptorPlanner. Indexes `data` for routing; takes a few milliseconds for a
+     * city's subway, so build one planner per `GTFSData` and reuse it.
+     */
+    public RaptorPlanner(GTFSData data) {
+        this(new PlannerNetwork(data));
+    }
+
+    RaptorPlanner(PlannerNetwork network) {
+        this.network = network;
+        this.table = network.table;
+        this.stations = network.stations;
+    }
+
+    /**
+     * Find the earliest arriving route for each number of trips, fewest trips first, plus a
+     * walking route if the destination is close enough.
+     */
+    @Override
+    public List<BestRoute> plan(Coordinates origin, Coordinates destination, LocalDateTime departure) {
+        Query query = new Query(origin, destination, departure);
+        int departureSeconds = query.firstDeparture;
+        int[] bestArrivals = new int[MAX_ROUNDS + 1];
+        Arrays.fill(bestArrivals, UNREACHED);
+
+        List<BestRoute> routes = new ArrayList<>();
+        int walkOnlySeconds = network.walkOnlySeconds(origin, destination);
+        if (walkOnlySeconds >= 0) {
+            routes.add(network.walkOnlyRoute(origin, destination, departureSeconds,
+                    departureSeconds + walkOnlySeconds));
+        }
+        query.search(departureSeconds);
+        query.collectRoutes(departureSeconds, walkOnlySeconds, bestArrivals, routes);
+        return routes;
+    }
+
+    /**
+     * Find every route departing within `windowSeconds` after `departure` that no other route
+     * beats, i.e. departs no earlier, arrives no later and takes no more trips (a range or
+     * "profile" query), sorted by departure; plus a walking route if the destination is close
+     * enough.
+     * <p>
+     * This is rRAPTOR: the departures within the window are searched from the latest to the
+     * earliest, keeping the labels of the later departures (an arrival reachable by leaving later
+     * is reachable by leaving earlier and waiting), so each departure only scans what it improves
+     * rather than running a whole query.
+     */
+    public List<BestRoute> planRange(Coordinates origin, Coordinates destination,
+                                     LocalDateTime departure, int windowSeconds) {
+        return planRange(origin, destination, departure, windowSeconds, 1, Runnable::run);
+    }
+
+    /**
+     * Like `planRange`, but split the departures into up to `parallelism` consecutive chunks that
+     * are searched in parallel on `executor`, each with rRAPTOR from its own labels. The routes of
+     * each chunk are then checked against those of the later chunks, so the result is the same;
+     * every chunk but the last starts with a whole query, which is the price of the parallelism.
+     * Blocks until every chunk is done; see `planRangeAsync` to not block.
+     */
+    public List<BestRoute> planRange(Coordinates origin, Coordinates destination, LocalDateTime departure,
+                                     int windowSeconds, int parallelism, Executor executor) {
+        try {
+            return planRangeAsync(origin, destination, departure, windowSeconds, parallelism, executor).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Like the parallel `planRange`, but without blocking: the routes are merged once the last
+     * chunk is done. Cancelling the returned future stops the chunks at their next departure, so
+     * an abandoned query doesn't keep `executor` busy.
+     */
+    public CompletableFuture<List<BestRoute>> planRangeAsync(Coordinates origin, Coordinates destination,
+                                                             LocalDateTime departure, int windowSeconds,
+                                                             int parallelism, Executor executor) {
+        Query query = new Query(origin, destination, departure);
+        int windowEnd = query.firstDeparture + windowSeconds;
+        int[] departures = query.departuresFromOrigin(windowEnd);
+        int walkOnlySeconds = network.walkOnlySeconds(origin, destination);
+        CompletableFuture<List<BestRoute>> result = new CompletableFuture<>();
+
+        // Each chunk gets at least a few departures, or the whole queries would dominate.
+        int chunkCount = Math.max(1, Math.min(parallelism, departures.length / MIN_RANGE_CHUNK));
+        List<CompletableFuture<List<BestRoute>>> chunks = new ArrayList<>(chunkCount);
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            int from = (int) ((long) departures.length * chunk / chunkCount);
+            int to = (int) ((long) departures.length * (chunk + 1) / chunkCount);
+            chunks.add(CompletableFuture.supplyAsync(() -> {
+                // The labels of this thread, which may be the one of `query` (it's done with them).
+                Query chunkQuery = new Query(origin, destination, departure);
+                int[] bestArrivals = new int[MAX_ROUNDS + 1];
+                Arrays.fill(bestArrivals, UNREACHED);
+                List<BestRoute> chunkRoutes = new ArrayList<>();
+                for (int i = to - 1; i >= from; i--) {
+                    // Stop if nobody is waiting for the routes anymore.
+                    if (result.isDone()) throw new CancellationException();
+                    chunkQuery.search(departures[i]);
+                    chunkQuery.collectRoutes(departures[i], walkOnlySeconds, bestArrivals, chunkRoutes);
+                }
+                return chunkRoutes;
+            }, executor));
+        }
+
+        CompletableFuture.allOf(chunks.toArray(new CompletableFuture[0])).whenComplete((done, error) -> {
+            if (error != null) {
+                result.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+                return;
+            }
+            List<BestRoute> routes = new ArrayList<>();
+            if (walkOnlySeconds >= 0) {
+                routes.add(network.walkOnlyRoute(origin, destination, query.firstDeparture,
+                        query.firstDeparture + walkOnlySeconds));
+            }
+            // Keep the routes of each chunk that arrive earlier than every route with as many
+            // trips or fewer of the later chunks, which is what searching them all in one go
+            // keeps. (The routes of round `k` take exactly `k` trips.)
+            int[] bestArrivals = new int[MAX_ROUNDS + 1];
+            Arrays.fill(bestArrivals, UNREACHED);
+            for (int chunk = chunkCount - 1; chunk >= 0; chunk--) {
+                for (BestRoute route : chunks.get(chunk).join()) {
+                    int trips = 0;
+                    for (BestRoute.Step step : route.getSteps()) {
+                        if (step instanceof BestRoute.TransitStep) trips++;
+                    }
+                    int arrival = route.getArrivalTime().toSeconds();
+                    int bound = UNREACHED;
+                    for (int round = 1; round <= trips; round++) bound = Math.min(bound, bestArrivals[round]);
+                    if (arrival >= bound) continue;
+                    bestArrivals[trips] = arrival;
+                    routes.add(route);
+                }
+            }
+
+            // Routes found from the last departures may leave after the window; they're still
+            // the best ones from there, so they were allowed to beat earlier routes, but aren't
+            // shown.
+            routes.removeIf(route -> route.getDepartureTime().toSeconds() > windowEnd);
+            // Stable, so routes leaving at the same time stay fewest trips first.
+            routes.sort(Comparator.comparingInt(route -> route.getDepartureTime().toSeconds()));
+            result.complete(routes);
+        });
+        return result;
+    }
+
+    /**
+     * The labels of the queries of one thread, allocated once and reset by each query.
+     */
+    private class Labels {
+        private final int[] accessSeconds = new int[stations.length];
+        private final int[] egressSeconds = new int[stations.length];
+        private final int[][] arrivals = new int[MAX_ROUNDS + 1][stations.length];
+        private final int[][] rideTrips = new int[MAX_ROUNDS + 1][stations.length];
+        private final int[][] rideBoardStops = new int[MAX_ROUNDS + 1][stations.length];
+        private final int[][] rideAlightStops = new int[MAX_ROUNDS + 1][stations.length];
+        private final int[][] rideArrivals = new int[MAX_ROUNDS + 1][stations.length];
+        private final int[][] transferSources = new int[MAX_ROUNDS + 1][stations.length];
+        private final int[] patternStarts = new int[table.getPatternCount()];
+        private final int[] queuedPatterns = new int[table.getPatternCount()];
+        private final BitSet marked = new BitSet(stations.length);
+        private final BitSet improvedByRide = new BitSet(stations.length);
+
+        /**
+         * Reset the labels for a new query.
+         */
+        void reset() {
+            for (int round = 0; round <= MAX_ROUNDS; round++) {
+                Arrays.fill(arrivals[round], UNREACHED);
+                Arrays.fill(rideTrips[round], -1);
+                Arrays.fill(transferSources[round], -1);
+            }
+            Arrays.fill(patternStarts, -1);
+        }
+    }
+
+    /**
+     * The labels of a query. The labels are kept from one `search` to the next, which is only
+     * correct if each search departs no later than the previous one.
+     */
+    private class Query {
+        private final Coordinates origin;
+        private final Coordinates destination;
+        /// The earliest departure, in seconds since the start of the service day.
+        private final int firstDeparture;
+        private final BitSet activeToday;
+        private final BitSet activeYesterday;
+
+        /// Walking time from the origin to each station and from each station to the
+        /// destination, or -1 if it's too far.
+        private final int[] accessSeconds;
+        private final int[] egressSeconds;
+
+        /// The earliest arrival at each station with at most `k` trips.
+        private final int[][] arrivals;
+        /// The trip taken to each station in round `k` (-1 if none), where it was boarded and
+        /// where it was left (as positions in the trip's pattern), and when it arrives.
+        private final int[][] rideTrips;
+        private final int[][] rideBoardStops;
+        private final int[][] rideAlightStops;
+        private final int[][] rideArrivals;
+        /// The station each station was walked to from in round `k` (-1 if none).
+        private final int[][] transferSources;
+        /// The first stop of each pattern to scan in the current round (-1 if none), and the
+        /// patterns to scan.
+        private final int[] patternStarts;
+        private final int[] queuedPatterns;
+        /// The stations improved in the previous round, and by a trip in the current round.
+        private final BitSet marked;
+        private final BitSet improvedByRide;
+
+        Query(Coordinates origin, Coordinates destination, LocalDateTime departure) {
+            LocalDate today = departure.toLocalDate();
+            this.origin = origin;
+            this.destination = destination;
+            this.firstDeparture = departure.toLocalTime().toSecondOfDay();
+            this.activeToday = network.calendar.getActiveTrips(today);
+            this.activeYesterday = network.calendar.getActiveTrips(today.minusDays(1));
+
+            Labels scratch = labels.get();
+            scratch.reset();
+            this.accessSeconds = scratch.accessSeconds;
+            this.egressSeconds = scratch.egressSeconds;
+            network.walkSecondsToStations(origin, accessSeconds);
+            network.walkSecondsToStations(destination, egressSeconds);
+            this.arrivals = scratch.arrivals;
+            this.rideTrips = scratch.rideTrips;
+            this.rideBoardStops = scratch.rideBoardStops;
+            this.rideAlightStops = scratch.rideAlightStops;
+            this.rideArrivals = scratch.rideArrivals;
+            this.transferSources = scratch.transferSources;
+            this.patternStarts = scratch.patternStarts;
+            this.queuedPatterns = scratch.queuedPatterns;
+            this.marked = scratch.marked;
+            this.improvedByRide = scratch.improvedByRide;
+        }
+
+        /**
+         * Get the times from `firstDeparture` up to `windowEnd` at which leaving the origin
+         * catches a trip just in time at a station within walking distance, sorted and distinct.
+         */
+        int[] departuresFromOrigin(int windowEnd) {
+            int[] patternTripOffsets = table.getPatternTripOffsets();
+            int[] patternTrips = table.getPatternTrips();
+            int[] departures = new int[16];
+            int count = 0;
+            for (int s = 0; s < stations.length; s++) {
+                if (accessSeconds[s] < 0) continue;
+                for (int i = network.stationSlotOffsets[s]; i < network.stationSlotOffsets[s + 1]; i++) {
+                    int slot = network.stationSlots[i];
+                    int pattern = network.slotPatterns[slot];
+                    int position = slot - table.getPatternStopOffsets()[pattern];
+                    for (int t = patternTripOffsets[pattern]; t < patternTripOffsets[pattern + 1]; t++) {
+                        for (int shift = 0; shift <= 1; shift++) {
+                            int trip = patternTrips[t] * 2 + shift;
+                            int leave = network.departureSeconds(trip, position) - accessSeconds[s];
+                            if (leave < firstDeparture || leave > windowEnd
+                                    || !network.isActive(trip, activeToday, activeYesterday)) continue;
+                            if (count == departures.length) departures = Arrays.copyOf(departures, count * 2);
+                            departures[count++] = leave;
+                        }
+                    }
+                }
+            }
+            return Arrays.stream(departures, 0, count).sorted().distinct().toArray();
+        }
+
+        /**
+         * Run the rounds from the origin at `departureSeconds`, improving the labels.
+         */
+        void search(int departureSeconds) {
+            marked.clear();
+            for (int s = 0; s < stations.length; s++) {
+                if (accessSeconds[s] < 0 || departureSeconds + accessSeconds[s] >= arrivals[0][s]) continue;
+                arrivals[0][s] = departureSeconds + accessSeconds[s];
+                marked.set(s);
+            }
+
+            for (int round = 1; round <= MAX_ROUNDS && !marked.isEmpty(); round++) {
+                // A route with fewer trips is also a route with at most `round` trips.
+                for (int s = 0; s < stations.length; s++) {
+                    if (arrivals[round - 1][s] < arrivals[round][s]) {
+                        arrivals[round][s] = arrivals[round - 1][s];
+                        rideTrips[round][s] = -1;
+                        transferSources[round][s] = -1;
+                    }
+                }
+
+                // Queue the patterns through the marked stations, from their first marked stop.
+                int queuedCount = 0;
+                for (int s = marked.nextSetBit(0); s >= 0; s = marked.nextSetBit(s + 1)) {
+                    for (int i = network.stationSlotOffsets[s]; i < network.stationSlotOffsets[s + 1]; i++) {
+                        int slot = network.stationSlots[i];
+                        int pattern = network.slotPatterns[slot];
+                        int position = slot - table.getPatternStopOffsets()[pattern];
+                        if (patternStarts[pattern] < 0) queuedPatterns[queuedCount++] = pattern;
+                        if (patternStarts[pattern] < 0 || position < patternStarts[pattern]) {
+                            patternStarts[pattern] = position;
+                        }
+                    }
+                }
+                marked.clear();
+
+                improvedByRide.clear();
+                for (int q = 0; q < queuedCount; q++) {
+                    int pattern = queuedPatterns[q];
+                    scanPattern(round, pattern, patternStarts[pattern], improvedByRide);
+                    patternStarts[pattern] = -1;
+                }
+                marked.or(improvedByRide);
+
+                // Walk from the stations reached by a trip in this round.
+                for (int s = improvedByRide.nextSetBit(0); s >= 0; s = improvedByRide.nextSetBit(s + 1)) {
+                    for (int i = network.transferOffsets[s]; i < network.transferOffsets[s + 1]; i++) {
+                        int target = network.transferTargets[i];
+                        int arrival = rideArrivals[round][s] + network.transferSeconds[i];
+                        if (arrival < arrivals[round][target]) {
+                            arrivals[round][target] = arrival;
+                            transferSources[round][target] = s;
+                            marked.set(target);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Add the routes of the last `search` (from `departureSeconds`) that arrive earlier than
+         * every route with fewer trips, and than every route found by a previous search.
+         * @param walkOnlySeconds The time to walk all the way, or -1 if it's too far.
+         * @param bestArrivals The earliest arrival with at most `k` trips found so far; updated.
+         */
+        void collectRoutes(int departureSeconds, int walkOnlySeconds, int[] bestArrivals,
+                           List<BestRoute> routes) {
+            int bound = walkOnlySeconds < 0 ? UNREACHED : departureSeconds + walkOnlySeconds;
+            for (int round = 1; round <= MAX_ROUNDS; round++) {
+                int bestStation = -1;
+                int bestArrival = Math.min(bound, bestArrivals[round]);
+                for (int s = 0; s < stations.length; s++) {
+                    if (egressSeconds[s] < 0 || arrivals[round][s] == UNREACHED) continue;
+                    int arrival = arrivals[round][s] + egressSeconds[s];
+                    if (arrival < bestArrival) {
+                        bestArrival = arrival;
+                        bestStation = s;
+                    }
+                }
+                if (bestStation >= 0) {
+                    routes.add(buildRoute(round, bestStation));
+                }
+                bestArrivals[round] = Math.min(bestArrivals[round], bestArrival);
+                bound = Math.min(bound, bestArrivals[round]);
+            }
+        }
+
+        /**
+         * Scan one pattern from the stop at `start`: ride the current trip, improving the stations
+         * it reaches, and switch to an earlier trip wherever one can be caught.
+         */
+        private void scanPattern(int round, int pattern, int start, BitSet improved) {
+            int first = table.getPatternStopOffsets()[pattern];
+            int length = table.getPatternStopOffsets()[pattern + 1] - first;
+            int[] patternStops = table.getPatternStops();
+            int[] previous = arrivals[round - 1];
+
+            int trip = -1;
+            int boardStop = -1;
+            for (int i = start; i < length; i++) {
+                int station = patternStops[first + i];
+
+                if (trip >= 0) {
+                    int arrival = network.arrivalSeconds(trip, i);
+                    if (arrival < arrivals[round][station]) {
+                        arrivals[round][station] = arrival;
+                        rideArrivals[round][station] = arrival;
+                        rideTrips[round][station] = trip;
+                        rideBoardStops[round][station] = boardStop;
+                        rideAlightStops[round][station] = i;
+                        transferSources[round][station] = -1;
+                        improved.set(station);
+                    }
+                }
+
+                // Can we catch an earlier trip here?
+                if (previous[station] != UNREACHED
+                        && (trip < 0 || previous[station] <= network.departureSeconds(trip, i))) {
+                    int found = network.findTrip(pattern, first + i, i, previous[station], activeToday, activeYesterday);
+                    if (found >= 0 && (trip < 0
+                            || network.departureSeconds(found, i) < network.departureSeconds(trip, i))) {
+                        trip = found;
+                        boardStop = i;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Follow the labels back from `station` in `round` and build the route they describe.
+         */
+        private BestRoute buildRoute(int round, int station) {
+            // Collect the steps from the destination backwards.
+            List<BestRoute.Step> steps = new ArrayList<>();
+            int egressStart = arrivals[round][station];
+            steps.add(network.walkStep(stations[station].getCoords(), destination,
+                    egressStart, egressStart + egressSeconds[station], "your destination"));
+
+            int s = station;
+            int k = round;
+            while (k > 0) {
+                if (transferSources[k][s] >= 0) {
+                    int source = transferSources[k][s];
+                    steps.add(network.walkStep(stations[source].getCoords(), stations[s].getCoords(),
+                            rideArrivals[k][source], arrivals[k][s], stations[s].getName()));
+                    s = source;
+                }
+                if (rideTrips[k][s] < 0) {
+                    // The label was carried over from the previous round.
+                    k--;
+                    continue;
+                }
+                int trip = rideTrips[k][s];
+                steps.add(network.transitStep(trip, rideBoardStops[k][s], rideAlightStops[k][s]));
+                s = network.stationAt(trip, rideBoardStops[k][s]);
+                k--;
+            }
+            return network.finishRoute(steps, origin, s, accessSeconds[s]);
+        }
+    }
+}
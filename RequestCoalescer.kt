@@ -0,0 +1,90 @@
+package edu.vassar.cmpu203.myfirstapplication.Controller
+
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.async
+import kotlinx.coroutines.launch
+
+/**
+ * A request coalescer runs background requests (e.g. calls to a server) on behalf of several
+ * callers: identical requests made while one is in flight share it instead of running again.
+ * <p>
+ * Each caller gets its own `Job`: cancelling it means its callbacks are never called, and once
+ * every caller of a request has cancelled, the request itself is cancelled (which also cancels
+ * its HTTP call if it's made with `HttpTransport`).
+ */
+class RequestCoalescer<K>(private val scope: CoroutineScope) {
+    /**
+     * A request in flight and how many callers are still waiting for it.
+     */
+    private class InFlight(val result: Deferred<Any?>) {
+        var waiters = 0
+    }
+
+    private val inFlight = HashMap<K, InFlight>()
+
+    /**
+     * Run `request` on `Dispatchers.IO`, or join the identical request (with an equal `key`) in
+     * flight. The result (or error) is returned via `onSuccess` or `onError` on the main thread.
+     * @return The handle to cancel this caller's interest in the request.
+     */
+    fun <V> launch(
+        key: K,
+        request: suspend () -> V,
+        onSuccess: (V) -> Unit,
+        onError: (Throwable) -> Unit
+    ): Job = scope.launch {
+        try {
+            onSuccess(await(key, request))
+        } catch (e: CancellationException) {
+            // Cancelled; nobody is waiting for the result anymore.
+            throw e
+        } catch (e: Exception) {
+            onError(e)
+        }
+    }
+
+    /**
+     * Run `request` on `Dispatchers.IO`, or join the identical request (with an equal `key`) in
+     * flight, and suspend until its result. Cancelling the calling coroutine stops waiting for it.
+     */
+    suspend fun <V> await(key: K, request: suspend () -> V): V {
+        var created: InFlight? = null
+        val shared = synchronized(inFlight) {
+            val shared = inFlight.getOrPut(key) {
+                InFlight(scope.async(Dispatchers.IO) { request() }).also { created = it }
+            }
+            shared.waiters++
+            shared
+        }
+        // Once it's done, the next identical request runs again.
+        created?.let { request -> request.result.invokeOnCompletion { forget(key, request) } }
+        try {
+            @Suppress("UNCHECKED_CAST")
+            return shared.result.await() as V
+        } finally {
+            release(key, shared)
+        }
+    }
+
+    /**
+     * Stop waiting for a request, and cancel it if nobody else is.
+     */
+    private fun release(key: K, shared: InFlight) {
+        synchronized(inFlight) {
+            shared.waiters--
+            if (shared.waiters > 0) return
+            forget(key, shared)
+        }
+        shared.result.cancel()
+    }
+
+    private fun forget(key: K, shared: InFlight) {
+        synchronized(inFlight) {
+            if (inFlight[key] === shared) inFlight.remove(key)
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package edu.vassar.cmpu203.myfirstapplication.Controller;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import edu.vassar.cmpu203.myfirstapplication.Model.BestRoute;
+import edu.vassar.cmpu203.myfirstapplication.Model.ClockTime;
+import edu.vassar.cmpu203.myfirstapplication.Model.Coordinates;
+import edu.vassar.cmpu203.myfirstapplication.Model.GTFSData;
+
+/**
+ * RouteCache keeps the best routes of recent searches, so searching the same trip again a
+ * minute later doesn't plan it (or ask the server) again.
+ * <p>
+ * Searches are keyed by their origin and destination snapped to a grid of cells about
+ * `CELL_DEGREES` wide, and by their departure rounded down to `BUCKET_SECONDS`; a search also
+ * finds the one of the previous bucket, so a search a minute later never just misses. A cached
+ * search is only used within `TTL_SECONDS` of finding it, and without the routes whose first
+ * train can't be caught anymore when leaving at the time of the new search; it's only used if
+ * one of its trains can still be caught, since a walk alone is timed for the old search. The
+ * least recently used searches are dropped beyond `CAPACITY`, and all of them are dropped when
+ * the GTFS data changes.
+ * <p>
+ * The times of the cached routes must be in seconds since the start of the day of the search's
+ * departure, as the local planners return them, so they can be compared across midnight. The
+ * server's routes are timed in UTC, so they aren't cached.
+ */
+public class RouteCache {
+    /// How many searches are kept.
+    private static final int CAPACITY = 32;
+    /// How long a search is kept, since the routes (and the server's real-time data) change.
+    private static final long TTL_SECONDS = 10 * 60;
+    /// The size of the departure buckets.
+    private static final int BUCKET_SECONDS = 5 * 60;
+    /// The size of the grid cells; about 110 m north to south and 85 m east to west in NYC.
+    private static final double CELL_DEGREES = 0.001;
+
+    /**
+     * What a search is cached by.
+     * @param options Whatever else the routes depend on, e.g. the engine.
+     */
+    private record Key(long originCell, long destinationCell, long departureBucket, Object options) {}
+
+    /**
+     * A cached search.
+     * @param serviceDate The day the times of the routes are counted from.
+     */
+    private record Entry(List<BestRoute> routes, LocalDate serviceDate, long foundSeconds) {}
+
+    /**
+     * The hit rate of the cache since it was created.
+     * @param hits Searches answered from the cache.
+     * @param misses Searches not in the cache (or only with trains that can't be caught anymore).
+     * @param expired Searches found in the cache but older than `TTL_SECONDS`; also misses.
+     * @param evicted Searches dropped to keep at most `CAPACITY`.
+     */
+    public record Stats(long hits, long misses, long expired, long evicted) {
+        public double hitRate() {
+            return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d hits, %d misses (%d expired), %d evicted, hit rate %.0f%%",
+                    hits, misses, expired, evicted, hitRate() * 100);
+        }
+    }
+
+    private final Map<Key, Entry> entries = new LinkedHashMap<Key, Entry>(CAPACITY * 2, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            if (size() <= CAPACITY) return false;
+            evicted++;
+            return true;
+        }
+    };
+    /// The GTFS data the cached searches were planned with.
+    private GTFSData data;
+    private long hits;
+    private long misses;
+    private long expired;
+    private long evicted;
+
+    /**
+     * Get the routes of a search if it's cached, without those that can't be caught leaving at
+     * `departure`.
+     * @param options Whatever else the routes depend on; compared with `equals`.
+     * @return The routes, or null if the search isn't cached or none of its trains can be caught.
+     */
+    public synchronized List<BestRoute> get(GTFSData data, Coordinates origin, Coordinates destination,
+                                            LocalDateTime departure, Object options) {
+        checkData(data);
+        Key key = key(origin, destination, departure, options);
+        long nowSeconds = System.currentTimeMillis() / 1000;
+        List<BestRoute> routes = List.of();
+        // This bucket, or else the previous one.
+        for (int back = 0; back <= 1 && routes.isEmpty(); back++) {
+            Key bucketKey = new Key(key.originCell(), key.destinationCell(), key.departureBucket() - back, options);
+            Entry entry = entries.get(bucketKey);
+            if (entry == null) continue;
+            if (nowSeconds - entry.foundSeconds() > TTL_SECONDS) {
+                entries.remove(bucketKey);
+                expired++;
+                continue;
+            }
+            routes = catchable(entry.routes(), entry.serviceDate(), departure);
+        }
+        if (routes.isEmpty()) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return routes;
+    }
+
+    /**
+     * Cache the routes of a search.
+     * @param routes The routes found leaving at `departure`, timed in seconds since the start of
+     *               its day.
+     */
+    public synchronized void put(GTFSData data, Coordinates origin, Coordinates destination,
+                                 LocalDateTime departure, Object options, List<BestRoute> routes) {
+        checkData(data);
+        entries.put(key(origin, destination, departure, options),
+                new Entry(List.copyOf(routes), departure.toLocalDate(), System.currentTimeMillis() / 1000));
+    }
+
+    /**
+     * Get the routes that can still be caught leaving at `departure`, as long as one of their
+     * trains can: routes that only walk are kept alongside a train, but not on their own.
+     * @param serviceDate The day the times of the routes are counted from.
+     * @return The routes, or an empty list if none of their trains can be caught.
+     */
+    public static List<BestRoute> catchable(List<BestRoute> routes, LocalDate serviceDate, LocalDateTime departure) {
+        long departureSeconds = epochSeconds(departure.toLocalDate(), departure.toLocalTime().toSecondOfDay());
+        List<BestRoute> catchable = new ArrayList<>(routes.size());
+        boolean catchesTrain = false;
+        for (BestRoute route : routes) {
+            int latestDeparture = latestDeparture(route);
+            if (latestDeparture == Integer.MAX_VALUE) {
+                catchable.add(route);
+            } else if (epochSeconds(serviceDate, latestDeparture) >= departureSeconds) {
+                catchable.add(route);
+                catchesTrain = true;
+            }
+        }
+        return catchesTrain ? catchable : List.of();
+    }
+
+    /**
+     * Get the hit rate of the cache so far.
+     */
+    public synchronized Stats getStats() {
+        return new Stats(hits, misses, expired, evicted);
+    }
+
+    /**
+     * Get the latest time to leave and still catch the first train of `route` (walking to it as
+     * planned), in seconds since the start of the day, or `Integer.MAX_VALUE` if it only walks.
+     */
+    private static int latestDeparture(BestRoute route) {
+        int walkSeconds = 0;
+        for (BestRoute.Step step : route.getSteps()) {
+            if (step instanceof BestRoute.TransitStep) {
+                return step.getDepartureTime().toSeconds() - walkSeconds;
+            }
+            walkSeconds += step.getArrivalTime().toSeconds() - step.getDepartureTime().toSeconds();
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    private void checkData(GTFSData data) {
+        if (this.data != data) {
+            entries.clear();
+            this.data = data;
+        }
+    }
+
+    /**
+     * Get a time in seconds since the start of `date` as seconds since the epoch (of the local
+     * time, without a time zone), so times of different days can be compared.
+     */
+    private static long epochSeconds(LocalDate date, int seconds) {
+        return date.toEpochDay() * ClockTime.SECONDS_PER_DAY + seconds;
+    }
+
+    private static Key key(Coordinates origin, Coordinates destination, LocalDateTime departure, Object options) {
+        long departureSeconds = epochSeconds(departure.toLocalDate(), departure.toLocalTime().toSecondOfDay());
+        return new Key(cell(origin), cell(destination), Math.floorDiv(departureSeconds, BUCKET_SECONDS), options);
+    }
+
+    private static long cell(Coordinates coords) {
+        long row = (long) Math.floor(coords.getLatitude() / CELL_DEGREES);
+        long column = (long) Math.floor(coords.getLongitude() / CELL_DEGREES);
+        return (row << 32) | (column & 0xFFFFFFFFL);
+    }
+}
@@ -1,39 +1,40 @@
 package edu.vassar.cmpu203.myfirstapplication.Controller
 
 import android.accounts.NetworkErrorException
-import com.google.gson.Gson
-import com.google.gson.GsonBuilder
-import com.google.gson.JsonDeserializationContext
-import com.google.gson.JsonDeserializer
-import com.google.gson.JsonElement
 import com.google.gson.JsonParseException
-import com.google.gson.JsonSyntaxException
-import com.google.gson.annotations.SerializedName
-import com.google.gson.reflect.TypeToken
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonToken
+import com.google.gson.stream.MalformedJsonException
 import edu.vassar.cmpu203.myfirstapplication.Model.BestRoute
 import edu.vassar.cmpu203.myfirstapplication.Model.ClockTime
 import edu.vassar.cmpu203.myfirstapplication.Model.Coordinates
 import edu.vassar.cmpu203.myfirstapplication.Model.Destination
 import edu.vassar.cmpu203.myfirstapplication.Model.GTFSData
+import edu.vassar.cmpu203.myfirstapplication.Model.Polyline
 import edu.vassar.cmpu203.myfirstapplication.Model.StationDetails
 import edu.vassar.cmpu203.myfirstapplication.Model.TransitRoute
 import edu.vassar.cmpu203.myfirstapplication.Model.TransitTrip
 import edu.vassar.cmpu203.myfirstapplication.Model.TripCollection
+import edu.vassar.cmpu203.myfirstapplication.Model.TripStopTimes
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.asExecutor
+import kotlinx.coroutines.future.await
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
-import okhttp3.OkHttpClient
-import okhttp3.Request
-import okhttp3.Response
-import java.lang.reflect.Type
+import java.io.IOException
 import java.net.URLEncoder
 import java.time.Duration
 import java.time.Instant
+import java.time.LocalDate
 import java.time.LocalDateTime
+import java.time.ZoneId
 import java.time.ZoneOffset
 import java.time.format.DateTimeFormatter
+import java.util.EnumMap
 import java.util.function.Consumer
 
 /**
@@ -89,7 +90,13 @@ private class RouteAPIRequest(
     /**
      * The number of maximum solutions that should be searched.
      */
-    val limitSolutions: String? = null
+    val limitSolutions: String? = null,
+    /**
+     * If true the coordinates of the response's paths (and of its legs, where the server
+     * supports it) are encoded as a string (see `Polyline.decode`), which is several times
+     * smaller than an array of coordinates.
+     */
+    val pointsEncoded: Boolean = true
 ) {
     constructor(pointA: Coordinates, pointB: Coordinates, time: ClockTime) : this(
         "pt",
@@ -101,7 +108,8 @@ private class RouteAPIRequest(
         "PT60M",
         null,
         false,
-        "5"
+        "5",
+        true
     )
 
     fun buildQueryParams(): String {
@@ -133,317 +141,348 @@ private class RouteAPIRequest(
         return "profile=$profile&$pointsStr&locale=$locale&pt.earliest_departure_time=$deptTime&" +
                 "pt.arrive_by=$arriveBy&pt.profile=$ptProfile&pt.profile_duration=$profileDuration&" +
                 "$paramLimitStreetTime&pt.ignore_transfers=$ignoreTransfers&" +
-                paramLimitSolutions
+                "points_encoded=$pointsEncoded&$paramLimitSolutions"
     }
 }
 
 
 /**
- * A data class that contains useful fields from the response of the API
+ * A streaming decoder of the responses of the API. It reads the paths straight from the response
+ * into `BestRoute`s with a `JsonReader`, so the response is never held whole in memory; the
+ * fields we don't use (e.g. the points and instructions of a whole path, which its legs repeat)
+ * are skipped without being decoded.
+ * From: https://github.com/graphhopper/graphhopper/blob/master/docs/web/api-doc.md?plain=1
  */
-private data class RouteAPIResponse(
-    val paths: List<Path>
-) {
+private class RouteAPIResponseReader(private val gtfsData: GTFSData) {
     /**
-     * Converts the response to a list of `BestRoute`s which is what we use in the app.
+     * One public-transit stop of a leg, until the leg's route is known. Maps to a `StationDetails`.
      */
-    fun formBestRoutes(
-        gtfsData: GTFSData
-    ): List<BestRoute> {
-        return paths.map { path -> path.formBestRoute(gtfsData) }
+    private class PtStop(val id: String, val name: String, val coordinates: DoubleArray)
+
+    /**
+     * Read a response, i.e. an object with a list of `paths`, each of which maps to a `BestRoute`.
+     */
+    fun readBestRoutes(reader: JsonReader): List<BestRoute> {
+        var routes: List<BestRoute>? = null
+        reader.beginObject()
+        while (reader.hasNext()) {
+            when (reader.nextName()) {
+                "paths" -> routes = readList(reader, this::readPath)
+                else -> reader.skipValue()
+            }
+        }
+        reader.endObject()
+        return routes ?: throw JsonParseException("No paths in the response.")
     }
 
-    companion object {
-        /**
-         * A path represents one route, maps to one `BestRoute`.
-         */
-        data class Path(
-            /**
-             * Duration of the path in seconds.
-             */
-            val time: Int,
-            /**
-             * Set of coordinates. Each coordinate is represented
-             * as a list of doubles that should contain just two elements:
-             * latitude and longitude.
-             */
-            val points: Geometry,
-            /**
-             * A list of instructions (walk or pt).
-             */
-            val instructions: List<Instruction>,
-            /**
-             * A list of legs.
-             */
-            val legs: List<Leg>
-        ) {
-            /**
-             * Converts the path to a `BestRoute`.
-             */
-            fun formBestRoute(
-                gtfsData: GTFSData
-            ): BestRoute {
-                // Convert each `leg` to a `BestRoute.Step`
-                val legs = legs.map { leg -> leg.formStep(gtfsData) }
-
-                // Build the `BestRoute` object
-                return BestRoute(
-                    legs.first().departureTime,
-                    legs.last().arrivalTime,
-                    legs
-                )
+    /**
+     * Read a path, which represents one route. Only its legs are used.
+     */
+    private fun readPath(reader: JsonReader): BestRoute {
+        var legs: List<BestRoute.Step> = listOf()
+        reader.beginObject()
+        while (reader.hasNext()) {
+            when (reader.nextName()) {
+                "legs" -> legs = readList(reader, this::readLeg)
+                else -> reader.skipValue()
             }
         }
+        reader.endObject()
+        if (legs.isEmpty()) throw JsonParseException("Path without legs.")
+
+        // Build the `BestRoute` object
+        return BestRoute(
+            legs.first().departureTime,
+            legs.last().arrivalTime,
+            legs
+        )
+    }
 
-        /**
-         * A leg. Maps to one `BestRoute.Step`.
-         */
-        sealed class Leg {
-            /**
-             * Either `pt` or `foot`.
-             */
-            abstract val type: String
-            /**
-             * A string like 2024-11-27T23:40:30.000+00:00
-             */
-            abstract val departureTime: String
-            /**
-             * A string like 2024-11-27T23:40:30.000+00:00
-             */
-            abstract val arrivalTime: String
-            /**
-             * The geometry of the leg, i.e. the set of coordinates.
-             */
-            abstract val geometry: Geometry
-
-            /**
-             * Converts the leg to a `BestRoute.Step`.
-             */
-            fun formStep(gtfsData: GTFSData): BestRoute.Step {
-                // Get common information
-                val geometry = geometry.coordinates.map { coords -> Coordinates(coords[0], coords[1]) }
-                val departureTime = ClockTime(departureTime)
-                val arrivalTime = ClockTime(arrivalTime)
-
-                // Switch based on type of leg
-                when (this) {
-                    is WalkingLeg -> {
-                        // If the type of leg is `walk`, convert to `BestRoute.WalkStep`
-                        return BestRoute.WalkStep(
-                            geometry,
-                            departureTime,
-                            arrivalTime,
-                            instructions.map(Instruction::formInstruction))
-                    }
-                    is TransitLeg -> {
-                        // For the transit leg, we need to map several GTFS IDs to our GTFS data.
-                        // Link each routes id to `TransitRoute` object.
-                        val route = gtfsData.routesByID.get(routeID) ?:
-                            TransitRoute(routeID, "", "", "", TripCollection())
-                        // Link each trip id to `TransitTrip` object. If we can't find the trip,
-                        // we make up a trip with the route (so that our app doesn't crash).
-                        val trip = gtfsData.tripsByID[tripID] ?:
-                            TransitTrip(
-                                // Use the right trip id and link to the right route.
-                                tripID, route, null,
-                                // Use a fake trip service for all days.
-                                TransitTrip.TripService(
-                                    "Not Found", "Start Date", "End Date",
-                                    true, true, true, true, true, true, true),
-                                // Use the given trip headsign
-                                tripHeadsign,
-                                // Use an arbitrary direction (one) and empty departures.
-                                TransitTrip.TripDirection.ONE, HashMap())
-
-                        return BestRoute.TransitStep(
-                            geometry,
-                            departureTime,
-                            arrivalTime,
-                            stops.map { stop ->
-                                // Map each stop id to a station.
-                                // If we can't find a station, make up a station so we don't crash.
-                                gtfsData.stationsByID.get(stop.id) ?:
-                                    StationDetails(
-                                        // Use the given id, name, coordinates/
-                                        stop.id, stop.name,
-                                        Coordinates(stop.geometry.coordinates[0], stop.geometry.coordinates[1]),
-                                        // Use the route we constructed and an arbitrary
-                                        // accessibility (not accessible).
-                                        setOf(route), "Not Accessible")
-                            },
-                            trip,
-                            route)
-                    }
-                }
+    /**
+     * Read a leg. A `walk` leg maps to a `BestRoute.WalkStep` and a `pt` leg to a
+     * `BestRoute.TransitStep`. Its `type` can come after the other fields, so they're all read
+     * before the step is built.
+     */
+    private fun readLeg(reader: JsonReader): BestRoute.Step {
+        var type: String? = null
+        var departureTime: String? = null
+        var arrivalTime: String? = null
+        var geometry = Polyline.EMPTY
+        // Walking legs:
+        var instructions: List<BestRoute.WalkInstruction> = listOf()
+        // Transit legs:
+        var stops: List<PtStop> = listOf()
+        var tripID = ""
+        var routeID = ""
+        var tripHeadsign: String? = null
+        reader.beginObject()
+        while (reader.hasNext()) {
+            when (reader.nextName()) {
+                "type" -> type = readString(reader)
+                // Strings like 2024-11-27T23:40:30.000+00:00
+                "departure_time" -> departureTime = readString(reader)
+                "arrival_time" -> arrivalTime = readString(reader)
+                "geometry" -> geometry = readLineGeometry(reader)
+                "instructions" -> instructions = readList(reader, this::readInstruction)
+                "stops" -> stops = readList(reader, this::readStop)
+                "trip_id" -> tripID = readString(reader) ?: ""
+                "route_id" -> routeID = readString(reader) ?: ""
+                "trip_headsign" -> tripHeadsign = readString(reader)
+                else -> reader.skipValue()
             }
         }
+        reader.endObject()
 
-        /**
-         * A walking leg. Maps to a `BestRoute.WalkStep`.
-         */
-        data class WalkingLeg(
-            // Inherited fields:
-            override val type: String,
-            @SerializedName("departure_time")
-            override val departureTime: String,
-            @SerializedName("arrival_time")
-            override val arrivalTime: String,
-            override val geometry: Geometry,
-
-            /**
-             * A list of instructions.
-             */
-            val instructions: List<Instruction>
-        ) : Leg()
+        // Get common information
+        val departure = ClockTime(departureTime ?: throw JsonParseException("Leg without departure time."))
+        val arrival = ClockTime(arrivalTime ?: throw JsonParseException("Leg without arrival time."))
 
-        /**
-         * An instruction. Maps to a `BestRoute.WalkInstruction`.
-         */
-        data class Instruction(
-            /**
-             * Description of the instruction
-             */
-            val text: String,
-            /**
-             * Time for the instruction
-             */
-            val time: Int,
-            @SerializedName("street_name")
-            val streetName: String,
-            /**
-             * The sign of the instruction.
-             * See this for <a href="https://github.com/graphhopper/graphhopper/blob/master/docs/web/api-doc.md">reference</a>
-             */
-            val sign: Int
-        ) {
-            /**
-             * Converts the instruction to a `BestRoute.WalkInstruction`.
-             */
-            fun formInstruction(): BestRoute.WalkInstruction {
-                return BestRoute.WalkInstruction(
-                    text,
-                    streetName,
-                    BestRoute.InstructionSign.fromSign(sign))
+        // Switch based on type of leg
+        when (type) {
+            "walk" -> {
+                // If the type of leg is `walk`, convert to `BestRoute.WalkStep`
+                return BestRoute.WalkStep(geometry, departure, arrival, instructions)
+            }
+            "pt" -> {
+                // For the transit leg, we need to map several GTFS IDs to our GTFS data.
+                // Link each routes id to `TransitRoute` object.
+                val route = gtfsData.findRoute(routeID) ?:
+                    TransitRoute(routeID, "", "", "", TripCollection())
+                // Link each trip id to `TransitTrip` object. If we can't find the trip,
+                // we make up a trip with the route (so that our app doesn't crash).
+                val trip = gtfsData.findTrip(tripID) ?:
+                    TransitTrip(
+                        // Use the right trip id and link to the right route.
+                        tripID, route, null,
+                        // Use a fake trip service for all days.
+                        TransitTrip.TripService(
+                            "Not Found", "Start Date", "End Date",
+                            true, true, true, true, true, true, true),
+                        // Use the given trip headsign
+                        tripHeadsign,
+                        // Use an arbitrary direction (one) and empty departures.
+                        TransitTrip.TripDirection.ONE, TripStopTimes.EMPTY)
+
+                return BestRoute.TransitStep(
+                    geometry,
+                    departure,
+                    arrival,
+                    stops.map { stop ->
+                        // Map each stop id to a station.
+                        // If we can't find a station, make up a station so we don't crash.
+                        gtfsData.findStation(stop.id) ?:
+                            StationDetails(
+                                // Use the given id, name, coordinates/
+                                stop.id, stop.name,
+                                Coordinates(stop.coordinates[0], stop.coordinates[1]),
+                                // Use the route we constructed and an arbitrary
+                                // accessibility (not accessible).
+                                setOf(route), StationDetails.NOT_ACCESSIBLE)
+                    },
+                    trip,
+                    route)
             }
+            else -> throw JsonParseException("Unknown leg type: $type")
         }
+    }
 
-        /**
-         * A transit leg. Maps to a `BestRoute.TransitStep`.
-         */
-        data class TransitLeg(
-            // Inherited fields:
-            override val type: String,
-            @SerializedName("departure_time")
-            override val departureTime: String,
-            @SerializedName("arrival_time")
-            override val arrivalTime: String,
-            override val geometry: Geometry,
-
-            /**
-             * A list of stops with pt.
-             */
-            val stops: List<PtStop>,
-
-            /**
-             * The GTFS trip id.
-             */
-            @SerializedName("trip_id")
-            val tripID: String,
-            /**
-             * The GTFS route id
-             */
-            @SerializedName("route_id")
-            val routeID: String,
-            /**
-             * The headsign of the trip.
-             */
-            @SerializedName("trip_headsign")
-            val tripHeadsign: String
-        ) : Leg()
+    /**
+     * Read an instruction of a walking leg. Maps to a `BestRoute.WalkInstruction`.
+     */
+    private fun readInstruction(reader: JsonReader): BestRoute.WalkInstruction {
+        var text: String? = null
+        var streetName: String? = null
+        // See this for <a href="https://github.com/graphhopper/graphhopper/blob/master/docs/web/api-doc.md">reference</a>
+        var sign = 0
+        reader.beginObject()
+        while (reader.hasNext()) {
+            when (reader.nextName()) {
+                "text" -> text = readString(reader)
+                "street_name" -> streetName = readString(reader)
+                "sign" -> sign = reader.nextInt()
+                else -> reader.skipValue()
+            }
+        }
+        reader.endObject()
+        return BestRoute.WalkInstruction(text, streetName, BestRoute.InstructionSign.fromSign(sign))
+    }
 
-        /**
-         * The Geometry class represents a set of coordinates.
-         */
-        data class Geometry(
-            /**
-             * Set of coordinates. Each coordinate is represented
-             * as a list of doubles that should contain just two elements:
-             * latitude and longitude.
-             */
-            @SerializedName("coordinates")
-            val coordinates: List<List<Double>>
-        )
+    /**
+     * Read a public-transit stop of a leg.
+     */
+    private fun readStop(reader: JsonReader): PtStop {
+        var id = ""
+        var name = ""
+        var coordinates = DoubleArray(2)
+        reader.beginObject()
+        while (reader.hasNext()) {
+            when (reader.nextName()) {
+                "stop_id" -> id = readString(reader) ?: ""
+                "stop_name" -> name = readString(reader) ?: ""
+                "geometry" -> coordinates = readGeometry(reader)
+                else -> reader.skipValue()
+            }
+        }
+        reader.endObject()
+        return PtStop(id, name, coordinates)
+    }
 
-        /**
-         * One public-transit stop. Maps to a `StationDetails`.
-         */
-        data class PtStop(
-            /**
-             * The GTFS stop id
-             */
-            @SerializedName("stop_id")
-            val id: String,
-            /**
-             * The name of the stop
-             */
-            @SerializedName("stop_name")
-            val name: String,
-            /**
-             * The geometry of the stop.
-             */
-            val geometry: PtStopGeometry
-        )
+    /**
+     * Read the geometry of a leg: either an encoded polyline (with `points_encoded`) or an object
+     * with a list of coordinates.
+     */
+    private fun readLineGeometry(reader: JsonReader): Polyline {
+        if (reader.peek() == JsonToken.STRING) {
+            return Polyline.decode(reader.nextString(), Polyline.DEFAULT_MULTIPLIER)
+        }
+        return Polyline.of(readGeometry(reader))
+    }
 
-        /**
-         * The geometry of a public-transit stop.
-         */
-        data class PtStopGeometry(
-            /**
-             * One set of coordinates. The coordinates are represented
-             * as a latitude and longitude pair.
-             */
-            val coordinates: List<Double>
-        )
+    /**
+     * Read a geometry: an object whose `coordinates` are either one pair (of a stop) or a list of
+     * pairs (of a leg). Returns the pairs interleaved in one array, without their elevation if any.
+     */
+    private fun readGeometry(reader: JsonReader): DoubleArray {
+        var coordinates = DoubleArray(0)
+        reader.beginObject()
+        while (reader.hasNext()) {
+            when (reader.nextName()) {
+                "coordinates" -> coordinates = readCoordinates(reader)
+                else -> reader.skipValue()
+            }
+        }
+        reader.endObject()
+        return coordinates
     }
-}
 
-/**
- * A class for deserializing legs based on the type.
- */
-private class LegDeserializer : JsonDeserializer<RouteAPIResponse.Companion.Leg> {
-    /**
-     * Deserialize a json element into a leg.
-     * If the type is `pt`, deserialize into a `PtLeg`.
-     * Else if the type is `walk`, deserialize into a `WalkingLeg`.
-     */
-     override fun deserialize(json: JsonElement, typeOfT: Type,
-                             context: JsonDeserializationContext): RouteAPIResponse.Companion.Leg {
-        val jsonObject = json.asJsonObject
-        return when (val type = jsonObject.get("type").asString) {
-            "pt" -> context.deserialize<RouteAPIResponse.Companion.TransitLeg>(
-                json, RouteAPIResponse.Companion.TransitLeg::class.java)
-            "walk" -> context.deserialize<RouteAPIResponse.Companion.WalkingLeg>(
-                json, RouteAPIResponse.Companion.WalkingLeg::class.java)
-            else -> throw JsonParseException("Unknown leg type: $type")
+    private fun readCoordinates(reader: JsonReader): DoubleArray {
+        reader.beginArray()
+        // One pair.
+        if (reader.peek() == JsonToken.NUMBER) {
+            val pair = doubleArrayOf(reader.nextDouble(), reader.nextDouble())
+            while (reader.hasNext()) reader.skipValue()
+            reader.endArray()
+            return pair
+        }
+        // A list of pairs, in an array grown as needed.
+        var points = DoubleArray(64)
+        var size = 0
+        while (reader.hasNext()) {
+            reader.beginArray()
+            if (size + 2 > points.size) points = points.copyOf(points.size * 2)
+            points[size++] = reader.nextDouble()
+            points[size++] = reader.nextDouble()
+            while (reader.hasNext()) reader.skipValue()
+            reader.endArray()
+        }
+        reader.endArray()
+        return points.copyOf(size)
+    }
+
+    private fun <T> readList(reader: JsonReader, readElement: (JsonReader) -> T): List<T> {
+        val list = ArrayList<T>()
+        reader.beginArray()
+        while (reader.hasNext()) list.add(readElement(reader))
+        reader.endArray()
+        return list
+    }
+
+    private fun readString(reader: JsonReader): String? {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull()
+            return null
         }
+        return reader.nextString()
     }
 }
 
 /**
  * A route finder is responsible for finding the best routes between two destinations.
- * This class reaches out to our server.
+ * Routes are found on the device with `RaptorPlanner`; this class only reaches out to our server
+ * if the local planner finds nothing. Recent searches are kept in a `RouteCache`, so searching the
+ * same trip again soon after is answered right away, and the routes to a destination can be
+ * searched speculatively (`prefetchBestRoutes`) before the user asks for them.
  */
-class RouteFinder(private val scope: CoroutineScope) {
+class RouteFinder(private val scope: CoroutineScope, private val transport: HttpTransport) {
     private val apiURL = "http://ec2-18-220-26-161.us-east-2.compute.amazonaws.com:8989/route"
-    private val gson: Gson = GsonBuilder()
-        .registerTypeAdapter(RouteAPIResponse.Companion.Leg::class.java, LegDeserializer())
-        .create()
+
+    /**
+     * The local routing engine to use. Can be changed at any time; the next query uses it.
+     */
+    @Volatile
+    var engine: JourneyPlanner.Engine = JourneyPlanner.Engine.ACCESSIBLE
+
+    /**
+     * How many minutes ahead to also look for routes leaving later, for the timeline of the best
+     * routes screen; 0 to only look for routes leaving now. Found with a range query of
+     * `RaptorPlanner`, whatever the `engine`, split across the cores.
+     */
+    @Volatile
+    var departureWindowMinutes: Int = 60
+
+    /**
+     * The local planners and the `GTFSData` they were built for; built on the first query.
+     * The engines share one `PlannerNetwork`.
+     */
+    private val localPlanners = EnumMap<JourneyPlanner.Engine, JourneyPlanner>(
+        JourneyPlanner.Engine::class.java)
+    private var localNetwork: PlannerNetwork? = null
+    private var localPlannerData: GTFSData? = null
+
+    /**
+     * The routes of recent searches; its stats tell how often searches are repeated.
+     */
+    val routeCache = RouteCache()
+
+    /**
+     * What identical searches in flight are coalesced by: the endpoints and the options the
+     * routes depend on (not the time, since concurrent searches are seconds apart).
+     */
+    private data class SearchKey(val origin: Coordinates, val destination: Coordinates, val options: List<Any>)
+
+    /**
+     * The routes found by a search, and the day their times are counted from; null for the
+     * server's routes, which are timed in UTC.
+     */
+    private class Search(val routes: List<BestRoute>, val serviceDate: LocalDate?) {
+        /**
+         * Get the routes that can still be caught leaving at `departure` (see
+         * `RouteCache.catchable`), or null if none of their trains can. Routes that can't be
+         * compared with `departure`, or that only walk, are all kept.
+         */
+        fun catchableAt(departure: LocalDateTime): List<BestRoute>? {
+            if (serviceDate == null || routes.none { route -> route.steps.any { it is BestRoute.TransitStep } }) {
+                return routes
+            }
+            return RouteCache.catchable(routes, serviceDate, departure).ifEmpty { null }
+        }
+    }
+
+    /**
+     * The searches in flight; a search for the same trip as one in flight (e.g. the prefetched
+     * one) waits for it instead of searching again.
+     */
+    private val searches = RequestCoalescer<SearchKey>(scope)
+
+    /**
+     * The handle of the speculative search (see `prefetchBestRoutes`), if any.
+     */
+    @Volatile
+    private var prefetchJob: Job? = null
+
+    /**
+     * The reachability query in progress, cancelled when a newer one starts (e.g. while the
+     * user drags the time of the reachability map).
+     */
+    private var reachabilityJob: Job? = null
 
     /**
      * A function that finds the best routes between two destinations.
      * We also need the current time as input along with the `GTFSData` (vended by `GTFSService`).
      * Finally, the result (or error) is returned via the `onSuccess` and `onError` callback
-     * functions.
+     * functions, on the main thread.
+     * Returns a handle to cancel the search (e.g. when the user backs out); the callbacks are then
+     * never called, and the search itself stops unless someone else is waiting for it.
      */
     fun findBestRoutes(
         initialDestination: Destination,
@@ -452,16 +491,32 @@ class RouteFinder(private val scope: CoroutineScope) {
         gtfsData: GTFSData,
         onSuccess: Consumer<List<BestRoute>>,
         onError: Consumer<Throwable>
-    ) {
-        scope.launch {
+    ): Job {
+        // The routes depend on the engine and window too.
+        val departure = departureAt(currentTime)
+        val cacheOptions = listOf(engine, departureWindowMinutes)
+        val cachedRoutes = routeCache.get(
+            gtfsData, initialDestination.coords, finalDestination.coords, departure, cacheOptions)
+        if (cachedRoutes != null) {
+            // Deliver the result on the main thread, like a search would.
+            return scope.launch { onSuccess.accept(cachedRoutes) }
+        }
+
+        val key = SearchKey(initialDestination.coords, finalDestination.coords, cacheOptions)
+        return scope.launch {
             try {
-                // Do the background work
-                val result = withContext(Dispatchers.IO) {
-                    findBestRoutesSync(
-                        initialDestination, finalDestination, currentTime, gtfsData)
-                }
-                // Deliver result on main thread
-                onSuccess.accept(result)
+                // If the routes are being prefetched, this waits for them rather than search
+                // again. That search may have left a while ago, so drop the trains that can't
+                // be caught anymore, and search again if none can.
+                val routes = searches.await(key) {
+                    searchBestRoutes(initialDestination, finalDestination, currentTime, gtfsData, cacheOptions)
+                }.catchableAt(departure)
+                    ?: withContext(Dispatchers.IO) {
+                        searchBestRoutes(initialDestination, finalDestination, currentTime, gtfsData, cacheOptions)
+                    }.routes
+                onSuccess.accept(routes)
+            } catch (e: CancellationException) {
+                throw e
             } catch (e: Exception) {
                 // Print error and return error to user.
                 System.err.println("Error: $e")
@@ -471,11 +526,145 @@ class RouteFinder(private val scope: CoroutineScope) {
     }
 
     /**
-     * The implementation function that synchronously makes the server request.
+     * Start searching the routes between two destinations before the user asks for them (e.g. as
+     * soon as the final destination is known), so `findBestRoutes` can answer right away: from
+     * the cache once they're found, or by joining this search while it's in flight. Replaces the
+     * previous speculative search, if any.
+     */
+    fun prefetchBestRoutes(
+        initialDestination: Destination,
+        finalDestination: Destination,
+        currentTime: ClockTime,
+        gtfsData: GTFSData
+    ) {
+        cancelPrefetch()
+        val cacheOptions = listOf(engine, departureWindowMinutes)
+        val key = SearchKey(initialDestination.coords, finalDestination.coords, cacheOptions)
+        prefetchJob = searches.launch(key, {
+            searchBestRoutes(initialDestination, finalDestination, currentTime, gtfsData, cacheOptions)
+        }, {}, { e -> System.err.println("Error prefetching routes: $e") })
+    }
+
+    /**
+     * Discard the speculative search, e.g. because the user changed their destination. The
+     * search goes on if `findBestRoutes` is waiting for it.
+     */
+    fun cancelPrefetch() {
+        prefetchJob?.cancel()
+        prefetchJob = null
+    }
+
+    /**
+     * Find the earliest arrival at every station from `origin` leaving at `departure`, within
+     * `maxMinutes`, for the reachability map. A newer call cancels the one in progress, whose
+     * result is then never delivered.
+     * The result is returned via `onSuccess` on the main thread: the earliest arrival at each
+     * station by ordinal, in seconds since the start of the day of `departure`, or -1.
+     */
+    fun findReachability(
+        origin: StationDetails,
+        departure: LocalDateTime,
+        maxMinutes: Int,
+        gtfsData: GTFSData,
+        onSuccess: Consumer<IntArray>
+    ) {
+        reachabilityJob?.cancel()
+        reachabilityJob = scope.launch {
+            val arrivals = withContext(Dispatchers.Default) {
+                val planner = getLocalPlanner(gtfsData, JourneyPlanner.Engine.CSA) as ConnectionScanPlanner
+                planner.earliestArrivals(origin, departure, maxMinutes * 60)
+            }
+            onSuccess.accept(arrivals)
+        }
+    }
+
+    /**
+     * The implementation function that finds the routes. Tries the local planner first, which
+     * works offline; if it finds no route (e.g. the destinations are too far from any station),
+     * falls back to the server. The local routes are cached with `cacheOptions`; the server's
+     * aren't, since they're timed in UTC rather than from the start of today (see `RouteCache`).
+     */
+    private suspend fun searchBestRoutes(
+        initialDestination: Destination,
+        finalDestination: Destination,
+        currentTime: ClockTime,
+        gtfsData: GTFSData,
+        cacheOptions: List<Any>
+    ): Search {
+        val departure = departureAt(currentTime)
+        val engine = engine
+        // Planning is CPU-bound, so it runs on the default dispatcher rather than on the IO
+        // threads searches are launched on (which are meant for waiting on the server).
+        val localRoutes = withContext(Dispatchers.Default) {
+            getLocalPlanner(gtfsData, engine).plan(initialDestination.coords, finalDestination.coords, departure)
+        }
+        if (localRoutes.isNotEmpty()) {
+            val windowMinutes = departureWindowMinutes
+            if (windowMinutes <= 0) {
+                routeCache.put(gtfsData, initialDestination.coords, finalDestination.coords,
+                    departure, cacheOptions, localRoutes)
+                return Search(localRoutes, departure.toLocalDate())
+            }
+
+            // Add the routes leaving later, except for the ones we already have (and walking,
+            // which can be done at any time). The range query doesn't know about stairs, so
+            // with `STEP_FREE_ONLY` only its step-free routes are kept; the other engines return
+            // the fastest routes too, whatever their stairs, and the step-free ones are marked.
+            val stepFreeOnly = engine == JourneyPlanner.Engine.STEP_FREE_ONLY
+            val rangePlanner = withContext(Dispatchers.Default) {
+                getLocalPlanner(gtfsData, JourneyPlanner.Engine.RAPTOR) as RaptorPlanner
+            }
+            val laterRoutes = rangePlanner
+                .planRangeAsync(initialDestination.coords, finalDestination.coords, departure, windowMinutes * 60,
+                    Runtime.getRuntime().availableProcessors(), Dispatchers.Default.asExecutor())
+                // Suspends rather than blocking a thread; cancelling the search cancels the
+                // future, which stops the chunks at their next departure.
+                .await()
+                .filter { later ->
+                    later.steps.any { it is BestRoute.TransitStep } &&
+                        (!stepFreeOnly || later.isStepFree) &&
+                        localRoutes.none {
+                            it.departureTime == later.departureTime && it.arrivalTime == later.arrivalTime
+                        }
+                }
+            val routes = (localRoutes + laterRoutes).sortedBy { it.departureTime.toSeconds() }
+            routeCache.put(gtfsData, initialDestination.coords, finalDestination.coords,
+                departure, cacheOptions, routes)
+            return Search(routes, departure.toLocalDate())
+        }
+
+        return Search(searchBestRoutesRemote(initialDestination, finalDestination, currentTime, gtfsData), null)
+    }
+
+    /**
+     * Get today's date and time at `currentTime`.
+     */
+    private fun departureAt(currentTime: ClockTime): LocalDateTime {
+        // The current time is in New York time, so today's date must be too.
+        return LocalDate.now(ZoneId.of("America/New_York"))
+            .atStartOfDay()
+            .plusSeconds(currentTime.toSeconds().toLong())
+    }
+
+    /**
+     * Get the local planner of `engine` for `gtfsData`, building it if needed.
+     */
+    @Synchronized
+    private fun getLocalPlanner(gtfsData: GTFSData, engine: JourneyPlanner.Engine): JourneyPlanner {
+        if (localPlannerData !== gtfsData) {
+            localPlanners.clear()
+            localNetwork = PlannerNetwork(gtfsData)
+            localPlannerData = gtfsData
+        }
+        return localPlanners.getOrPut(engine) { engine.create(localNetwork!!) }
+    }
+
+    /**
+     * The implementation function that makes the server request.
      * This function encodes the parameters, makes the request to the server, and finally
-     * decodes the result.
+     * decodes the result. Cancelling the coroutine cancels the request.
      */
-    private fun findBestRoutesSync(
+    private suspend fun searchBestRoutesRemote(
         initialDestination: Destination,
         finalDestination: Destination,
         currentTime: ClockTime,
@@ -493,47 +682,21 @@ class RouteFinder(private val scope: CoroutineScope) {
         // Log the url
         println("Calling at : $url")
 
-        // === Build the request
-        // Get the client and build the request
-        val client = OkHttpClient()
-        val request = Request.Builder()
-            .url(url)
-            .header("User-Agent", "Kotlin Graphhopper Client")
-            .get()
-            .build()
-
-        // === Execute Request
-        // Make the API call and throw in case of a failure
-        val response: Response = try {
-            client.newCall(request).execute()
-        } catch (e: Exception) {
-            throw NetworkErrorException("Network error: ${e.message}")
-        }
-
-        // === Get Response Body
-        // Check the response is successful and valid
-        if (!response.isSuccessful) {
-            throw NetworkErrorException("GET request failed. Response Code: ${response.code}")
-        }
-        // Get the response body or throw if empty
-        val responseBody = response.body?.string()
-            ?: throw NetworkErrorException("Empty response body in call to routing service.")
-        // Close the response to avoid leaks.
-        response.close()
-
-        // === Decode the request as a `RouteAPIResponse`
-        // Decode the response and construct a list of Destination using the response data.
-        val responseType = object : TypeToken<RouteAPIResponse>() {}.type
-        val apiResponse: RouteAPIResponse
-        // Ask gson to decode or throw NetworkErrorException
-        try {
-            apiResponse = gson.fromJson(responseBody, responseType)
-        } catch (e: Exception) {
-            throw NetworkErrorException("JSON parsing failed.")
+        // === Execute Request and Decode the Response
+        // Make the API call and decode the response as it arrives, throwing in case of a failure;
+        // the transport closes the response, on error paths too.
+        val responseReader = RouteAPIResponseReader(gtfsData)
+        return transport.get(HttpTransport.Endpoint.ROUTING, url) { body ->
+            try {
+                JsonReader(body.charStream()).use { reader -> responseReader.readBestRoutes(reader) }
+            } catch (e: MalformedJsonException) {
+                throw NetworkErrorException("JSON parsing failed.")
+            } catch (e: IOException) {
+                throw NetworkErrorException("Network error: ${e.message}")
+            } catch (e: RuntimeException) {
+                // Unexpected tokens or values (`IllegalStateException`, `JsonParseException`, ...)
+                throw NetworkErrorException("JSON parsing failed.")
+            }
         }
-        // Convert the decoded `RouteAPIResponse` to a list of `BestRoute`
-        val foundDestinations = apiResponse.formBestRoutes(gtfsData)
-
-        return foundDestinations
     }
 }
\ No newline at end of file
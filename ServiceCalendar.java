@@ -0,0 +1,193 @@
+package edu.vassar.cmpu203.myfirstapplication.Model;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ServiceCalendar knows which days each `TransitTrip.TripService` runs on, with the exceptions
+ * of GTFS's "calendar_dates.txt" (e.g. holidays) applied.
+ * <p>
+ * Every service is compiled into a `BitSet` over the days of the feed: bit `d` is set if the
+ * service runs on `getFirstDay().plusDays(d)`. Checking whether a service runs on a day is then
+ * a single bit test instead of comparing date strings and days of the week. On top of that,
+ * `getActiveTrips` gives, for a date, a `BitSet` over all trip ordinals; recent dates are cached,
+ * so timetable queries can filter trips with one bit test per trip.
+ */
+public class ServiceCalendar {
+    /// How many dates `getActiveTrips` keeps; queries are almost always about today and yesterday
+    /// (for trips running past midnight).
+    private static final int CACHED_DATES = 4;
+
+    private final LocalDate firstDay;
+    private final int dayCount;
+    /// The days each service (by ordinal) runs on, relative to `firstDay`.
+    private final BitSet[] serviceDays;
+    /// The service ordinal of each trip (by ordinal), or -1 for trips without a service.
+    private final int[] tripServices;
+    private final Map<LocalDate, BitSet> activeTripsCache =
+            new LinkedHashMap<LocalDate, BitSet>(CACHED_DATES * 2, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<LocalDate, BitSet> eldest) {
+                    return size() > CACHED_DATES;
+                }
+            };
+
+    /**
+     * Constructor for ServiceCalendar.
+     * @param firstDay The first day of the feed.
+     * @param dayCount The number of days covered by the feed.
+     * @param serviceDays The days each service (by ordinal) runs on, relative to `firstDay`.
+     * @param trips All trips, by ordinal.
+     */
+    public ServiceCalendar(LocalDate firstDay, int dayCount, BitSet[] serviceDays, TransitTrip[] trips) {
+        this.firstDay = firstDay;
+        this.dayCount = dayCount;
+        this.serviceDays = serviceDays;
+        this.tripServices = new int[trips.length];
+        for (int i = 0; i < trips.length; i++) {
+            TransitTrip.TripService service = trips[i].getService();
+            tripServices[i] = service == null ? -1 : service.ordinal();
+        }
+    }
+
+    /**
+     * Get the first day of the feed.
+     */
+    public LocalDate getFirstDay() {
+        return firstDay;
+    }
+
+    /**
+     * Get the number of days covered by the feed.
+     */
+    public int getDayCount() {
+        return dayCount;
+    }
+
+    /**
+     * Get the days a service runs on, as a `BitSet` over days since `getFirstDay()`.
+     * @param service The ordinal of the service.
+     */
+    public BitSet getServiceDays(int service) {
+        return serviceDays[service];
+    }
+
+    /**
+     * Check whether a service runs on a given date.
+     * @param service The ordinal of the service.
+     */
+    public boolean isActive(int service, LocalDate date) {
+        long day = date.toEpochDay() - firstDay.toEpochDay();
+        return day >= 0 && day < dayCount && serviceDays[service].get((int) day);
+    }
+
+    /**
+     * Get the trips that run on a given date.
+     * @return A `BitSet` where bit `t` is set if the trip with ordinal `t` runs on `date`.
+     * Trips without a service always run. Don't modify it; it's shared with other callers.
+     */
+    public synchronized BitSet getActiveTrips(LocalDate date) {
+        BitSet activeTrips = activeTripsCache.get(date);
+        if (activeTrips != null) return activeTrips;
+
+        long day = date.toEpochDay() - firstDay.toEpochDay();
+        boolean inFeed = day >= 0 && day < dayCount;
+        BitSet activeServices = new BitSet(serviceDays.length);
+        for (int service = 0; service < serviceDays.length; service++) {
+            if (inFeed && serviceDays[service].get((int) day)) activeServices.set(service);
+        }
+
+        activeTrips = new BitSet(tripServices.length);
+        for (int trip = 0; trip < tripServices.length; trip++) {
+            int service = tripServices[trip];
+            if (service < 0 || activeServices.get(service)) activeTrips.set(trip);
+        }
+        activeTripsCache.put(date, activeTrips);
+        return activeTrips;
+    }
+
+    /**
+     * Compiles the weekly schedules of the services and the exceptions of "calendar_dates.txt"
+     * into a `ServiceCalendar`.
+     */
+    public static class Builder {
+        /// One row of "calendar_dates.txt".
+        private record CalendarDate(int service, LocalDate date, boolean added) {}
+
+        private final List<CalendarDate> calendarDates = new ArrayList<>();
+
+        /**
+         * Add an exception to the weekly schedule of a service.
+         * @param service The ordinal of the service.
+         * @param date The date of the exception.
+         * @param added True if the service runs on `date` (`exception_type` 1), false if it
+         *              doesn't (`exception_type` 2).
+         */
+        public void addException(int service, LocalDate date, boolean added) {
+            calendarDates.add(new CalendarDate(service, date, added));
+        }
+
+        /**
+         * Build the calendar.
+         * @param services All services, by ordinal.
+         * @param trips All trips, by ordinal.
+         */
+        public ServiceCalendar build(TransitTrip.TripService[] services, TransitTrip[] trips) {
+            LocalDate[] startDates = new LocalDate[services.length];
+            LocalDate[] endDates = new LocalDate[services.length];
+            LocalDate firstDay = null;
+            LocalDate lastDay = null;
+            for (int i = 0; i < services.length; i++) {
+                startDates[i] = parseDate(services[i].startDate());
+                endDates[i] = parseDate(services[i].endDate());
+                if (startDates[i] == null || endDates[i] == null) continue;
+                if (firstDay == null || startDates[i].isBefore(firstDay)) firstDay = startDates[i];
+                if (lastDay == null || endDates[i].isAfter(lastDay)) lastDay = endDates[i];
+            }
+            for (CalendarDate calendarDate : calendarDates) {
+                if (firstDay == null || calendarDate.date.isBefore(firstDay)) firstDay = calendarDate.date;
+                if (lastDay == null || calendarDate.date.isAfter(lastDay)) lastDay = calendarDate.date;
+            }
+            if (firstDay == null) {
+                firstDay = LocalDate.now();
+                lastDay = firstDay.minusDays(1);
+            }
+            int dayCount = (int) (lastDay.toEpochDay() - firstDay.toEpochDay() + 1);
+
+            // Weekly schedules: walk each service's date range once.
+            BitSet[] serviceDays = new BitSet[services.length];
+            for (int i = 0; i < services.length; i++) {
+                serviceDays[i] = new BitSet(dayCount);
+                if (startDates[i] == null || endDates[i] == null) continue;
+                int day = (int) (startDates[i].toEpochDay() - firstDay.toEpochDay());
+                for (LocalDate date = startDates[i]; !date.isAfter(endDates[i]); date = date.plusDays(1), day++) {
+                    if (services[i].runsOn(date.getDayOfWeek())) serviceDays[i].set(day);
+                }
+            }
+
+            // Then the exceptions.
+            for (CalendarDate calendarDate : calendarDates) {
+                int day = (int) (calendarDate.date.toEpochDay() - firstDay.toEpochDay());
+                serviceDays[calendarDate.service].set(day, calendarDate.added);
+            }
+
+            return new ServiceCalendar(firstDay, dayCount, serviceDays, trips);
+        }
+
+        private static LocalDate parseDate(String date) {
+            if (date == null) return null;
+            try {
+                return LocalDate.parse(date, DateTimeFormatter.BASIC_ISO_DATE);
+            } catch (DateTimeParseException e) {
+                System.out.println("Invalid GTFS service date " + date);
+                return null;
+            }
+        }
+    }
+}
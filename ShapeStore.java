@@ -0,0 +1,201 @@
+package edu.vassar.cmpu203.myfirstapplication.Model;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * ShapeStore keeps the points of all `TripShape`s compressed in one direct (or memory-mapped)
+ * buffer instead of one `Coordinates` object per point.
+ * <p>
+ * Coordinates are stored in fixed point with 6 decimals (E6, about 10 cm), as the difference from
+ * the previous point of the shape. Consecutive shape points are close, so the differences are small
+ * and are written as zigzag varints (1-3 bytes each instead of 8 for a double). Shapes are decoded
+ * on demand. Shapes with exactly the same points (e.g. the same track used by several routes) are
+ * stored once.
+ */
+public class ShapeStore {
+    /// Fixed-point scale: degrees * 1e6.
+    public static final double E6 = 1_000_000.0;
+
+    private final ByteBuffer data;
+    /// Where each shape starts in `data`.
+    private final int[] offsets;
+    private final int[] pointCounts;
+
+    /**
+     * Receives the points of a shape as they are decoded.
+     */
+    public interface PointVisitor {
+        void visit(int index, double latitude, double longitude);
+    }
+
+    /**
+     * Constructor for ShapeStore. The buffer is used as it is, not copied.
+     * @param data The encoded shapes.
+     * @param offsets Where each shape starts in `data`.
+     * @param pointCounts The number of points of each shape.
+     */
+    public ShapeStore(ByteBuffer data, int[] offsets, int[] pointCounts) {
+        this.data = data;
+        this.offsets = offsets;
+        this.pointCounts = pointCounts;
+    }
+
+    /**
+     * Get the encoded shapes.
+     */
+    public ByteBuffer getData() {
+        return data.duplicate();
+    }
+
+    /**
+     * Get where each shape starts in `getData()`.
+     */
+    public int[] getOffsets() {
+        return offsets;
+    }
+
+    /**
+     * Get the number of points of each shape.
+     */
+    public int[] getPointCounts() {
+        return pointCounts;
+    }
+
+    /**
+     * Get the number of distinct shapes in the store.
+     */
+    public int getShapeCount() {
+        return offsets.length;
+    }
+
+    /**
+     * Get the number of points of a shape.
+     */
+    public int getPointCount(int shape) {
+        return pointCounts[shape];
+    }
+
+    /**
+     * Decode the points of a shape in order, without allocating.
+     */
+    public void forEachPoint(int shape, PointVisitor visitor) {
+        int position = offsets[shape];
+        int latitude = 0;
+        int longitude = 0;
+        for (int i = 0; i < pointCounts[shape]; i++) {
+            // Decode two zigzag varints; use absolute reads so the buffer can be shared between
+            // threads.
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data.get(position++);
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            latitude += (value >>> 1) ^ -(value & 1);
+
+            value = 0;
+            shift = 0;
+            do {
+                b = data.get(position++);
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            longitude += (value >>> 1) ^ -(value & 1);
+
+            visitor.visit(i, latitude / E6, longitude / E6);
+        }
+    }
+
+    /**
+     * Encodes shapes into a `ShapeStore`.
+     */
+    public static class Builder {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final Map<ShapeKey, Integer> shapeIndices = new HashMap<>();
+        private int[] offsets = new int[256];
+        private int[] pointCounts = new int[256];
+        private int shapeCount = 0;
+
+        /**
+         * Add a shape; the points are given in fixed point (degrees * `E6`).
+         * @return The index of the shape in the store. If the store already has a shape with the
+         *         same points, that shape's index.
+         */
+        public int add(int[] latitudesE6, int[] longitudesE6, int pointCount) {
+            ShapeKey key = new ShapeKey(Arrays.copyOf(latitudesE6, pointCount),
+                    Arrays.copyOf(longitudesE6, pointCount));
+            Integer existing = shapeIndices.get(key);
+            if (existing != null) return existing;
+
+            if (shapeCount == offsets.length) {
+                offsets = Arrays.copyOf(offsets, shapeCount * 2);
+                pointCounts = Arrays.copyOf(pointCounts, shapeCount * 2);
+            }
+            offsets[shapeCount] = bytes.size();
+            pointCounts[shapeCount] = pointCount;
+            int previousLatitude = 0;
+            int previousLongitude = 0;
+            for (int i = 0; i < pointCount; i++) {
+                writeZigzag(latitudesE6[i] - previousLatitude);
+                writeZigzag(longitudesE6[i] - previousLongitude);
+                previousLatitude = latitudesE6[i];
+                previousLongitude = longitudesE6[i];
+            }
+            shapeIndices.put(key, shapeCount);
+            return shapeCount++;
+        }
+
+        /**
+         * Copy the encoded shapes into a direct buffer and build the store.
+         */
+        public ShapeStore build() {
+            byte[] encoded = bytes.toByteArray();
+            ByteBuffer data = ByteBuffer.allocateDirect(encoded.length);
+            data.put(encoded).flip();
+            return new ShapeStore(data.asReadOnlyBuffer(),
+                    Arrays.copyOf(offsets, shapeCount), Arrays.copyOf(pointCounts, shapeCount));
+        }
+
+        private void writeZigzag(int value) {
+            int zigzag = (value << 1) ^ (value >> 31);
+            while ((zigzag & ~0x7F) != 0) {
+                bytes.write((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            bytes.write(zigzag);
+        }
+    }
+
+    /**
+     * The points of a shape, compared by value to find identical shapes.
+     */
+    private static final class ShapeKey {
+        private final int[] latitudes;
+        private final int[] longitudes;
+        private final int hash;
+
+        ShapeKey(int[] latitudes, int[] longitudes) {
+            this.latitudes = latitudes;
+            this.longitudes = longitudes;
+            this.hash = 31 * Arrays.hashCode(latitudes) + Arrays.hashCode(longitudes);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof ShapeKey other
+                    && Arrays.equals(latitudes, other.latitudes)
+                    && Arrays.equals(longitudes, other.longitudes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package edu.vassar.cmpu203.myfirstapplication.Model;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SimplifiedLine is a level-of-detail pyramid of a polyline (e.g. the geometry of a
+ * `BestRoute.Step`), so a map can draw a line with only as many points as the zoom level can show.
+ * <p>
+ * The points are kept once, in full resolution. Each level is only the indices of the points it
+ * keeps, found with Douglas-Peucker simplification at a tolerance of about one screen pixel at the
+ * level's zoom. Each level is simplified from the previous, finer one, so the points of a coarser
+ * level are always a subset of the finer levels.
+ */
+public class SimplifiedLine {
+    /// The zoom levels (as osmdroid / web mercator zooms) a level is built for, finest first. Above
+    /// the first zoom the full line is used.
+    private static final int[] LEVEL_ZOOMS = {16, 14, 12, 10, 8};
+    /// How far (in pixels) a simplified line may stray from the original one.
+    private static final double TOLERANCE_PIXELS = 1.0;
+    /// Meters per pixel at zoom 0 on the equator with 256-pixel tiles.
+    private static final double METERS_PER_PIXEL_AT_ZOOM_0 = 156_543.034;
+    private static final double METERS_PER_DEGREE = 111_320.0;
+
+    /// The points, interleaved: latitude, longitude, latitude, ...
+    private final double[] points;
+    /// The indices of the points of each level; `levels[0]` is the full line.
+    private final int[][] levels;
+
+    private SimplifiedLine(double[] points, int[][] levels) {
+        this.points = points;
+        this.levels = levels;
+    }
+
+    /**
+     * Build the pyramid of a list of coordinates, e.g. `BestRoute.Step.getGeometry()`.
+     */
+    public static SimplifiedLine of(List<Coordinates> coordinates) {
+        if (coordinates instanceof Polyline polyline) return of(polyline.getPoints());
+        double[] points = new double[coordinates.size() * 2];
+        for (int i = 0; i < coordinates.size(); i++) {
+            Coordinates point = coordinates.get(i);
+            points[i * 2] = point.getLatitude();
+            points[i * 2 + 1] = point.getLongitude();
+        }
+        return of(points);
+    }
+
+    /**
+     * Build the pyramid of interleaved points (latitude, longitude, latitude, ...). The array is
+     * used as it is, not copied.
+     */
+    public static SimplifiedLine of(double[] points) {
+        int pointCount = points.length / 2;
+        int[][] levels = new int[LEVEL_ZOOMS.length + 1][];
+        levels[0] = new int[pointCount];
+        for (int i = 0; i < pointCount; i++) levels[0][i] = i;
+        if (pointCount == 0) {
+            for (int level = 1; level < levels.length; level++) levels[level] = levels[0];
+            return new SimplifiedLine(points, levels);
+        }
+
+        // Project to meters around the line, so tolerances are the same in both directions. Lines
+        // are at most a few hundred kilometers long, so an equirectangular projection is enough.
+        double latitudeScale = Math.cos(Math.toRadians(points[0]));
+        double metersPerDegreeLongitude = METERS_PER_DEGREE * latitudeScale;
+        double[] x = new double[pointCount];
+        double[] y = new double[pointCount];
+        for (int i = 0; i < pointCount; i++) {
+            x[i] = points[i * 2 + 1] * metersPerDegreeLongitude;
+            y[i] = points[i * 2] * METERS_PER_DEGREE;
+        }
+
+        for (int level = 1; level < levels.length; level++) {
+            double metersPerPixel = METERS_PER_PIXEL_AT_ZOOM_0 * latitudeScale / (1 << LEVEL_ZOOMS[level - 1]);
+            levels[level] = simplify(levels[level - 1], x, y, TOLERANCE_PIXELS * metersPerPixel);
+        }
+        return new SimplifiedLine(points, levels);
+    }
+
+    /**
+     * Douglas-Peucker over the points `indices` of a line, without recursion.
+     * @return The indices of the points that are kept, in order.
+     */
+    private static int[] simplify(int[] indices, double[] x, double[] y, double tolerance) {
+        int count = indices.length;
+        if (count <= 2) return indices;
+        boolean[] keep = new boolean[count];
+        keep[0] = true;
+        keep[count - 1] = true;
+        double toleranceSquared = tolerance * tolerance;
+
+        // Ranges (first, last) of `indices` still to simplify.
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = count - 1;
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            double farthest = 0;
+            int farthestIndex = -1;
+            for (int i = first + 1; i < last; i++) {
+                double distance = segmentDistanceSquared(
+                        x[indices[i]], y[indices[i]],
+                        x[indices[first]], y[indices[first]],
+                        x[indices[last]], y[indices[last]]);
+                if (distance > farthest) {
+                    farthest = distance;
+                    farthestIndex = i;
+                }
+            }
+            if (farthestIndex < 0 || farthest <= toleranceSquared) continue;
+
+            keep[farthestIndex] = true;
+            if (top + 4 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+            stack[top++] = first;
+            stack[top++] = farthestIndex;
+            stack[top++] = farthestIndex;
+            stack[top++] = last;
+        }
+
+        int kept = 0;
+        for (boolean k : keep) if (k) kept++;
+        int[] result = new int[kept];
+        for (int i = 0, j = 0; i < count; i++) {
+            if (keep[i]) result[j++] = indices[i];
+        }
+        return result;
+    }
+
+    /**
+     * The squared distance from point p to the segment a-b.
+     */
+    private static double segmentDistanceSquared(double px, double py,
+                                                 double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        double ex = px - (ax + t * dx);
+        double ey = py - (ay + t * dy);
+        return ex * ex + ey * ey;
+    }
+
+    /**
+     * Get the number of levels; level 0 is the full line, the last level is the coarsest.
+     */
+    public int getLevelCount() {
+        return levels.length;
+    }
+
+    /**
+     * Get the level to draw at a zoom level of the map.
+     */
+    public static int levelForZoom(double zoom) {
+        int level = 0;
+        while (level < LEVEL_ZOOMS.length && zoom < LEVEL_ZOOMS[level]) level++;
+        return level;
+    }
+
+    /**
+     * Get the number of points of a level.
+     */
+    public int getPointCount(int level) {
+        return levels[level].length;
+    }
+
+    /**
+     * Visit the points of a level in order, without allocating.
+     */
+    public void forEachPoint(int level, ShapeStore.PointVisitor visitor) {
+        int[] indices = levels[level];
+        for (int i = 0; i < indices.length; i++) {
+            visitor.visit(i, points[indices[i] * 2], points[indices[i] * 2 + 1]);
+        }
+    }
+
+    /**
+     * Get the points to draw at a zoom level of the map. The list is a view; its `Coordinates`
+     * are created as they are read.
+     */
+    public List<Coordinates> getPoints(double zoom) {
+        int[] indices = levels[levelForZoom(zoom)];
+        return new AbstractList<Coordinates>() {
+            @Override
+            public Coordinates get(int index) {
+                return new Coordinates(points[indices[index] * 2], points[indices[index] * 2 + 1]);
+            }
+
+            @Override
+            public int size() {
+                return indices.length;
+            }
+        };
+    }
+}
@@ -3,7 +3,9 @@ package edu.vassar.cmpu203.myfirstapplication.Model;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
@@ -18,6 +20,13 @@ import java.util.Set;
  * by a `Model.TransitRoute`.
  */
 public class StationDetails {
+    /// The values of `getAccessible()`, from the ADA columns of the MTA's station list.
+    public static final String ACCESSIBLE = "Accessible";
+    public static final String PARTIALLY_ACCESSIBLE = "Partially Accessible";
+    public static final String NOT_ACCESSIBLE = "Not Accessible";
+
+    /// The index of the station in `GTFSData`, or -1 for stations that aren't part of it.
+    private final int ordinal;
     private final String id;
     private final String name;
     private final Coordinates coords;
@@ -25,6 +34,7 @@ public class StationDetails {
     private final String accessible;
     private @Nullable StationDetails parent = null;
     private final ArrayList<StationDetails> children = new ArrayList<>();
+    private @Nullable DepartureBoard departureBoard = null;
 
     /**
      * Constructor for Station.
@@ -37,6 +47,22 @@ public class StationDetails {
     public StationDetails(
             String id, String name, Coordinates coords, Set<TransitRoute> transitRoutes,
             String accessible) {
+        this(-1, id, name, coords, transitRoutes, accessible);
+    }
+
+    /**
+     * Constructor for Station with its ordinal in `GTFSData`.
+     * @param ordinal
+     * @param id
+     * @param name
+     * @param coords
+     * @param transitRoutes
+     * @param accessible
+     */
+    public StationDetails(
+            int ordinal, String id, String name, Coordinates coords, Set<TransitRoute> transitRoutes,
+            String accessible) {
+        this.ordinal = ordinal;
         this.id = id;
         this.name = name;
         this.coords = coords;
@@ -44,6 +70,14 @@ public class StationDetails {
         this.accessible = accessible;
     }
 
+    /**
+     * Get the index of the station in `GTFSData.getStations()`.
+     * @return The ordinal, or -1 if the station isn't part of the loaded GTFS data.
+     */
+    public int getOrdinal() {
+        return ordinal;
+    }
+
     /**
      * Get the id of the station.
      * @return
@@ -84,6 +118,30 @@ public class StationDetails {
         this.parent = parent;
         parent.children.add(this);
     }
+    /**
+     * Link this station to the departure board indexing its departures.
+     * @param departureBoard
+     */
+    public void linkDepartureBoard(DepartureBoard departureBoard) {
+        this.departureBoard = departureBoard;
+    }
+
+    /**
+     * Get the next departures from this station and, for a parent station, from all its
+     * children (platforms), in order of departure.
+     * @param time The earliest departure time, in the agency's time zone.
+     * @param limit The maximum number of departures.
+     * @return The departures, or an empty list if the station isn't part of the loaded GTFS data.
+     */
+    public List<DepartureBoard.Departure> nextDepartures(LocalDateTime time, int limit) {
+        if (departureBoard == null) return Collections.emptyList();
+        if (children.isEmpty()) return departureBoard.nextDepartures(this, time, limit);
+
+        List<StationDetails> stations = new ArrayList<>(children);
+        stations.add(this);
+        return departureBoard.nextDepartures(stations, time, limit);
+    }
+
     /**
     * Adds a route to the list of routes that pass through this station.
     * Duplicates ignored.
@@ -117,6 +175,14 @@ public class StationDetails {
         return accessible;
     }
 
+    /**
+     * Check whether the station can be used without stairs (`ACCESSIBLE`); partially accessible
+     * stations aren't.
+     */
+    public boolean isStepFree() {
+        return ACCESSIBLE.equals(accessible);
+    }
+
     /**
      * Get all the routes of this station and all its children.
      * @return The recursive routes sorted in alphabetical order.
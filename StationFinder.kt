@@ -6,13 +6,13 @@ import edu.vassar.cmpu203.myfirstapplication.Model.Destination
 import edu.vassar.cmpu203.myfirstapplication.Model.Station
 import edu.vassar.cmpu203.myfirstapplication.Model.StationDetails
 import edu.vassar.cmpu203.myfirstapplication.R
+import kotlinx.coroutines.CompletableJob
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
-import java.io.BufferedReader
 import java.io.IOException
-import java.io.InputStreamReader
 import java.util.concurrent.locks.ReentrantLock
 import java.util.function.Consumer
 import kotlin.concurrent.withLock
@@ -156,9 +156,12 @@ class StationFinder(private val scope: CoroutineScope, context: Context, gtfsSer
 
     /**
      * Load nearby stations close to the given destination.
+     * Returns a handle to cancel the request; `onSuccess` is then never called.
      */
-    fun findNearbyStations(dest: Destination, onSuccess: Consumer<List<Station>>) {
-        updateState(Event.RequestNearbyStations(dest, onSuccess))
+    fun findNearbyStations(dest: Destination, onSuccess: Consumer<List<Station>>): Job {
+        val request = Job()
+        updateState(Event.RequestNearbyStations(dest, deliverUnlessCancelled(request, onSuccess)))
+        return request
     }
 
     private fun findStationsNear(dest: Destination, stationList: Collection<Station>): List<Station> {
@@ -178,10 +181,27 @@ class StationFinder(private val scope: CoroutineScope, context: Context, gtfsSer
 
     /**
      * Load details for a station.
+     * Returns a handle to cancel the request; the callbacks are then never called.
      * Precondition: The given station can only be a station vended by `loadNearbyStations`
      */
-    fun findStationDetails(station: Station, onSuccess: Consumer<StationDetails>, onFailure: Consumer<String>) {
-        updateState(Event.RequestStationDetails(station, onSuccess, onFailure))
+    fun findStationDetails(station: Station, onSuccess: Consumer<StationDetails>, onFailure: Consumer<String>): Job {
+        val request = Job()
+        updateState(Event.RequestStationDetails(station,
+            deliverUnlessCancelled(request, onSuccess), deliverUnlessCancelled(request, onFailure)))
+        return request
+    }
+
+    /**
+     * Wrap a callback of a request so it's only called if the request wasn't cancelled, and then
+     * completes the request. The work itself is all local, so there's nothing else to stop.
+     */
+    private fun <T> deliverUnlessCancelled(request: CompletableJob, callback: Consumer<T>): Consumer<T> {
+        return Consumer { result ->
+            if (request.isActive) {
+                callback.accept(result)
+                request.complete()
+            }
+        }
     }
 
     private fun getStationDetails(station: Station, stationDetails: Map<Coordinates, StationDetails>): StationDetails? {
@@ -204,43 +224,34 @@ class StationFinder(private val scope: CoroutineScope, context: Context, gtfsSer
     }
 
     public fun loadStationListSync(context: Context): Map<Coordinates, Station> {
-        var line = ""
-        val splitBy = ","
         val stations = HashMap<Coordinates, Station>()
 
         try {
             // Open station_list.csv
-            val br = BufferedReader(
-                InputStreamReader(
-                    context.resources.openRawResource(R.raw.station_list)
-                )
-            )
-            br.readLine()
-
-            // Consume header row:
-            // [0: StationID, 1: Line, 2: Stop Name, 3: Borough, 4: Daytime Routes, 5: Structure, 6: GTFS Latitude,
-            //      7: GTFS Longitude, 8: North Direction Label, 9: South Direction Label,
-            //      10: ADA, 11: ADA Northbound, 12: ADA Southbound, 13: ADA Notes
-            while ((br.readLine().also { line = it }) != null) {
-                // Parse a single Model.Station
-                val stationDetails =
-                    line.split(splitBy.toRegex()).dropLastWhile { it.isEmpty() }
-                        .toTypedArray() // use comma as separator
-                val borough = stationDetails[3]
-                val stationName = stationDetails[2]
-                val latitude = stationDetails[6].toDouble()
-                val longitude = stationDetails[7].toDouble()
-                val accessible = stationDetails[10]
-                val coordinates = Coordinates(latitude, longitude)
-                var accessibilityNote = "";
-                if (stationDetails.size > 13) {
-                    accessibilityNote = stationDetails[13];
+            CsvTokenizer(context.resources.openRawResource(R.raw.station_list)).use { reader ->
+                // Consume header row:
+                // [0: StationID, 1: Line, 2: Stop Name, 3: Borough, 4: Daytime Routes, 5: Structure, 6: GTFS Latitude,
+                //      7: GTFS Longitude, 8: North Direction Label, 9: South Direction Label,
+                //      10: ADA, 11: ADA Northbound, 12: ADA Southbound, 13: ADA Notes
+                reader.nextRow()
+                while (reader.nextRow()) {
+                    // Parse a single Model.Station
+                    val borough = reader.getString(3)
+                    val stationName = reader.getString(2)
+                    val latitude = reader.getDouble(6)
+                    val longitude = reader.getDouble(7)
+                    val accessible = reader.getString(10)
+                    val coordinates = Coordinates(latitude, longitude)
+                    var accessibilityNote = "";
+                    if (reader.fieldCount > 13) {
+                        accessibilityNote = reader.getString(13);
+                    }
+                    val newStation = Station(
+                            stationName,
+                            coordinates,
+                            accessible, borough, accessibilityNote)
+                    stations[coordinates] = newStation
                 }
-                val newStation = Station(
-                        stationName,
-                        coordinates,
-                        accessible, borough, accessibilityNote)
-                stations[coordinates] = newStation
             }
         } catch (e: IOException) {
             println("Error parsing file" + e.message)
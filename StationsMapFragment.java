@@ -5,6 +5,7 @@ import static java.lang.Double.min;
 
 import android.app.AlertDialog;
 import android.content.Context;
+import android.graphics.Point;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
@@ -26,12 +27,21 @@ import android.widget.AutoCompleteTextView;
 import android.widget.Button;
 import android.widget.EditText;
 
+import org.osmdroid.events.MapEventsReceiver;
+import org.osmdroid.events.MapListener;
+import org.osmdroid.events.ScrollEvent;
+import org.osmdroid.events.ZoomEvent;
 import org.osmdroid.tileprovider.tilesource.TileSourceFactory;
 import org.osmdroid.util.BoundingBox;
 import org.osmdroid.util.GeoPoint;
 import org.osmdroid.views.MapView;
+import org.osmdroid.views.overlay.MapEventsOverlay;
 import org.osmdroid.views.overlay.Marker;
+import org.osmdroid.views.overlay.Polygon;
+import org.osmdroid.views.overlay.Polyline;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Consumer;
 
@@ -41,8 +51,9 @@ import edu.vassar.cmpu203.myfirstapplication.Controller.StateEvent;
 import edu.vassar.cmpu203.myfirstapplication.MainActivity;
 import edu.vassar.cmpu203.myfirstapplication.Model.Coordinates;
 import edu.vassar.cmpu203.myfirstapplication.Model.Destination;
+import edu.vassar.cmpu203.myfirstapplication.Model.SimplifiedLine;
 import edu.vassar.cmpu203.myfirstapplication.Model.Station;
-import edu.vassar.cmpu203.myfirstapplication.Model.StationDetails;
+import edu.vassar.cmpu203.myfirstapplication.Model.TransferGraph;
 import edu.vassar.cmpu203.myfirstapplication.databinding.FragmentStationsMapBinding;
 //import edu.vassar.cmpu203.myfirstapplication.Controller.StationFinder;
 import androidx.core.content.ContextCompat;
@@ -75,6 +86,26 @@ public class StationsMapFragment extends Fragment implements IStationsMapView, j
 
     private GeoPoint finalDestColor = null;
 
+    /// The color of the steps of a route drawn on the map.
+    public static final int ROUTE_LINE_COLOR = 0xFF1565C0;
+    /// The lines shown on the map and their overlays, redrawn with fewer points when zoomed out.
+    private final List<SimplifiedLine> shownLines = new ArrayList<>();
+    private final List<Polyline> shownLineOverlays = new ArrayList<>();
+    /// The `SimplifiedLine` level the shown lines are drawn at.
+    private int shownLineLevel = -1;
+
+    /// The circles of the reachability map, around each station that can be reached.
+    private final List<Polygon> reachabilityOverlays = new ArrayList<>();
+    /// A reachability circle is as far as one can walk in the time left, up to this far.
+    private static final double MAX_REACHABILITY_RADIUS_METERS = 800;
+    /// Walking speed on the reachability map, taking detours into account.
+    private static final double REACHABILITY_WALK_METERS_PER_SECOND =
+            TransferGraph.WALK_METERS_PER_SECOND / TransferGraph.WALK_DETOUR_FACTOR;
+    /// How far ahead the reachability map shown by long-pressing a station looks.
+    private static final int REACHABILITY_MINUTES = 30;
+    /// How far from a station marker, on the screen, a long press still picks it.
+    private static final float MARKER_TOUCH_DP = 32;
+
     /**
      * Constructor for StationsMapFragment. Initializes ctx and controller.
      *
@@ -106,6 +137,18 @@ public class StationsMapFragment extends Fragment implements IStationsMapView, j
         binding = FragmentStationsMapBinding.inflate(inflater);
         map = binding.map;
         setUpMapWidget(map);
+        map.addMapListener(new MapListener() {
+            @Override
+            public boolean onScroll(ScrollEvent event) {
+                return false;
+            }
+
+            @Override
+            public boolean onZoom(ZoomEvent event) {
+                updateLineLevel(event.getZoomLevel());
+                return false;
+            }
+        });
 
         // Set up the `startDestInput` text field.
         startDestInput = binding.startDestination;
@@ -344,7 +387,7 @@ public class StationsMapFragment extends Fragment implements IStationsMapView, j
         map.setExpectedCenter(initialLoc);
 
         // Add marker overlay
-        map.getOverlays().clear();
+        clearOverlays();
         addMarker(R.drawable.initial_destination_pin, initialDestination.getName(),
                 initialDestination.getCoords(),
                 ctx, map);
@@ -364,7 +407,7 @@ public class StationsMapFragment extends Fragment implements IStationsMapView, j
                 finalDestination.getCoords().getLongitude());
         GeoPoint center = new GeoPoint((initialLoc.getLatitude() + finalLoc.getLatitude()) / 2, (initialLoc.getLongitude() + finalLoc.getLongitude()) / 2);
 
-        map.getOverlays().clear();
+        clearOverlays();
 
         // Change color of current and final locations
         addMarker(R.drawable.initial_destination_pin,
@@ -453,7 +496,7 @@ public class StationsMapFragment extends Fragment implements IStationsMapView, j
     }
 
     public void showNearbyStations(Destination initialDestination, List<Station> nearbyStations, Consumer<Station> onStationSelection) {
-        map.getOverlays().clear();
+        clearOverlays();
 
         GeoPoint initialLocation = new GeoPoint(
                 initialDestination.getCoords().getLatitude(),
@@ -479,10 +522,50 @@ public class StationsMapFragment extends Fragment implements IStationsMapView, j
 
             stationMarker.setOnMarkerClickListener(listener);
         }
+
+        // Long-pressing a station shows what can be reached from it, leaving now. Markers don't
+        // take long presses, so they reach this overlay below them.
+        map.getOverlays().add(0, new MapEventsOverlay(new MapEventsReceiver() {
+            @Override
+            public boolean singleTapConfirmedHelper(GeoPoint p) {
+                return false;
+            }
+
+            @Override
+            public boolean longPressHelper(GeoPoint p) {
+                Station station = findStationAt(p, nearbyStations);
+                if (station == null) return false;
+                System.out.println("Showing reachability from " + station.getName() + station.getCoords());
+                showReachability(station, controller.getCurrentDateTime(), REACHABILITY_MINUTES);
+                return true;
+            }
+        }));
         // To update map
         map.invalidate();
     }
 
+    /**
+     * Find the station whose marker is under `point`, if any: the closest one within
+     * `MARKER_TOUCH_DP` of it on the screen.
+     */
+    @Nullable
+    private Station findStationAt(GeoPoint point, List<Station> stations) {
+        Point touched = map.getProjection().toPixels(point, null);
+        double maxDistance = MARKER_TOUCH_DP * getResources().getDisplayMetrics().density;
+        Station closest = null;
+        double closestDistance = maxDistance;
+        for (Station station : stations) {
+            Point marker = map.getProjection().toPixels(new GeoPoint(
+                    station.getCoords().getLatitude(), station.getCoords().getLongitude()), null);
+            double distance = Math.hypot(marker.x - touched.x, marker.y - touched.y);
+            if (distance <= closestDistance) {
+                closest = station;
+                closestDistance = distance;
+            }
+        }
+        return closest;
+    }
+
     public void activateRouteButton(Runnable onStartRoute) {
         goButton.setEnabled(true);
 
@@ -494,5 +577,102 @@ public class StationsMapFragment extends Fragment implements IStationsMapView, j
         };
         goButton.setOnClickListener(listener);
     }
-}
 
+    /**
+     * Remove every overlay (markers, lines and circles) from the map.
+     */
+    private void clearOverlays() {
+        map.getOverlays().clear();
+        shownLines.clear();
+        shownLineOverlays.clear();
+        reachabilityOverlays.clear();
+    }
+
+    /**
+     * Draw lines (e.g. the shapes of trips or the steps of a route) on the map. Each line is drawn
+     * with the points of the `SimplifiedLine` level matching the zoom, and redrawn when the zoom
+     * crosses to another level.
+     * @param lines The lines to draw; their pyramids should be built beforehand, off the main
+     *              thread (see `GeometryCache`).
+     * @param color The color of the lines.
+     */
+    public void showLines(List<SimplifiedLine> lines, int color) {
+        map.getOverlays().removeAll(shownLineOverlays);
+        shownLines.clear();
+        shownLineOverlays.clear();
+
+        for (SimplifiedLine line : lines) {
+            Polyline overlay = new Polyline(map);
+            overlay.getOutlinePaint().setColor(color);
+            shownLines.add(line);
+            shownLineOverlays.add(overlay);
+            // Draw lines below the markers.
+            map.getOverlays().add(0, overlay);
+        }
+        shownLineLevel = -1;
+        updateLineLevel(map.getZoomLevelDouble());
+    }
+
+    /**
+     * Set the points of the shown lines to the level of `zoom`, if it isn't already.
+     */
+    private void updateLineLevel(double zoom) {
+        int level = SimplifiedLine.levelForZoom(zoom);
+        if (level == shownLineLevel) return;
+        shownLineLevel = level;
+
+        for (int i = 0; i < shownLines.size(); i++) {
+            SimplifiedLine line = shownLines.get(i);
+            List<GeoPoint> points = new ArrayList<>(line.getPointCount(level));
+            line.forEachPoint(level, (index, latitude, longitude) ->
+                    points.add(new GeoPoint(latitude, longitude)));
+            shownLineOverlays.get(i).setPoints(points);
+        }
+        map.invalidate();
+    }
+
+    /**
+     * Show which stations can be reached from `origin` leaving at `departure` within `maxMinutes`:
+     * a circle around each station, as far as one can walk in the time left, colored from green
+     * (reached right away) to red (reached at the end). Can be called again right away, e.g. as
+     * the user drags the time; the map then shows the last call.
+     */
+    public void showReachability(Station origin, LocalDateTime departure, int maxMinutes) {
+        int departureSeconds = departure.toLocalTime().toSecondOfDay();
+        int maxSeconds = maxMinutes * 60;
+        controller.findReachability(origin, departure, maxMinutes, (stations, arrivals) -> {
+            hideReachability();
+            for (int s = 0; s < stations.length; s++) {
+                // Draw each station once, rather than for each of its platforms.
+                if (arrivals[s] < 0 || stations[s].getParent() != null) continue;
+                int travelSeconds = arrivals[s] - departureSeconds;
+                double radius = Math.min(MAX_REACHABILITY_RADIUS_METERS,
+                        (maxSeconds - travelSeconds) * REACHABILITY_WALK_METERS_PER_SECOND);
+                if (radius <= 0) continue;
+
+                float hue = 120f * (1 - Math.min(1f, (float) travelSeconds / maxSeconds));
+                int color = android.graphics.Color.HSVToColor(new float[]{hue, 1f, 0.9f});
+                Polygon circle = new Polygon(map);
+                circle.setPoints(Polygon.pointsAsCircle(new GeoPoint(
+                        stations[s].getCoords().getLatitude(), stations[s].getCoords().getLongitude()), radius));
+                circle.getFillPaint().setColor((color & 0x00FFFFFF) | 0x40000000);
+                circle.getOutlinePaint().setColor(color);
+                circle.getOutlinePaint().setStrokeWidth(2f);
+                circle.setInfoWindow(null);
+                reachabilityOverlays.add(circle);
+                // Draw circles below the lines and markers.
+                map.getOverlays().add(0, circle);
+            }
+            map.invalidate();
+        });
+    }
+
+    /**
+     * Remove the reachability map, if it's shown.
+     */
+    public void hideReachability() {
+        map.getOverlays().removeAll(reachabilityOverlays);
+        reachabilityOverlays.clear();
+        map.invalidate();
+    }
+}
@@ -0,0 +1,394 @@
+package edu.vassar.cmpu203.myfirstapplication.Model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * StopTimeTable stores every GTFS "stop time" (one row of `stop_times.txt`) without storing each
+ * row. Most trips of a route visit exactly the same stops and only differ by when they start, so:
+ * <ul>
+ *     <li>Trips are grouped into patterns (see `TripPattern`); the stops of each pattern are
+ *     stored once.</li>
+ *     <li>The arrival and departure times of a trip are stored as offsets from its start time in
+ *     a travel-time profile. Trips with the same pattern and the same offsets share one
+ *     profile.</li>
+ *     <li>Each trip only stores its pattern, its profile and its start time.</li>
+ * </ul>
+ * Stations are referenced by their ordinal (their index in `getStations()`) and times are in
+ * seconds since the start of the service day (which can be more than 24 hours for trips running
+ * past midnight). `TransitTrip`s access their stop times through a `TripStopTimes` view.
+ * <p>
+ * Variable-length lists (the stops of a pattern, the trips of a pattern and the offsets of a
+ * profile) are stored back to back in one array, with an offsets array giving where each list
+ * starts: the stops of pattern `p` are `patternStops[patternStopOffsets[p]]` up to (excluding)
+ * `patternStops[patternStopOffsets[p + 1]]`.
+ */
+public class StopTimeTable {
+    private final StationDetails[] stations;
+    // Per trip
+    private final int[] tripPatterns;
+    private final int[] tripProfiles;
+    private final int[] tripStartSeconds;
+    // Per pattern
+    private final int[] patternStopOffsets;
+    private final int[] patternStops;
+    private final int[] patternTripOffsets;
+    private final int[] patternTrips;
+    // Per profile
+    private final int[] profileOffsets;
+    private final int[] profileArrivals;
+    private final int[] profileDepartures;
+
+    /**
+     * Constructor for StopTimeTable. The arrays are used as they are, not copied.
+     * @param stations The stations referenced by `patternStops`.
+     * @param tripPatterns The pattern of each trip.
+     * @param tripProfiles The travel-time profile of each trip.
+     * @param tripStartSeconds The departure time of each trip from its first stop.
+     * @param patternStopOffsets Where the stops of each pattern start in `patternStops`, followed
+     *                           by `patternStops.length`.
+     * @param patternStops The stops of all patterns, as indices into `stations`.
+     * @param patternTripOffsets Where the trips of each pattern start in `patternTrips`, followed
+     *                           by `patternTrips.length`.
+     * @param patternTrips The trips of all patterns; the trips of a pattern are sorted by their
+     *                     start time.
+     * @param profileOffsets Where the offsets of each profile start in `profileArrivals` and
+     *                       `profileDepartures`, followed by their length.
+     * @param profileArrivals The arrival time at each stop, relative to the trip's start time.
+     * @param profileDepartures The departure time from each stop, relative to the trip's start time.
+     */
+    public StopTimeTable(StationDetails[] stations,
+                         int[] tripPatterns, int[] tripProfiles, int[] tripStartSeconds,
+                         int[] patternStopOffsets, int[] patternStops,
+                         int[] patternTripOffsets, int[] patternTrips,
+                         int[] profileOffsets, int[] profileArrivals, int[] profileDepartures) {
+        this.stations = stations;
+        this.tripPatterns = tripPatterns;
+        this.tripProfiles = tripProfiles;
+        this.tripStartSeconds = tripStartSeconds;
+        this.patternStopOffsets = patternStopOffsets;
+        this.patternStops = patternStops;
+        this.patternTripOffsets = patternTripOffsets;
+        this.patternTrips = patternTrips;
+        this.profileOffsets = profileOffsets;
+        this.profileArrivals = profileArrivals;
+        this.profileDepartures = profileDepartures;
+    }
+
+    /**
+     * Get the stations that patterns refer to by index.
+     */
+    public StationDetails[] getStations() {
+        return stations;
+    }
+
+    /**
+     * Get the number of trips in the table.
+     */
+    public int getTripCount() {
+        return tripPatterns.length;
+    }
+
+    /**
+     * Get the number of stop patterns in the table.
+     */
+    public int getPatternCount() {
+        return patternStopOffsets.length - 1;
+    }
+
+    /**
+     * Get the number of distinct travel-time profiles in the table.
+     */
+    public int getProfileCount() {
+        return profileOffsets.length - 1;
+    }
+
+    /**
+     * Get a view over the stop times of one trip.
+     * @param trip The index of the trip in this table.
+     */
+    public TripStopTimes getTrip(int trip) {
+        return new TripStopTimes(this, trip);
+    }
+
+    /**
+     * Get a view over one stop pattern.
+     * @param pattern The index of the pattern in this table.
+     */
+    public TripPattern getPattern(int pattern) {
+        return new TripPattern(this, pattern);
+    }
+
+    /**
+     * Get the pattern of each trip.
+     */
+    public int[] getTripPatterns() {
+        return tripPatterns;
+    }
+
+    /**
+     * Get the travel-time profile of each trip.
+     */
+    public int[] getTripProfiles() {
+        return tripProfiles;
+    }
+
+    /**
+     * Get the departure time of each trip from its first stop.
+     */
+    public int[] getTripStartSeconds() {
+        return tripStartSeconds;
+    }
+
+    /**
+     * Get where the stops of each pattern start in `getPatternStops()`.
+     */
+    public int[] getPatternStopOffsets() {
+        return patternStopOffsets;
+    }
+
+    /**
+     * Get the stops of all patterns, as indices into `getStations()`.
+     */
+    public int[] getPatternStops() {
+        return patternStops;
+    }
+
+    /**
+     * Get where the trips of each pattern start in `getPatternTrips()`.
+     */
+    public int[] getPatternTripOffsets() {
+        return patternTripOffsets;
+    }
+
+    /**
+     * Get the trips of all patterns, each pattern's trips sorted by start time.
+     */
+    public int[] getPatternTrips() {
+        return patternTrips;
+    }
+
+    /**
+     * Get where the offsets of each profile start in `getProfileArrivals()` and
+     * `getProfileDepartures()`.
+     */
+    public int[] getProfileOffsets() {
+        return profileOffsets;
+    }
+
+    /**
+     * Get the arrival time at each stop, relative to the trip's start time, of all profiles.
+     */
+    public int[] getProfileArrivals() {
+        return profileArrivals;
+    }
+
+    /**
+     * Get the departure time from each stop, relative to the trip's start time, of all profiles.
+     */
+    public int[] getProfileDepartures() {
+        return profileDepartures;
+    }
+
+    /**
+     * Collects stop times in any order and groups them into patterns and profiles.
+     */
+    public static class Builder {
+        private final StationDetails[] stations;
+        private int size = 0;
+        private int[] trips = new int[1024];
+        private int[] sequences = new int[1024];
+        private int[] stops = new int[1024];
+        private int[] arrivals = new int[1024];
+        private int[] departures = new int[1024];
+
+        /**
+         * Constructor for Builder.
+         * @param stations The stations that stop times will refer to by index.
+         */
+        public Builder(StationDetails[] stations) {
+            this.stations = stations;
+        }
+
+        /**
+         * Add one stop time.
+         * @param trip The index of the trip.
+         * @param sequence The `stop_sequence`; only used to order the stops of the trip.
+         * @param stop The index of the station in `stations`.
+         * @param arrivalSeconds The arrival time in seconds since the start of the service day.
+         * @param departureSeconds The departure time in seconds since the start of the service day.
+         */
+        public void add(int trip, int sequence, int stop, int arrivalSeconds, int departureSeconds) {
+            if (size == trips.length) grow();
+            trips[size] = trip;
+            sequences[size] = sequence;
+            stops[size] = stop;
+            arrivals[size] = arrivalSeconds;
+            departures[size] = departureSeconds;
+            size++;
+        }
+
+        /**
+         * Sort the stop times by trip and sequence, group the trips into patterns and profiles,
+         * and build the table.
+         * @param tripCount The number of trips; trips are numbered from 0 to `tripCount - 1`.
+         */
+        public StopTimeTable build(int tripCount) {
+            // Counting sort by trip: count the rows of each trip, then place each row after the
+            // rows of the trips before it. This keeps the original order within a trip.
+            int[] tripOffsets = new int[tripCount + 1];
+            for (int i = 0; i < size; i++) tripOffsets[trips[i] + 1]++;
+            for (int t = 0; t < tripCount; t++) tripOffsets[t + 1] += tripOffsets[t];
+
+            int[] next = Arrays.copyOf(tripOffsets, tripCount);
+            int[] rowOrder = new int[size];
+            for (int i = 0; i < size; i++) rowOrder[next[trips[i]]++] = i;
+
+            // Feeds almost always list a trip's stops in order already, so a per-trip insertion
+            // sort by sequence is effectively a single pass.
+            for (int t = 0; t < tripCount; t++) {
+                for (int i = tripOffsets[t] + 1; i < tripOffsets[t + 1]; i++) {
+                    int row = rowOrder[i];
+                    int j = i - 1;
+                    while (j >= tripOffsets[t] && sequences[rowOrder[j]] > sequences[row]) {
+                        rowOrder[j + 1] = rowOrder[j];
+                        j--;
+                    }
+                    rowOrder[j + 1] = row;
+                }
+            }
+
+            // Group the trips: patterns by their stops, profiles by their pattern and offsets.
+            int[] tripPatterns = new int[tripCount];
+            int[] tripProfiles = new int[tripCount];
+            int[] tripStartSeconds = new int[tripCount];
+            Map<IntArrayKey, Integer> patternIndices = new HashMap<>();
+            Map<IntArrayKey, Integer> profileIndices = new HashMap<>();
+            IntList patternStopOffsets = new IntList();
+            IntList patternStops = new IntList();
+            IntList profileOffsets = new IntList();
+            IntList profileArrivals = new IntList();
+            IntList profileDepartures = new IntList();
+            patternStopOffsets.add(0);
+            profileOffsets.add(0);
+
+            for (int t = 0; t < tripCount; t++) {
+                int start = tripOffsets[t];
+                int length = tripOffsets[t + 1] - start;
+                int startSeconds = length == 0 ? 0 : departures[rowOrder[start]];
+
+                int[] tripStops = new int[length];
+                for (int i = 0; i < length; i++) tripStops[i] = stops[rowOrder[start + i]];
+                Integer pattern = patternIndices.get(new IntArrayKey(tripStops));
+                if (pattern == null) {
+                    pattern = patternIndices.size();
+                    patternIndices.put(new IntArrayKey(tripStops), pattern);
+                    patternStops.addAll(tripStops);
+                    patternStopOffsets.add(patternStops.size());
+                }
+
+                // The profile key is the pattern followed by the interleaved offsets.
+                int[] profile = new int[1 + 2 * length];
+                profile[0] = pattern;
+                for (int i = 0; i < length; i++) {
+                    int row = rowOrder[start + i];
+                    profile[1 + 2 * i] = arrivals[row] - startSeconds;
+                    profile[2 + 2 * i] = departures[row] - startSeconds;
+                }
+                Integer profileIndex = profileIndices.get(new IntArrayKey(profile));
+                if (profileIndex == null) {
+                    profileIndex = profileIndices.size();
+                    profileIndices.put(new IntArrayKey(profile), profileIndex);
+                    for (int i = 0; i < length; i++) {
+                        profileArrivals.add(profile[1 + 2 * i]);
+                        profileDepartures.add(profile[2 + 2 * i]);
+                    }
+                    profileOffsets.add(profileArrivals.size());
+                }
+
+                tripPatterns[t] = pattern;
+                tripProfiles[t] = profileIndex;
+                tripStartSeconds[t] = startSeconds;
+            }
+
+            // List the trips of each pattern, sorted by start time.
+            int patternCount = patternIndices.size();
+            int[] patternTripOffsets = new int[patternCount + 1];
+            for (int t = 0; t < tripCount; t++) patternTripOffsets[tripPatterns[t] + 1]++;
+            for (int p = 0; p < patternCount; p++) patternTripOffsets[p + 1] += patternTripOffsets[p];
+            Integer[] tripsByStart = new Integer[tripCount];
+            for (int t = 0; t < tripCount; t++) tripsByStart[t] = t;
+            Arrays.sort(tripsByStart, (a, b) -> Integer.compare(tripStartSeconds[a], tripStartSeconds[b]));
+            int[] patternTrips = new int[tripCount];
+            int[] nextTrip = Arrays.copyOf(patternTripOffsets, patternCount);
+            for (int trip : tripsByStart) patternTrips[nextTrip[tripPatterns[trip]]++] = trip;
+
+            return new StopTimeTable(stations, tripPatterns, tripProfiles, tripStartSeconds,
+                    patternStopOffsets.toArray(), patternStops.toArray(),
+                    patternTripOffsets, patternTrips,
+                    profileOffsets.toArray(), profileArrivals.toArray(), profileDepartures.toArray());
+        }
+
+        private void grow() {
+            int capacity = trips.length * 2;
+            trips = Arrays.copyOf(trips, capacity);
+            sequences = Arrays.copyOf(sequences, capacity);
+            stops = Arrays.copyOf(stops, capacity);
+            arrivals = Arrays.copyOf(arrivals, capacity);
+            departures = Arrays.copyOf(departures, capacity);
+        }
+    }
+
+    /**
+     * Wraps an `int[]` so it can be used as a map key by value.
+     */
+    private static final class IntArrayKey {
+        private final int[] values;
+        private final int hash;
+
+        IntArrayKey(int[] values) {
+            this.values = values;
+            this.hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof IntArrayKey other && Arrays.equals(values, other.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * A growable list of ints.
+     */
+    private static final class IntList {
+        private int[] values = new int[1024];
+        private int size = 0;
+
+        void add(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        void addAll(int[] added) {
+            if (size + added.length > values.length) {
+                values = Arrays.copyOf(values, Math.max(values.length * 2, size + added.length));
+            }
+            System.arraycopy(added, 0, values, size, added.length);
+            size += added.length;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
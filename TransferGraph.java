@@ -0,0 +1,226 @@
+package edu.vassar.cmpu203.myfirstapplication.Model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * TransferGraph stores the walking transfers between nearby stations that trips stop at: for
+ * each station, the stations that can be walked to and how long it takes.
+ * <p>
+ * The transfers are computed once when the GTFS data is loaded (and stored in the snapshot): the
+ * stations within `MAX_TRANSFER_METERS` of each other are found with a grid of cells about that
+ * size, and each pair gets the time given by `transfers.txt` if there's one or else an estimate
+ * from the distance. Like `StopTimeTable`, the transfers of all stations are stored back to back:
+ * the transfers out of station `s` are `targets[offsets[s]]` up to (excluding)
+ * `targets[offsets[s + 1]]`, sorted by target, and take `seconds[...]` at the same positions.
+ */
+public class TransferGraph {
+    /// Walking speed; about 4.3 km/h.
+    public static final double WALK_METERS_PER_SECOND = 1.2;
+    /// Streets are rarely straight lines between two points.
+    public static final double WALK_DETOUR_FACTOR = 1.25;
+    /// How far we walk between two stations to transfer, unless `transfers.txt` says otherwise.
+    public static final double MAX_TRANSFER_METERS = 300;
+    /// The least estimated time to transfer between two platforms, even if they're at the same place.
+    public static final int MIN_TRANSFER_SECONDS = 120;
+    /// Stations are built in parallel in chunks of this many stations.
+    private static final int CHUNK_SIZE = 256;
+    private static final double METERS_PER_DEGREE = 111_320.0;
+
+    /**
+     * A transfer given by `transfers.txt`, between two stations that trips stop at.
+     * @param seconds The time it takes, or `NOT_POSSIBLE`, or `ESTIMATED` to estimate it from the
+     *                distance (even if the stations are farther apart than `MAX_TRANSFER_METERS`).
+     */
+    public record FixedTransfer(int fromStation, int toStation, int seconds) {
+        public static final int NOT_POSSIBLE = -1;
+        public static final int ESTIMATED = -2;
+    }
+
+    private final int[] offsets;
+    private final int[] targets;
+    private final int[] seconds;
+
+    /**
+     * Constructor for TransferGraph. The arrays are used as they are, not copied.
+     * @param offsets Where the transfers of each station start in `targets` and `seconds`,
+     *                followed by their length.
+     * @param targets The station each transfer goes to.
+     * @param seconds The time each transfer takes.
+     */
+    public TransferGraph(int[] offsets, int[] targets, int[] seconds) {
+        this.offsets = offsets;
+        this.targets = targets;
+        this.seconds = seconds;
+    }
+
+    /**
+     * Compute the walking transfers between the stations of `stopTimes` that trips stop at,
+     * splitting the stations into chunks that run in parallel on `executor`. Nothing waits for
+     * the chunks (the graph is assembled once the last one is done), so this can be called from a
+     * task of `executor` itself, whatever its number of threads.
+     * @param fixedTransfers The transfers given by `transfers.txt`.
+     */
+    public static CompletableFuture<TransferGraph> buildAsync(StopTimeTable stopTimes,
+                                                              List<FixedTransfer> fixedTransfers,
+                                                              Executor executor) {
+        StationDetails[] stations = stopTimes.getStations();
+        boolean[] served = new boolean[stations.length];
+        for (int stop : stopTimes.getPatternStops()) served[stop] = true;
+
+        // Grid of cells `MAX_TRANSFER_METERS` wide, so all stations close enough to a station are
+        // in its cell or the 8 around it.
+        double meanLatitude = 0;
+        int servedCount = 0;
+        for (int s = 0; s < stations.length; s++) {
+            if (!served[s]) continue;
+            meanLatitude += stations[s].getCoords().getLatitude();
+            servedCount++;
+        }
+        meanLatitude = servedCount == 0 ? 0 : meanLatitude / servedCount;
+        double cellLatitude = MAX_TRANSFER_METERS / METERS_PER_DEGREE;
+        double cellLongitude = cellLatitude / Math.max(0.01, Math.cos(Math.toRadians(meanLatitude)));
+        Map<Long, List<Integer>> grid = new HashMap<>();
+        int[] stationRows = new int[stations.length];
+        int[] stationColumns = new int[stations.length];
+        for (int s = 0; s < stations.length; s++) {
+            if (!served[s]) continue;
+            stationRows[s] = (int) Math.floor(stations[s].getCoords().getLatitude() / cellLatitude);
+            stationColumns[s] = (int) Math.floor(stations[s].getCoords().getLongitude() / cellLongitude);
+            grid.computeIfAbsent(cell(stationRows[s], stationColumns[s]), key -> new ArrayList<>()).add(s);
+        }
+
+        // The fixed transfers out of each station.
+        Map<Integer, Map<Integer, Integer>> fixed = new HashMap<>();
+        for (FixedTransfer transfer : fixedTransfers) {
+            if (transfer.fromStation() == transfer.toStation()
+                    || !served[transfer.fromStation()] || !served[transfer.toStation()]) continue;
+            fixed.computeIfAbsent(transfer.fromStation(), key -> new HashMap<>())
+                    .put(transfer.toStation(), transfer.seconds());
+        }
+
+        // Find the transfers of each chunk of stations in parallel. Each station's transfers
+        // are packed as `target << 32 | seconds` and sorted, which sorts them by target.
+        long[][] transfers = new long[stations.length][];
+        List<CompletableFuture<Void>> chunks = new ArrayList<>();
+        for (int start = 0; start < stations.length; start += CHUNK_SIZE) {
+            int from = start;
+            int to = Math.min(stations.length, start + CHUNK_SIZE);
+            chunks.add(CompletableFuture.runAsync(() -> {
+                for (int s = from; s < to; s++) {
+                    if (served[s]) {
+                        transfers[s] = findTransfers(stations, s, stationRows[s], stationColumns[s],
+                                grid, fixed.getOrDefault(s, Map.of()));
+                    }
+                }
+            }, executor));
+        }
+        return CompletableFuture.allOf(chunks.toArray(new CompletableFuture[0]))
+                .thenApply(done -> assemble(transfers));
+    }
+
+    /**
+     * Pack the transfers found for each station (null if none) back to back.
+     */
+    private static TransferGraph assemble(long[][] transfers) {
+        int stationCount = transfers.length;
+        int[] offsets = new int[stationCount + 1];
+        for (int s = 0; s < stationCount; s++) {
+            offsets[s + 1] = offsets[s] + (transfers[s] == null ? 0 : transfers[s].length);
+        }
+        int[] targets = new int[offsets[stationCount]];
+        int[] seconds = new int[offsets[stationCount]];
+        for (int s = 0; s < stationCount; s++) {
+            if (transfers[s] == null) continue;
+            for (int i = 0; i < transfers[s].length; i++) {
+                targets[offsets[s] + i] = (int) (transfers[s][i] >>> 32);
+                seconds[offsets[s] + i] = (int) transfers[s][i];
+            }
+        }
+        return new TransferGraph(offsets, targets, seconds);
+    }
+
+    private static long[] findTransfers(StationDetails[] stations, int station, int row, int column,
+                                        Map<Long, List<Integer>> grid, Map<Integer, Integer> fixed) {
+        Coordinates coords = stations[station].getCoords();
+        long[] found = new long[8];
+        int count = 0;
+        for (int r = row - 1; r <= row + 1; r++) {
+            for (int c = column - 1; c <= column + 1; c++) {
+                for (int target : grid.getOrDefault(cell(r, c), List.of())) {
+                    if (target == station || fixed.containsKey(target)) continue;
+                    double meters = Coordinates.distanceInKm(coords, stations[target].getCoords()) * 1000;
+                    if (meters > MAX_TRANSFER_METERS) continue;
+                    if (count == found.length) found = Arrays.copyOf(found, count * 2);
+                    found[count++] = pack(target, estimateSeconds(meters));
+                }
+            }
+        }
+        for (Map.Entry<Integer, Integer> transfer : fixed.entrySet()) {
+            int target = transfer.getKey();
+            int seconds = transfer.getValue();
+            if (seconds == FixedTransfer.NOT_POSSIBLE) continue;
+            if (seconds == FixedTransfer.ESTIMATED) {
+                seconds = estimateSeconds(Coordinates.distanceInKm(coords, stations[target].getCoords()) * 1000);
+            }
+            if (count == found.length) found = Arrays.copyOf(found, count * 2);
+            found[count++] = pack(target, seconds);
+        }
+        long[] transfers = Arrays.copyOf(found, count);
+        Arrays.sort(transfers);
+        return transfers;
+    }
+
+    private static long cell(int row, int column) {
+        return ((long) row << 32) | (column & 0xFFFFFFFFL);
+    }
+
+    private static long pack(int target, int seconds) {
+        return ((long) target << 32) | seconds;
+    }
+
+    /**
+     * Get the time it takes to walk `meters` in a straight line, taking detours into account.
+     */
+    public static int walkSeconds(double meters) {
+        return (int) Math.ceil(meters * WALK_DETOUR_FACTOR / WALK_METERS_PER_SECOND);
+    }
+
+    private static int estimateSeconds(double meters) {
+        return Math.max(MIN_TRANSFER_SECONDS, walkSeconds(meters));
+    }
+
+    /**
+     * Get the number of transfers.
+     */
+    public int getTransferCount() {
+        return targets.length;
+    }
+
+    /**
+     * Get where the transfers of each station start in `getTargets()` and `getSeconds()`,
+     * followed by the number of transfers.
+     */
+    public int[] getOffsets() {
+        return offsets;
+    }
+
+    /**
+     * Get the station each transfer goes to.
+     */
+    public int[] getTargets() {
+        return targets;
+    }
+
+    /**
+     * Get the time each transfer takes.
+     */
+    public int[] getSeconds() {
+        return seconds;
+    }
+}
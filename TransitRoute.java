@@ -10,6 +10,8 @@ package edu.vassar.cmpu203.myfirstapplication.Model;
 * concrete arrival times.
  */
 public class TransitRoute {
+    /// The index of the route in `GTFSData`, or -1 for routes that aren't part of it.
+    private final int ordinal;
     private final String id;
     private final String displayName;
     private final String longDisplayName;
@@ -26,6 +28,21 @@ public class TransitRoute {
      * @param trips
      */
     public TransitRoute(String id, String displayName, String longDisplayName, String color, TripCollection trips) {
+        this(-1, id, displayName, longDisplayName, color, trips);
+    }
+
+    /**
+     * Constructor for TransitRoute with its ordinal in `GTFSData`.
+     * @param ordinal
+     * @param id
+     * @param displayName
+     * @param longDisplayName
+     * @param color
+     * @param trips
+     */
+    public TransitRoute(int ordinal, String id, String displayName, String longDisplayName, String color,
+                        TripCollection trips) {
+        this.ordinal = ordinal;
         this.id = id;
         this.displayName = displayName;
         this.longDisplayName = longDisplayName;
@@ -33,6 +50,13 @@ public class TransitRoute {
         this.trips = trips;
     }
 
+    /**
+     * Get the index of the route in `GTFSData.getRoutes()`, or -1 if it isn't part of it.
+     */
+    public int getOrdinal() {
+        return ordinal;
+    }
+
     public String getId() {
         return id;
     }
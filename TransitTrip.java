@@ -2,8 +2,8 @@ package edu.vassar.cmpu203.myfirstapplication.Model;
 
 import androidx.annotation.NonNull;
 
+import java.time.DayOfWeek;
 import java.util.Arrays;
-import java.util.Map;
 import java.util.Optional;
 
 /** A trips correspond to one trip made by a public-transportation
@@ -12,15 +12,18 @@ import java.util.Optional;
 * Contains an id, refers back to the parent route. Also includes
 * the shape of the trip, the service, and the headsign (what's displayed
 * on the display, e.g. "Outbound"). Unlike a GTFS "trip," `Model.TransitTrip`
-* refers to all the stations it passes by, organized by departure times.
+* refers to all the stations it passes by, in order, with their arrival and departure
+* times (a view over the shared `StopTimeTable`).
  */
 public class TransitTrip {
     /// Corresponds to GTFS's "calendar.txt"
     ///
     /// @param startDate TODO: Pick a more appropriate format.
+    /// @param ordinal The index of the service in `GTFSData`, or -1 if it isn't part of it.
     public record TripService(String id, String startDate, String endDate, boolean onMonday,
                               boolean onTuesday, boolean onWednesday, boolean onThursday,
-                              boolean onFriday, boolean onSaturday, boolean onSunday) {
+                              boolean onFriday, boolean onSaturday, boolean onSunday,
+                              int ordinal) {
         /**
          * Constructor for TripService.
          *
@@ -37,6 +40,34 @@ public class TransitTrip {
          */
         public TripService {}
 
+        /**
+         * Constructor for a TripService that isn't part of `GTFSData`.
+         */
+        public TripService(String id, String startDate, String endDate, boolean onMonday,
+                           boolean onTuesday, boolean onWednesday, boolean onThursday,
+                           boolean onFriday, boolean onSaturday, boolean onSunday) {
+            this(id, startDate, endDate, onMonday, onTuesday, onWednesday, onThursday,
+                    onFriday, onSaturday, onSunday, -1);
+        }
+
+        /**
+         * Check whether the weekly schedule of the service includes a day of the week. To check
+         * a specific date, including the date range and exceptions, use `ServiceCalendar`.
+         * @param day
+         * @return
+         */
+        public boolean runsOn(DayOfWeek day) {
+            return switch (day) {
+                case MONDAY -> onMonday;
+                case TUESDAY -> onTuesday;
+                case WEDNESDAY -> onWednesday;
+                case THURSDAY -> onThursday;
+                case FRIDAY -> onFriday;
+                case SATURDAY -> onSaturday;
+                case SUNDAY -> onSunday;
+            };
+        }
+
         /**
          * toString method for TripService.
          *
@@ -86,6 +117,8 @@ public class TransitTrip {
         }
     }
 
+    /// The index of the trip in `GTFSData`, or -1 for trips that aren't part of it.
+    private final int ordinal;
     private final String id;
     private final TransitRoute parentRoute;
     private final Optional<TripShape> shape;
@@ -93,7 +126,7 @@ public class TransitTrip {
     private final TripService service;
     private final String headsign;
     private final TripDirection direction;
-    private final Map<ClockTime, StationDetails> departures;
+    private final TripStopTimes departures;
 
     /**
      * Constructor for TransitTrip.
@@ -106,7 +139,25 @@ public class TransitTrip {
      * @param departures
      */
     public TransitTrip(String id, TransitRoute parentRoute, Optional<TripShape> shape, TripService service,
-                       String headsign, TripDirection direction, Map<ClockTime, StationDetails> departures) {
+                       String headsign, TripDirection direction, TripStopTimes departures) {
+        this(-1, id, parentRoute, shape, service, headsign, direction, departures);
+    }
+
+    /**
+     * Constructor for TransitTrip with its ordinal in `GTFSData`.
+     * @param ordinal
+     * @param id
+     * @param parentRoute
+     * @param shape
+     * @param service
+     * @param headsign
+     * @param direction
+     * @param departures
+     */
+    public TransitTrip(int ordinal, String id, TransitRoute parentRoute, Optional<TripShape> shape,
+                       TripService service, String headsign, TripDirection direction,
+                       TripStopTimes departures) {
+        this.ordinal = ordinal;
         this.id = id;
         this.parentRoute = parentRoute;
         this.shape = shape;
@@ -116,6 +167,13 @@ public class TransitTrip {
         this.departures = departures;
     }
 
+    /**
+     * Get the index of the trip in `GTFSData.getTrips()`, or -1 if it isn't part of it.
+     */
+    public int getOrdinal() {
+        return ordinal;
+    }
+
     public String getId() {
         return id;
     }
@@ -140,7 +198,10 @@ public class TransitTrip {
         return direction;
     }
 
-    public Map<ClockTime, StationDetails> getDepartures() {
+    /**
+     * Get the stations this trip stops at, in order, with their arrival and departure times.
+     */
+    public TripStopTimes getDepartures() {
         return departures;
     }
 
@@ -1,21 +1,85 @@
 package edu.vassar.cmpu203.myfirstapplication.Model;
 
-import java.util.HashMap;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /** A collection organizing `TransitTrip`s associated with a specific route.
- * Trips are organized by the direction in which they're going.
+ * Trips are organized by the direction in which they're going and, within a direction, sorted
+ * by their first departure so that trips around a given time can be found by binary search.
+ * <p>
+ * Trips are added while loading; the sorted index is built the first time it's queried (and
+ * rebuilt if more trips are added afterwards).
  */
 public class TripCollection {
     private TransitRoute parentRoute;
-    private final Map<TransitTrip.TripDirection, TransitTrip> tripSet;
+    private final Map<TransitTrip.TripDirection, List<TransitTrip>> tripSet;
+    private final Map<TransitTrip.TripDirection, DirectionIndex> index;
+    private boolean indexed = false;
+
+    /**
+     * Trips of one direction sorted by first departure, with the departures copied into an
+     * array for binary search.
+     */
+    private static class DirectionIndex {
+        final List<TransitTrip> trips;
+        final int[] firstDepartures;
+        /// The trips of each stop pattern (by pattern index), in order of first departure.
+        final Map<Integer, List<TransitTrip>> tripsByPattern = new LinkedHashMap<>();
+        final List<TripPattern> patterns = new ArrayList<>();
+
+        DirectionIndex(List<TransitTrip> unsortedTrips) {
+            List<TransitTrip> sorted = new ArrayList<>(unsortedTrips);
+            sorted.sort(Comparator.comparingInt(TripCollection::firstDeparture));
+            trips = Collections.unmodifiableList(sorted);
+            firstDepartures = new int[sorted.size()];
+            for (int i = 0; i < sorted.size(); i++) {
+                TransitTrip trip = sorted.get(i);
+                firstDepartures[i] = firstDeparture(trip);
+
+                TripPattern pattern = trip.getDepartures().getPattern();
+                if (pattern == null) continue;
+                List<TransitTrip> patternTrips = tripsByPattern.get(pattern.getPatternIndex());
+                if (patternTrips == null) {
+                    patternTrips = new ArrayList<>();
+                    tripsByPattern.put(pattern.getPatternIndex(), patternTrips);
+                    patterns.add(pattern);
+                }
+                patternTrips.add(trip);
+            }
+        }
+
+        /**
+         * Get the position of the first trip departing at or after `seconds`.
+         */
+        int lowerBound(int seconds) {
+            int low = 0;
+            int high = firstDepartures.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (firstDepartures[middle] < seconds) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
 
     /**
      * Constructor for TripCollection.
      */
     public TripCollection() {
         this.parentRoute = null;
-        this.tripSet = new HashMap<>();
+        this.tripSet = new EnumMap<>(TransitTrip.TripDirection.class);
+        this.index = new EnumMap<>(TransitTrip.TripDirection.class);
     }
     /**
      * Get the parent route of this TripCollection.
@@ -24,14 +88,71 @@ public class TripCollection {
     public TransitRoute getParentRoute() {
         return parentRoute;
     }
+
+    /**
+     * Get all trips going in a specific direction, sorted by first departure.
+     * @param direction
+     * @return
+     */
+    public List<TransitTrip> getTrips(TransitTrip.TripDirection direction) {
+        return directionIndex(direction).trips;
+    }
+
+    /**
+     * Get the trips going in a specific direction that run on `date` and leave their first stop
+     * at or after a given time, sorted by first departure.
+     * @param direction
+     * @param date The service day.
+     * @param seconds The time in seconds since the start of the service day.
+     * @param calendar The calendar of the services of the trips, e.g. `GTFSData.getServiceCalendar()`.
+     * @return
+     */
+    public List<TransitTrip> getTripsDepartingAfter(TransitTrip.TripDirection direction, LocalDate date,
+                                                    int seconds, ServiceCalendar calendar) {
+        return getNextTrips(direction, date, seconds, Integer.MAX_VALUE, calendar);
+    }
+
+    /**
+     * Get the next (at most) `count` trips going in a specific direction that run on `date` and
+     * leave their first stop at or after a given time.
+     * @param direction
+     * @param date The service day.
+     * @param seconds The time in seconds since the start of the service day.
+     * @param count
+     * @param calendar The calendar of the services of the trips, e.g. `GTFSData.getServiceCalendar()`.
+     * @return
+     */
+    public List<TransitTrip> getNextTrips(TransitTrip.TripDirection direction, LocalDate date, int seconds,
+                                          int count, ServiceCalendar calendar) {
+        DirectionIndex directionIndex = directionIndex(direction);
+        BitSet activeTrips = calendar.getActiveTrips(date);
+        List<TransitTrip> nextTrips = new ArrayList<>();
+        for (int i = directionIndex.lowerBound(seconds);
+             i < directionIndex.trips.size() && nextTrips.size() < count; i++) {
+            TransitTrip trip = directionIndex.trips.get(i);
+            if (activeTrips.get(trip.getOrdinal())) nextTrips.add(trip);
+        }
+        return nextTrips;
+    }
+
     /**
-     * Get the trip for a specific direction.
+     * Get the stop patterns followed by the trips going in a specific direction.
      * @param direction
      * @return
      */
-    public Map<TransitTrip.TripDirection, TransitTrip>
-    getTripSet(TransitTrip.TripDirection direction, TransitTrip trip) {
-        return tripSet;
+    public List<TripPattern> getPatterns(TransitTrip.TripDirection direction) {
+        return Collections.unmodifiableList(directionIndex(direction).patterns);
+    }
+
+    /**
+     * Get the trips of this route that follow a specific stop pattern, sorted by first departure.
+     * @param direction
+     * @param pattern
+     * @return
+     */
+    public List<TransitTrip> getTrips(TransitTrip.TripDirection direction, TripPattern pattern) {
+        List<TransitTrip> trips = directionIndex(direction).tripsByPattern.get(pattern.getPatternIndex());
+        return trips == null ? Collections.emptyList() : Collections.unmodifiableList(trips);
     }
 
     /**
@@ -49,7 +170,37 @@ public class TripCollection {
      * Add a TransitTrip to this TripCollection.
      * @param trip
      */
-    public void addTrip(TransitTrip trip) {
-        tripSet.put(trip.getDirection(), trip);
+    public synchronized void addTrip(TransitTrip trip) {
+        List<TransitTrip> trips = tripSet.get(trip.getDirection());
+        if (trips == null) {
+            trips = new ArrayList<>();
+            tripSet.put(trip.getDirection(), trips);
+        }
+        trips.add(trip);
+        indexed = false;
+    }
+
+    private synchronized DirectionIndex directionIndex(TransitTrip.TripDirection direction) {
+        if (!indexed) {
+            index.clear();
+            for (Map.Entry<TransitTrip.TripDirection, List<TransitTrip>> entry : tripSet.entrySet()) {
+                index.put(entry.getKey(), new DirectionIndex(entry.getValue()));
+            }
+            indexed = true;
+        }
+        DirectionIndex directionIndex = index.get(direction);
+        if (directionIndex == null) {
+            directionIndex = new DirectionIndex(Collections.emptyList());
+            index.put(direction, directionIndex);
+        }
+        return directionIndex;
+    }
+
+    /**
+     * Get the time a trip leaves its first stop; trips without stop times sort last.
+     */
+    private static int firstDeparture(TransitTrip trip) {
+        TripStopTimes departures = trip.getDepartures();
+        return departures.size() == 0 ? Integer.MAX_VALUE : departures.getDepartureSeconds(0);
     }
 }
@@ -0,0 +1,85 @@
+package edu.vassar.cmpu203.myfirstapplication.Model;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A stop pattern: the sequence of stops shared by a group of trips in a `StopTimeTable`. Usually
+ * the trips of a pattern belong to the same route and direction, e.g. every local 1 train going
+ * downtown, and only differ by when they start.
+ * <p>
+ * Like `TripStopTimes`, this is a view over the table and doesn't copy anything.
+ */
+public class TripPattern {
+    private final StopTimeTable table;
+    private final int pattern;
+
+    /**
+     * Constructor for TripPattern. Use `StopTimeTable.getPattern` to create one.
+     */
+    TripPattern(StopTimeTable table, int pattern) {
+        this.table = table;
+        this.pattern = pattern;
+    }
+
+    /**
+     * Get the index of the pattern in its `StopTimeTable`.
+     */
+    public int getPatternIndex() {
+        return pattern;
+    }
+
+    /**
+     * Get the number of stops in the pattern.
+     */
+    public int size() {
+        return table.getPatternStopOffsets()[pattern + 1] - table.getPatternStopOffsets()[pattern];
+    }
+
+    /**
+     * Get the ordinal of the `stop`th station of the pattern.
+     */
+    public int getStationOrdinal(int stop) {
+        if (stop < 0 || stop >= size()) {
+            throw new IndexOutOfBoundsException("Stop " + stop + " of a pattern with " + size() + " stops");
+        }
+        return table.getPatternStops()[table.getPatternStopOffsets()[pattern] + stop];
+    }
+
+    /**
+     * Get the `stop`th station of the pattern.
+     */
+    public StationDetails getStation(int stop) {
+        return table.getStations()[getStationOrdinal(stop)];
+    }
+
+    /**
+     * Get the number of trips following this pattern.
+     */
+    public int getTripCount() {
+        return table.getPatternTripOffsets()[pattern + 1] - table.getPatternTripOffsets()[pattern];
+    }
+
+    /**
+     * Get the stop times of the `index`th trip of this pattern; trips are sorted by start time.
+     */
+    public TripStopTimes getTrip(int index) {
+        if (index < 0 || index >= getTripCount()) {
+            throw new IndexOutOfBoundsException("Trip " + index + " of a pattern with " + getTripCount() + " trips");
+        }
+        return table.getTrip(table.getPatternTrips()[table.getPatternTripOffsets()[pattern] + index]);
+    }
+
+    /**
+     * @return string representation of the pattern.
+     */
+    @NonNull
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("TripPattern{stops=[");
+        for (int stop = 0; stop < size(); stop++) {
+            if (stop > 0) builder.append(", ");
+            builder.append(getStation(stop).getId());
+        }
+        return builder.append("], trips=").append(getTripCount()).append('}').toString();
+    }
+}
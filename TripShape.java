@@ -1,42 +1,64 @@
 package edu.vassar.cmpu203.myfirstapplication.Model;
 
 import java.util.ArrayList;
+import java.util.List;
 
 /** A shape associated with a specific trip. Corresponds to
 * a GTFS "shape."
 * E.g. A bus going inbound (which is different from an outbound trip).
+* <p>
+* The points themselves are kept compressed in a `ShapeStore`; a `TripShape` only refers to them
+* and decodes them when asked.
  */
 public class TripShape {
     private final String id;
-    private final ArrayList<Coordinates> points;
+    private final ShapeStore store;
+    private final int shape;
 
     /**
      * Constructor for TripShape.
      * @param id
-     * @param points
+     * @param store The store containing the points of the shape.
+     * @param shape The index of the shape in `store`.
      */
-    public TripShape(String id, ArrayList<Coordinates> points) {
+    public TripShape(String id, ShapeStore store, int shape) {
         this.id = id;
-        this.points = points;
+        this.store = store;
+        this.shape = shape;
     }
 
     public String getId() {
         return id;
     }
 
-    public ArrayList<Coordinates> getPoints() {
-        return points;
+    /**
+     * Get the index of the shape's points in its `ShapeStore`; shapes with identical points share
+     * an index.
+     */
+    public int getStoreIndex() {
+        return shape;
+    }
+
+    /**
+     * Get the number of points of the shape.
+     */
+    public int getPointCount() {
+        return store.getPointCount(shape);
+    }
+
+    /**
+     * Decode the points of the shape in order, without allocating.
+     */
+    public void forEachPoint(ShapeStore.PointVisitor visitor) {
+        store.forEachPoint(shape, visitor);
     }
 
     /**
-     * Add a point to the shape.
-     * @param point
-     * @param index
+     * Decode the points of the shape into `Coordinates`. Prefer `forEachPoint` for long shapes.
      */
-    public void addPoint(Coordinates point, int index) {
-        if (index != points.size()) {
-            throw new IndexOutOfBoundsException();
-        }
-        this.points.add(point);
+    public List<Coordinates> getPoints() {
+        List<Coordinates> points = new ArrayList<>(getPointCount());
+        forEachPoint((index, latitude, longitude) -> points.add(new Coordinates(latitude, longitude)));
+        return points;
     }
 }
@@ -0,0 +1,145 @@
+package edu.vassar.cmpu203.myfirstapplication.Model;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * A lightweight view over the stop times of one trip in a `StopTimeTable`. Stops are in the order
+ * the trip visits them (i.e. by `stop_sequence`).
+ * <p>
+ * The view doesn't copy anything; stations come from the trip's pattern and times are its start
+ * time plus the offsets in its travel-time profile.
+ */
+public class TripStopTimes {
+    /**
+     * A view with no stop times, for trips we don't have a schedule for.
+     */
+    public static final TripStopTimes EMPTY = new TripStopTimes(null, -1);
+
+    private final StopTimeTable table;
+    private final int trip;
+    /// Where the trip's stops start in the table's pattern stops.
+    private final int stopsStart;
+    /// Where the trip's offsets start in the table's profiles.
+    private final int profileStart;
+    private final int startSeconds;
+    private final int size;
+
+    /**
+     * Constructor for TripStopTimes. Use `StopTimeTable.getTrip` to create one.
+     */
+    TripStopTimes(StopTimeTable table, int trip) {
+        this.table = table;
+        this.trip = trip;
+        if (table == null) {
+            stopsStart = profileStart = startSeconds = size = 0;
+        } else {
+            int pattern = table.getTripPatterns()[trip];
+            stopsStart = table.getPatternStopOffsets()[pattern];
+            size = table.getPatternStopOffsets()[pattern + 1] - stopsStart;
+            profileStart = table.getProfileOffsets()[table.getTripProfiles()[trip]];
+            startSeconds = table.getTripStartSeconds()[trip];
+        }
+    }
+
+    /**
+     * Get the index of the trip in its `StopTimeTable`, or -1 for `EMPTY`.
+     */
+    public int getTripIndex() {
+        return trip;
+    }
+
+    /**
+     * Get the stop pattern the trip follows, or null for `EMPTY`.
+     */
+    @Nullable
+    public TripPattern getPattern() {
+        return table == null ? null : table.getPattern(table.getTripPatterns()[trip]);
+    }
+
+    /**
+     * Get the number of stops of the trip.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the station of the `stop`th stop of the trip.
+     */
+    public StationDetails getStation(int stop) {
+        checkStop(stop);
+        return table.getStations()[table.getPatternStops()[stopsStart + stop]];
+    }
+
+    /**
+     * Get the arrival time at the `stop`th stop, in seconds since the start of the service day.
+     */
+    public int getArrivalSeconds(int stop) {
+        checkStop(stop);
+        return startSeconds + table.getProfileArrivals()[profileStart + stop];
+    }
+
+    /**
+     * Get the departure time from the `stop`th stop, in seconds since the start of the service day.
+     */
+    public int getDepartureSeconds(int stop) {
+        checkStop(stop);
+        return startSeconds + table.getProfileDepartures()[profileStart + stop];
+    }
+
+    /**
+     * Get the arrival time at the `stop`th stop.
+     */
+    public ClockTime getArrivalTime(int stop) {
+        return ClockTime.ofSeconds(getArrivalSeconds(stop));
+    }
+
+    /**
+     * Get the departure time from the `stop`th stop.
+     */
+    public ClockTime getDepartureTime(int stop) {
+        return ClockTime.ofSeconds(getDepartureSeconds(stop));
+    }
+
+    /**
+     * Get the stations of the trip in the order they're visited.
+     */
+    public List<StationDetails> getStations() {
+        return new AbstractList<StationDetails>() {
+            @Override
+            public StationDetails get(int index) {
+                return getStation(index);
+            }
+
+            @Override
+            public int size() {
+                return TripStopTimes.this.size();
+            }
+        };
+    }
+
+    private void checkStop(int stop) {
+        if (stop < 0 || stop >= size) {
+            throw new IndexOutOfBoundsException("Stop " + stop + " of a trip with " + size + " stops");
+        }
+    }
+
+    /**
+     * @return string representation of the stop times.
+     */
+    @NonNull
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("TripStopTimes{");
+        for (int stop = 0; stop < size(); stop++) {
+            if (stop > 0) builder.append(", ");
+            builder.append(getStation(stop).getId())
+                    .append('@').append(getDepartureTime(stop).toMilitaryTime());
+        }
+        return builder.append('}').toString();
+    }
+}
@@ -5,6 +5,7 @@ import androidx.lifecycle.MutableLiveData;
 import edu.vassar.cmpu203.myfirstapplication.Controller.State;
 import edu.vassar.cmpu203.myfirstapplication.Model.BestRoute;
 import edu.vassar.cmpu203.myfirstapplication.Model.Destination;
+import edu.vassar.cmpu203.myfirstapplication.Model.SimplifiedLine;
 import edu.vassar.cmpu203.myfirstapplication.Model.Station;
 import edu.vassar.cmpu203.myfirstapplication.Model.StationDetails;
 
@@ -117,5 +118,11 @@ public interface UIDelegate {
      */
     void showRoutes(List<BestRoute> bestRoutes, Runnable onCancel);
 
+    /**
+     * Draw the steps of a route on the map, each at the level of detail of the zoom. They're
+     * removed when the map is redrawn for another destination.
+     */
+    void showRouteLines(List<SimplifiedLine> lines);
+
 //    void showFavorites(Runnable onCancel);
 }
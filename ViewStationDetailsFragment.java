@@ -13,10 +13,14 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.EditText;
 
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.Objects;
 import java.util.stream.Collectors;
 
+import edu.vassar.cmpu203.myfirstapplication.Model.DepartureBoard;
 import edu.vassar.cmpu203.myfirstapplication.Model.Station;
 import edu.vassar.cmpu203.myfirstapplication.Model.StationDetails;
 import edu.vassar.cmpu203.myfirstapplication.Model.TransitRoute;
@@ -37,6 +41,8 @@ public class ViewStationDetailsFragment extends Fragment {
    FragmentViewStationDetailsBinding binding;
    Context ctx;
    Station station;
+   /// How many upcoming departures to show.
+   private static final int DEPARTURES_SHOWN = 5;
 
     public ViewStationDetailsFragment(Context ctx, Station station) {
         this.ctx = ctx;
@@ -69,12 +75,30 @@ public class ViewStationDetailsFragment extends Fragment {
                 .collect(Collectors.joining(", "));
 
 
+        // Look up the next departures from the station (and its platforms) in NYC time.
+        List<DepartureBoard.Departure> departures = stationDetails.nextDepartures(
+                LocalDateTime.now(ZoneId.of("America/New_York")), DEPARTURES_SHOWN);
+        StringBuilder departuresString = new StringBuilder();
+        DateTimeFormatter timeFormatter = DateTimeFormatter.ofPattern(getString(R.string.departureTimeFormat));
+        for (DepartureBoard.Departure departure : departures) {
+            departuresString.append("\n").append(getString(R.string.departureLine,
+                    departure.time().format(timeFormatter),
+                    departure.trip().getParentRoute().getDisplayName(),
+                    departure.trip().getHeadsign()));
+        }
+
         // Remove loading indicator
         binding.loadingText.setVisibility(View.GONE);
         binding.loadingBar.setVisibility(View.GONE);
 
         // Populate data
-        binding.stationLines.setText(getString(R.string.stationLinesLabel, routesString));
+        String linesText = getString(R.string.stationLinesLabel, routesString);
+        if (departures.isEmpty()) {
+            binding.stationLines.setText(linesText);
+        } else {
+            binding.stationLines.setText(linesText + "\n\n" + getString(R.string.nextDeparturesLabel)
+                    + departuresString);
+        }
         binding.stationLines.setVisibility(View.VISIBLE);
     }
 